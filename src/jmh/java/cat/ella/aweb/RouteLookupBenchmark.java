@@ -0,0 +1,104 @@
+package cat.ella.aweb;
+
+import cat.ella.aweb.api.FormattedRequest;
+import cat.ella.aweb.api.PublicFile;
+import cat.ella.aweb.api.RequestParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Finding the route, capture or public file for a request in a compiled {@link RouteTable}, with
+ * as many public files as routes. A quarter of the routes are templates with a path parameter.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouteLookupBenchmark {
+    @Param({"10", "100", "1000"})
+    public int routes;
+
+    private Path directory;
+    private RouteTable table;
+    private FormattedRequest exact;
+    private FormattedRequest templated;
+    private FormattedRequest file;
+    private FormattedRequest capture;
+    private FormattedRequest missing;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("aweb-jmh");
+        for (int i = 0; i < routes; i++) Files.write(directory.resolve("file" + i + ".txt"), new byte[]{'x'});
+        PublicFile files = new PublicFile(null, directory.toString(), "/static/", 1, 0);
+
+        List<RouteBinding> bindings = new ArrayList<>();
+        List<RouteBinding> captures = new ArrayList<>();
+        for (int i = 0; i < routes; i++) {
+            String path = i % 4 == 3 ? "/api/resource" + i + "/{id}" : "/api/resource" + i;
+            bindings.add(RouteBinding.route(0, "route" + i, path, false, false, request -> null));
+            if (i % 10 == 0) captures.add(RouteBinding.capture(0, "capture" + i, "/events" + i, "POST", request -> {
+            }));
+        }
+        table = RouteTable.compile(bindings, captures, List.of(files));
+
+        int last = routes - 1;
+        exact = request("GET /api/resource" + (last - 1) + " HTTP/1.1");
+        templated = request("GET /api/resource" + (routes - routes % 4 - 1) + "/42 HTTP/1.1");
+        file = request("GET /static/file" + last + ".txt HTTP/1.1");
+        capture = request("POST /events0 HTTP/1.1");
+        missing = request("GET /api/unknown/path HTTP/1.1");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) Files.delete(path);
+        }
+    }
+
+    private static FormattedRequest request(String requestLine) {
+        byte[] bytes = (requestLine + "\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        FormattedRequest request = new FormattedRequest(new RequestParser(8192).parse(bytes, 0, bytes.length), (InputStream) null);
+        // The path is split from the query once per request, before the lookup.
+        request.getPath();
+        return request;
+    }
+
+    @Benchmark
+    public Object exactRoute() {
+        return table.lookup(exact);
+    }
+
+    @Benchmark
+    public Object templatedRoute() {
+        return table.lookup(templated);
+    }
+
+    @Benchmark
+    public Object publicFile() {
+        return table.lookup(file);
+    }
+
+    @Benchmark
+    public Object captureRoute() {
+        return table.lookup(capture).capture("POST");
+    }
+
+    @Benchmark
+    public Object miss() {
+        return table.lookup(missing);
+    }
+}
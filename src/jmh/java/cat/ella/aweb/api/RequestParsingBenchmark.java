@@ -0,0 +1,78 @@
+package cat.ella.aweb.api;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a request head and building the {@link FormattedRequest} handed to routes, as the
+ * transports do for every request, on the header sets of a command-line client and a browser.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestParsingBenchmark {
+    private static final String CLIENT = "GET /api/users/42?fields=name,email HTTP/1.1\r\n"
+            + "Host: localhost:8080\r\n"
+            + "User-Agent: curl/8.4.0\r\n"
+            + "Accept: */*\r\n"
+            + "\r\n";
+
+    private static final String BROWSER = "GET /assets/app.js?v=3 HTTP/1.1\r\n"
+            + "Host: www.example.com\r\n"
+            + "Connection: keep-alive\r\n"
+            + "sec-ch-ua: \"Chromium\";v=\"124\", \"Google Chrome\";v=\"124\", \"Not-A.Brand\";v=\"99\"\r\n"
+            + "sec-ch-ua-mobile: ?0\r\n"
+            + "User-Agent: Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/124.0.0.0 Safari/537.36\r\n"
+            + "sec-ch-ua-platform: \"Windows\"\r\n"
+            + "Accept: */*\r\n"
+            + "Sec-Fetch-Site: same-origin\r\n"
+            + "Sec-Fetch-Mode: no-cors\r\n"
+            + "Sec-Fetch-Dest: script\r\n"
+            + "Referer: https://www.example.com/dashboard\r\n"
+            + "Accept-Encoding: gzip, deflate, br, zstd\r\n"
+            + "Accept-Language: en-GB,en-US;q=0.9,en;q=0.8\r\n"
+            + "Cookie: session=8f14e45fceea167a5a36dedd4bea2543; theme=dark; _ga=GA1.1.1234567890.1700000000\r\n"
+            + "If-None-Match: \"5d41402abc4b2a76b9719d911017c592\"\r\n"
+            + "\r\n";
+
+    @Param({"client", "browser"})
+    public String headers;
+
+    private byte[] bytes;
+    private RequestParser parser;
+
+    @Setup
+    public void setup() {
+        bytes = (headers.equals("client") ? CLIENT : BROWSER).getBytes(StandardCharsets.ISO_8859_1);
+        // The transports keep one parser per connection.
+        parser = new RequestParser(64 * 1024, 100);
+    }
+
+    @Benchmark
+    public RequestHead parseHead() {
+        return parser.parse(bytes, 0, bytes.length);
+    }
+
+    @Benchmark
+    public FormattedRequest parseRequest() {
+        return new FormattedRequest(parser.parse(bytes, 0, bytes.length), (InputStream) null);
+    }
+
+    /**
+     * Parsing plus what a typical handler reads: the path, a query parameter and two headers.
+     */
+    @Benchmark
+    public int parseAndRead() {
+        FormattedRequest request = new FormattedRequest(parser.parse(bytes, 0, bytes.length), (InputStream) null);
+        String query = request.getQueryParameter(headers.equals("client") ? "fields" : "v");
+        String host = request.getHeader("Host");
+        String accept = request.getHeader("Accept");
+        return request.getPath().length() + query.length() + host.length() + accept.length();
+    }
+}
@@ -0,0 +1,55 @@
+package cat.ella.aweb.api;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializing a response with {@link FormattedResponse#build()}, as {@code @Route} methods
+ * returning {@code byte[]} do, across body sizes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseBuildBenchmark {
+    @Param({"0", "128", "4096", "65536", "1048576"})
+    public int bodySize;
+
+    private byte[] body;
+
+    @Setup
+    public void setup() {
+        body = new byte[bodySize];
+        Arrays.fill(body, (byte) 'a');
+    }
+
+    @Benchmark
+    public byte[] build() {
+        return new FormattedResponse()
+                .contentType("application/json")
+                .content(body)
+                .build();
+    }
+
+    @Benchmark
+    public byte[] buildWithHeaders() {
+        return new FormattedResponse()
+                .contentType("application/json")
+                .addHeader("Cache-Control", "no-store")
+                .addHeader("X-Request-Id", "5d41402abc4b2a76")
+                .content(body)
+                .build();
+    }
+
+    @Benchmark
+    public byte[] buildHead() {
+        return new FormattedResponse()
+                .contentType("application/json")
+                .contentLength(bodySize)
+                .buildHead();
+    }
+}
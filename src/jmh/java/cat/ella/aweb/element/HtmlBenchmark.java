@@ -0,0 +1,52 @@
+package cat.ella.aweb.element;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing HTML with {@link HtmlParser#parseHtmlString(String)} and rendering it again with
+ * {@link HtmlElementBuilder#build()}, on a small page and on a page with a long table.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HtmlBenchmark {
+    @Param({"small", "large"})
+    public String document;
+
+    private String html;
+    private List<HtmlElement> elements;
+
+    @Setup
+    public void setup() {
+        html = document.equals("small") ? page(3) : page(200);
+        elements = HtmlParser.parseHtmlString(html);
+    }
+
+    private static String page(int rows) {
+        StringBuilder page = new StringBuilder("<html><head><title>Orders</title>"
+                + "<link rel=\"stylesheet\" href=\"styles.css\"></head><body><div class=\"container\">"
+                + "<h1>Orders</h1><table class=\"orders\">");
+        for (int i = 0; i < rows; i++) {
+            page.append("<tr id=\"order-").append(i).append("\"><td class=\"id\">").append(i)
+                    .append("</td><td><a href=\"/orders/").append(i).append("\">Order ").append(i)
+                    .append("</a></td><td class=\"total\">").append(i * 7 % 100).append(".00</td></tr>");
+        }
+        return page.append("</table></div></body></html>").toString();
+    }
+
+    @Benchmark
+    public List<HtmlElement> parse() {
+        return HtmlParser.parseHtmlString(html);
+    }
+
+    @Benchmark
+    public String build() {
+        return new HtmlElementBuilder().addElements(elements).build();
+    }
+}
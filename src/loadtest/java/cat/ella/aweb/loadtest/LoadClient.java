@@ -0,0 +1,336 @@
+package cat.ella.aweb.loadtest;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A minimal HTTP/1.1 load generator over plain sockets, so connection reuse is exactly what was
+ * asked for. Each worker thread owns one connection at a time.
+ *
+ * <p>In closed-loop mode every worker sends its next request as soon as the previous one is
+ * answered. In open-loop mode the workers share a fixed arrival rate, and latency is measured
+ * from when each request was due rather than when it was sent. A slow server then shows up as
+ * latency instead of as fewer requests.</p>
+ */
+final class LoadClient {
+    /**
+     * A kind of request and its share of the traffic.
+     */
+    static final class Target {
+        final String name;
+        final int weight;
+        final byte[][] requests;
+
+        Target(String name, int weight, byte[][] requests) {
+            this.name = name;
+            this.weight = weight;
+            this.requests = requests;
+        }
+    }
+
+    private final String host;
+    private final int port;
+    private final Target[] targets;
+    private final int totalWeight;
+    private final int concurrency;
+    private final boolean keepAlive;
+    private final double rate;
+
+    /**
+     * @param rate The total requests per second in open-loop mode, or 0 for closed-loop.
+     */
+    LoadClient(String host, int port, Target[] targets, int concurrency, boolean keepAlive, double rate) {
+        this.host = host;
+        this.port = port;
+        this.targets = targets;
+        int weights = 0;
+        for (Target target : targets) weights += target.weight;
+        this.totalWeight = weights;
+        this.concurrency = concurrency;
+        this.keepAlive = keepAlive;
+        this.rate = rate;
+    }
+
+    /**
+     * Run the load for the warm-up and then the measured period.
+     *
+     * @return The latencies and counts of the measured period.
+     */
+    Result run(long warmupNanos, long durationNanos) throws InterruptedException {
+        long start = System.nanoTime();
+        long measureFrom = start + warmupNanos;
+        long end = measureFrom + durationNanos;
+        Worker[] workers = new Worker[concurrency];
+        Thread[] threads = new Thread[concurrency];
+        for (int i = 0; i < concurrency; i++) {
+            workers[i] = new Worker(i, start, measureFrom, end);
+            threads[i] = new Thread(workers[i], "load-client-" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+        for (Thread thread : threads) thread.join();
+        return Result.merge(workers, targets, durationNanos);
+    }
+
+    private final class Worker implements Runnable {
+        private final long measureFrom;
+        private final long end;
+        /**
+         * Open-loop only: the time between this worker's requests, and when the next one is due.
+         */
+        private final long interval;
+        private long due;
+        private final Samples[] samples = new Samples[targets.length];
+        private long errors;
+        private final long[] statuses = new long[6];
+        private Connection connection;
+
+        Worker(int index, long start, long measureFrom, long end) {
+            this.measureFrom = measureFrom;
+            this.end = end;
+            this.interval = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) * concurrency / rate) : 0;
+            // Spread the workers' schedules so their requests do not arrive in bursts.
+            this.due = start + (interval * index) / concurrency;
+            for (int i = 0; i < samples.length; i++) samples[i] = new Samples();
+        }
+
+        @Override
+        public void run() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (true) {
+                long sent;
+                if (interval > 0) {
+                    if (due >= end) break;
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) LockSupport.parkNanos(wait);
+                    sent = due;
+                    due += interval;
+                } else {
+                    sent = System.nanoTime();
+                    if (sent >= end) break;
+                }
+
+                int targetIndex = pick(random.nextInt(totalWeight));
+                byte[][] requests = targets[targetIndex].requests;
+                int status = send(requests[random.nextInt(requests.length)]);
+                long finished = System.nanoTime();
+                if (sent < measureFrom) continue;
+                if (status < 0) {
+                    errors++;
+                } else {
+                    statuses[Math.min(status / 100, 5)]++;
+                    samples[targetIndex].add(finished - sent);
+                }
+            }
+            closeConnection();
+        }
+
+        private int pick(int ticket) {
+            for (int i = 0; i < targets.length; i++) {
+                ticket -= targets[i].weight;
+                if (ticket < 0) return i;
+            }
+            return targets.length - 1;
+        }
+
+        /**
+         * @return The response status, or -1 if the request failed.
+         */
+        private int send(byte[] request) {
+            try {
+                if (connection == null) connection = new Connection(host, port);
+                int status = connection.exchange(request);
+                if (!keepAlive || connection.closed) closeConnection();
+                return status;
+            } catch (IOException e) {
+                closeConnection();
+                return -1;
+            }
+        }
+
+        private void closeConnection() {
+            if (connection == null) return;
+            try {
+                connection.socket.close();
+            } catch (IOException ignored) {
+            }
+            connection = null;
+        }
+    }
+
+    /**
+     * One client connection: writes a request and reads the response, skipping its body.
+     */
+    private static final class Connection {
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        private final byte[] line = new byte[8192];
+        private final byte[] discard = new byte[64 * 1024];
+        private boolean closed;
+
+        Connection(String host, int port) throws IOException {
+            socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(host, port), 5_000);
+            socket.setSoTimeout(30_000);
+            in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+            out = socket.getOutputStream();
+        }
+
+        int exchange(byte[] request) throws IOException {
+            out.write(request);
+            out.flush();
+
+            int length = readLine();
+            if (length < 12) throw new EOFException("No status line");
+            int status = (line[9] - '0') * 100 + (line[10] - '0') * 10 + (line[11] - '0');
+            long contentLength = -1;
+            boolean chunked = false;
+            while ((length = readLine()) > 0) {
+                if (startsWith(length, "content-length:")) contentLength = Long.parseLong(value(length, 15));
+                else if (startsWith(length, "transfer-encoding:")) chunked = value(length, 18).equalsIgnoreCase("chunked");
+                else if (startsWith(length, "connection:")) closed = value(length, 11).equalsIgnoreCase("close");
+            }
+
+            if (chunked) {
+                long size;
+                while ((size = Long.parseLong(value(readLine(), 0).split(";")[0].trim(), 16)) > 0) {
+                    skip(size);
+                    readLine();
+                }
+                while (readLine() > 0) {
+                    // Trailers.
+                }
+            } else if (contentLength > 0) {
+                skip(contentLength);
+            } else if (contentLength < 0 && status >= 200 && status != 204 && status != 304) {
+                // Delimited by the connection closing.
+                while (in.read(discard) != -1) {
+                    // Drained.
+                }
+                closed = true;
+            }
+            return status;
+        }
+
+        private int readLine() throws IOException {
+            int length = 0;
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b == -1) throw new EOFException("Connection closed");
+                if (length < line.length) line[length++] = (byte) b;
+            }
+            return length > 0 && line[length - 1] == '\r' ? length - 1 : length;
+        }
+
+        private boolean startsWith(int length, String lowerCasePrefix) {
+            if (length < lowerCasePrefix.length()) return false;
+            for (int i = 0; i < lowerCasePrefix.length(); i++) {
+                if (Character.toLowerCase(line[i]) != lowerCasePrefix.charAt(i)) return false;
+            }
+            return true;
+        }
+
+        private String value(int length, int from) {
+            return new String(line, from, length - from, StandardCharsets.ISO_8859_1).trim();
+        }
+
+        private void skip(long count) throws IOException {
+            while (count > 0) {
+                int read = in.read(discard, 0, (int) Math.min(discard.length, count));
+                if (read == -1) throw new EOFException("Body cut short");
+                count -= read;
+            }
+        }
+    }
+
+    /**
+     * Latencies in nanoseconds, kept in full so percentiles are exact.
+     */
+    static final class Samples {
+        private long[] values = new long[1024];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        void addAll(Samples other) {
+            if (size + other.size > values.length) values = Arrays.copyOf(values, Math.max(values.length * 2, size + other.size));
+            System.arraycopy(other.values, 0, values, size, other.size);
+            size += other.size;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void sort() {
+            Arrays.sort(values, 0, size);
+        }
+
+        /**
+         * @return The latency at a quantile; call {@link #sort()} first.
+         */
+        long quantile(double quantile) {
+            if (size == 0) return 0;
+            int index = (int) Math.ceil(quantile * size) - 1;
+            return values[Math.max(0, Math.min(size - 1, index))];
+        }
+    }
+
+    /**
+     * What the measured period produced, overall and for each target.
+     */
+    static final class Result {
+        final Samples all = new Samples();
+        final Samples[] byTarget;
+        final String[] targetNames;
+        final long[] statuses = new long[6];
+        final long errors;
+        final long durationNanos;
+
+        private Result(Samples[] byTarget, String[] targetNames, long errors, long durationNanos) {
+            this.byTarget = byTarget;
+            this.targetNames = targetNames;
+            this.errors = errors;
+            this.durationNanos = durationNanos;
+        }
+
+        static Result merge(Worker[] workers, Target[] targets, long durationNanos) {
+            Samples[] byTarget = new Samples[targets.length];
+            String[] names = new String[targets.length];
+            long errors = 0;
+            for (int i = 0; i < targets.length; i++) {
+                byTarget[i] = new Samples();
+                names[i] = targets[i].name;
+            }
+            for (Worker worker : workers) {
+                for (int i = 0; i < targets.length; i++) byTarget[i].addAll(worker.samples[i]);
+                errors += worker.errors;
+            }
+            Result result = new Result(byTarget, names, errors, durationNanos);
+            for (Worker worker : workers) {
+                for (int i = 0; i < result.statuses.length; i++) result.statuses[i] += worker.statuses[i];
+            }
+            for (Samples samples : byTarget) {
+                result.all.addAll(samples);
+                samples.sort();
+            }
+            result.all.sort();
+            return result;
+        }
+
+        double requestsPerSecond() {
+            return all.size() / (durationNanos / 1e9);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package cat.ella.aweb.loadtest;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts {@link LoadTestServer} in a separate JVM, drives it over loopback with {@link LoadClient}
+ * and reports throughput and latency percentiles. With {@code --baseline} the result is compared
+ * to a stored one and the run fails on a regression larger than {@code --tolerance}.
+ *
+ * <p>Options, all {@code --name=value}:</p>
+ * <ul>
+ *     <li>{@code transport}: {@code BLOCKING} (default) or {@code SELECTOR}.</li>
+ *     <li>{@code mode}: {@code closed} (default) or {@code open}; open needs {@code rate}.</li>
+ *     <li>{@code concurrency}: client threads, default 64.</li>
+ *     <li>{@code rate}: total requests per second in open-loop mode.</li>
+ *     <li>{@code duration} and {@code warmup}: seconds, default 10 and 3.</li>
+ *     <li>{@code keepAlive}: reuse connections, default true.</li>
+ *     <li>{@code mix}: weights per request kind, default
+ *     {@code static=40,hello=20,user=20,search=10,event=10}.</li>
+ *     <li>{@code baseline}: a properties file holding previous results per scenario.</li>
+ *     <li>{@code tolerance}: the allowed regression as a fraction, default 0.10.</li>
+ *     <li>{@code updateBaseline}: overwrite the stored result for this scenario.</li>
+ * </ul>
+ */
+public final class LoadTest {
+    private static final String HOST = "127.0.0.1";
+    private static final String DEFAULT_MIX = "static=40,hello=20,user=20,search=10,event=10";
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) throw new IllegalArgumentException("Unexpected argument: " + arg);
+            int equals = arg.indexOf('=');
+            if (equals < 0) options.put(arg.substring(2), "true");
+            else options.put(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+
+        String transport = options.getOrDefault("transport", "BLOCKING").toUpperCase(Locale.ROOT);
+        int port = Integer.parseInt(options.getOrDefault("port", String.valueOf(LoadTestServer.PORT)));
+        boolean open = options.getOrDefault("mode", "closed").equalsIgnoreCase("open");
+        int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "64"));
+        double rate = open ? Double.parseDouble(options.getOrDefault("rate", "0")) : 0;
+        long duration = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("duration", "10")));
+        long warmup = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("warmup", "3")));
+        boolean keepAlive = Boolean.parseBoolean(options.getOrDefault("keepAlive", "true"));
+        String mix = options.getOrDefault("mix", DEFAULT_MIX);
+        double tolerance = Double.parseDouble(options.getOrDefault("tolerance", "0.10"));
+
+        if (concurrency < 1) throw new IllegalArgumentException("Concurrency must be at least 1");
+        if (open && rate <= 0) throw new IllegalArgumentException("Open-loop mode needs a --rate above 0");
+        if (duration <= 0) throw new IllegalArgumentException("Duration must be above 0");
+
+        String scenario = transport.toLowerCase(Locale.ROOT) + "." + (open ? "open" + (long) rate : "closed")
+                + ".c" + concurrency + (keepAlive ? ".keepalive" : ".close") + "." + mix.replace(',', '_').replace('=', '-');
+
+        Process server = startServer(port, transport);
+        LoadClient.Result result;
+        try {
+            awaitServer(server, port);
+            LoadClient client = new LoadClient(HOST, port, targets(mix, keepAlive), concurrency, keepAlive, rate);
+            System.out.println("Running " + scenario + " for " + TimeUnit.NANOSECONDS.toSeconds(duration)
+                    + "s after " + TimeUnit.NANOSECONDS.toSeconds(warmup) + "s of warm-up");
+            result = client.run(warmup, duration);
+        } finally {
+            server.destroy();
+            if (!server.waitFor(5, TimeUnit.SECONDS)) server.destroyForcibly();
+        }
+
+        report(result);
+
+        String baseline = options.get("baseline");
+        if (baseline != null) {
+            boolean passed = compare(Paths.get(baseline), scenario, result, tolerance, options.containsKey("updateBaseline"));
+            if (!passed) System.exit(1);
+        }
+    }
+
+    private static Process startServer(int port, String transport) throws IOException {
+        String java = ProcessHandle.current().info().command().orElse("java");
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                LoadTestServer.class.getName(), String.valueOf(port), transport)
+                .inheritIO()
+                .start();
+    }
+
+    private static void awaitServer(Process server, int port) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (System.nanoTime() < deadline) {
+            if (!server.isAlive()) throw new IOException("The load-test server exited with " + server.exitValue());
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(HOST, port), 500);
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IOException("The load-test server did not start listening on port " + port);
+    }
+
+    /**
+     * Build the weighted request kinds from a mix such as {@code static=40,user=20}. Kinds with
+     * several variants pick one at random per request, so lookups and responses vary.
+     */
+    private static LoadClient.Target[] targets(String mix, boolean keepAlive) {
+        List<LoadClient.Target> targets = new ArrayList<>();
+        for (String part : mix.split(",")) {
+            String[] kindAndWeight = part.trim().split("=");
+            if (kindAndWeight.length != 2) throw new IllegalArgumentException("Mix entries must look like kind=weight: " + part);
+            String kind = kindAndWeight[0].trim();
+            int weight = Integer.parseInt(kindAndWeight[1].trim());
+            if (weight <= 0) continue;
+
+            byte[][] requests;
+            switch (kind) {
+                case "static":
+                    requests = new byte[LoadTestServer.FILES.length][];
+                    for (int i = 0; i < requests.length; i++) requests[i] = get("/static/" + LoadTestServer.FILES[i], keepAlive);
+                    break;
+                case "hello":
+                    requests = new byte[][]{get("/hello", keepAlive)};
+                    break;
+                case "user":
+                    requests = new byte[100][];
+                    for (int i = 0; i < requests.length; i++) requests[i] = get("/users/" + (i + 1), keepAlive);
+                    break;
+                case "search":
+                    String[] queries = {"java", "http", "selector", "latency", "routes"};
+                    requests = new byte[queries.length][];
+                    for (int i = 0; i < requests.length; i++) requests[i] = get("/search?q=" + queries[i], keepAlive);
+                    break;
+                case "event":
+                    requests = new byte[][]{post("/events", "{\"type\":\"click\",\"target\":\"button\"}", keepAlive)};
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown request kind: " + kind
+                            + " (expected static, hello, user, search or event)");
+            }
+            targets.add(new LoadClient.Target(kind, weight, requests));
+        }
+        if (targets.isEmpty()) throw new IllegalArgumentException("The mix has no request kinds");
+        return targets.toArray(new LoadClient.Target[0]);
+    }
+
+    private static byte[] get(String target, boolean keepAlive) {
+        return ("GET " + target + " HTTP/1.1\r\nHost: " + HOST + "\r\nUser-Agent: aweb-loadtest\r\n"
+                + (keepAlive ? "" : "Connection: close\r\n") + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] post(String target, String body, boolean keepAlive) {
+        byte[] content = body.getBytes(StandardCharsets.UTF_8);
+        byte[] head = ("POST " + target + " HTTP/1.1\r\nHost: " + HOST + "\r\nUser-Agent: aweb-loadtest\r\n"
+                + "Content-Type: application/json\r\nContent-Length: " + content.length + "\r\n"
+                + (keepAlive ? "" : "Connection: close\r\n") + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        byte[] request = Arrays.copyOf(head, head.length + content.length);
+        System.arraycopy(content, 0, request, head.length, content.length);
+        return request;
+    }
+
+    private static void report(LoadClient.Result result) {
+        System.out.printf(Locale.ROOT, "%-8s %10s %10s %10s %10s %10s %10s%n", "kind", "requests", "rps", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (int i = 0; i < result.byTarget.length; i++) row(result.targetNames[i], result.byTarget[i], result.durationNanos);
+        row("total", result.all, result.durationNanos);
+        System.out.printf(Locale.ROOT, "statuses: 2xx=%d 3xx=%d 4xx=%d 5xx=%d, errors: %d%n",
+                result.statuses[2], result.statuses[3], result.statuses[4], result.statuses[5], result.errors);
+    }
+
+    private static void row(String name, LoadClient.Samples samples, long durationNanos) {
+        System.out.printf(Locale.ROOT, "%-8s %10d %10.0f %10.3f %10.3f %10.3f %10.3f%n", name, samples.size(),
+                samples.size() / (durationNanos / 1e9), millis(samples.quantile(0.5)), millis(samples.quantile(0.99)),
+                millis(samples.quantile(0.999)), millis(samples.quantile(1)));
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    /**
+     * Compare a result with the stored baseline for its scenario. A missing scenario is recorded
+     * instead, as is any scenario when {@code update} is set.
+     *
+     * @return Whether the result is within tolerance of the baseline.
+     */
+    private static boolean compare(Path file, String scenario, LoadClient.Result result, double tolerance, boolean update) throws IOException {
+        Properties baseline = new Properties();
+        if (Files.exists(file)) {
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.ISO_8859_1)) {
+                baseline.load(reader);
+            }
+        }
+
+        double rps = result.requestsPerSecond();
+        long p99 = result.all.quantile(0.99);
+        String storedRps = baseline.getProperty(scenario + ".rps");
+        String storedP99 = baseline.getProperty(scenario + ".p99Nanos");
+
+        if (update || storedRps == null || storedP99 == null) {
+            baseline.setProperty(scenario + ".rps", String.format(Locale.ROOT, "%.0f", rps));
+            baseline.setProperty(scenario + ".p99Nanos", String.valueOf(p99));
+            if (file.getParent() != null) Files.createDirectories(file.getParent());
+            try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.ISO_8859_1)) {
+                baseline.store(writer, "AnnotatedWeb load-test baseline, one rps and p99 per scenario");
+            }
+            System.out.println("Recorded the baseline for " + scenario + " in " + file);
+            return result.errors == 0;
+        }
+
+        double baseRps = Double.parseDouble(storedRps);
+        long baseP99 = Long.parseLong(storedP99);
+        boolean passed = true;
+        System.out.printf(Locale.ROOT, "baseline: rps %.0f -> %.0f (%+.1f%%), p99 %.3f ms -> %.3f ms (%+.1f%%)%n",
+                baseRps, rps, change(baseRps, rps), millis(baseP99), millis(p99), change(baseP99, p99));
+        if (rps < baseRps * (1 - tolerance)) {
+            System.err.println("Throughput regressed by more than " + Math.round(tolerance * 100) + "%");
+            passed = false;
+        }
+        if (p99 > baseP99 * (1 + tolerance)) {
+            System.err.println("p99 latency regressed by more than " + Math.round(tolerance * 100) + "%");
+            passed = false;
+        }
+        if (result.errors > 0) {
+            System.err.println(result.errors + " requests failed");
+            passed = false;
+        }
+        return passed;
+    }
+
+    private static double change(double before, double after) {
+        return before == 0 ? 0 : (after - before) / before * 100;
+    }
+}
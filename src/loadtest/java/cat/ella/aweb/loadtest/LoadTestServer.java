@@ -0,0 +1,93 @@
+package cat.ella.aweb.loadtest;
+
+import cat.ella.aweb.WebServer;
+import cat.ella.aweb.annotations.Capture;
+import cat.ella.aweb.annotations.Route;
+import cat.ella.aweb.annotations.WebService;
+import cat.ella.aweb.api.FormattedRequest;
+import cat.ella.aweb.api.FormattedResponse;
+import cat.ella.aweb.api.PublicFile;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The server under load: a few representative routes, an asynchronous capture and a directory of
+ * public files. Started by {@link LoadTest} in its own JVM so client and server do not share a heap.
+ *
+ * <p>Usage: {@code LoadTestServer <port> <BLOCKING|SELECTOR>}. Runs until killed.</p>
+ */
+public final class LoadTestServer {
+    static final int PORT = 18080;
+    /**
+     * The public files served under {@code /static/}, with their sizes in bytes.
+     */
+    static final String[] FILES = {"index.html", "app.js", "logo.png"};
+    static final int[] FILE_SIZES = {2 * 1024, 32 * 1024, 256 * 1024};
+
+    private static final byte[] HELLO = new FormattedResponse().contentType("text/plain").content("Hello, world!").build();
+    private static final LongAdder EVENTS = new LongAdder();
+
+    private LoadTestServer() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : PORT;
+        WebServer.Transport transport = args.length > 1 ? WebServer.Transport.valueOf(args[1]) : WebServer.Transport.BLOCKING;
+
+        Path directory = Files.createTempDirectory("aweb-loadtest");
+        directory.toFile().deleteOnExit();
+        for (int i = 0; i < FILES.length; i++) {
+            byte[] content = new byte[FILE_SIZES[i]];
+            Arrays.fill(content, (byte) ('a' + i));
+            Path file = Files.write(directory.resolve(FILES[i]), content);
+            file.toFile().deleteOnExit();
+        }
+
+        WebServer server = new WebServer(port).transport(transport);
+        server.add(new PublicFile(null, directory.toString(), "/static/", 1, 0));
+        server.start();
+    }
+
+    @WebService(port = PORT)
+    @Route(path = "/hello")
+    public static byte[] hello() {
+        return HELLO;
+    }
+
+    @WebService(port = PORT)
+    @Route(path = "/users/{id}")
+    public static byte[] user(FormattedRequest request) {
+        long id = request.getParameters().getLong("id");
+        return new FormattedResponse()
+                .contentType("application/json")
+                .content("{\"id\":" + id + ",\"name\":\"User " + id + "\",\"email\":\"user" + id + "@example.com\"}")
+                .build();
+    }
+
+    @WebService(port = PORT)
+    @Route(path = "/search")
+    public static byte[] search(FormattedRequest request) {
+        String query = request.getQueryParameter("q");
+        StringBuilder results = new StringBuilder("[");
+        for (int i = 0; i < 20; i++) {
+            if (i > 0) results.append(',');
+            results.append("{\"rank\":").append(i).append(",\"title\":\"").append(query).append(' ').append(i).append("\"}");
+        }
+        return new FormattedResponse()
+                .contentType("application/json")
+                .content(results.append(']').toString().getBytes(StandardCharsets.UTF_8))
+                .build();
+    }
+
+    @WebService(port = PORT)
+    @Route(path = "/events")
+    @Capture(method = "POST", async = true)
+    public static void event(FormattedRequest request) {
+        EVENTS.increment();
+    }
+}
@@ -0,0 +1,477 @@
+package cat.ella.aweb;
+
+import cat.ella.aweb.api.FormattedRequest;
+import cat.ella.aweb.api.RequestHead;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An access log written off the request path. Each request is copied into a preallocated slot
+ * of a ring buffer, which allocates nothing; a background thread formats the slots and writes
+ * them in batches to a file or an SLF4J logger. When the buffer is full, requests are dropped
+ * from the log and counted rather than made to wait.
+ *
+ * <p>Fields are cut at a fixed length: the target at {@value #MAX_TARGET} bytes, the Referer
+ * and User-Agent at {@value #MAX_HEADER} bytes.</p>
+ *
+ * <pre>
+ * {@code
+ * webServer.accessLog(AccessLog.toFile(Path.of("access.log")).format(AccessLog.Format.COMBINED));
+ * }
+ * </pre>
+ */
+public final class AccessLog {
+    static final int MAX_TARGET = 1024;
+    static final int MAX_HEADER = 256;
+    private static final int MAX_TOKEN = 64;
+    /**
+     * Bytes of formatted lines collected before the file is written.
+     */
+    private static final int BATCH_BYTES = 64 * 1024;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final DateTimeFormatter COMMON_TIME = DateTimeFormatter.ofPattern("'['dd/MMM/yyyy:HH:mm:ss Z']'", Locale.US);
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The layout of a log line.
+     */
+    public enum Format {
+        /**
+         * The Common Log Format: {@code host - - [time] "request line" status bytes}.
+         */
+        COMMON,
+        /**
+         * The Common Log Format followed by the quoted Referer and User-Agent.
+         */
+        COMBINED,
+        /**
+         * One JSON object per line, with the handling time in microseconds.
+         */
+        JSON
+    }
+
+    private final Path file;
+    private final Logger logger;
+    private Format format = Format.COMMON;
+    private int capacity = 4096;
+    private ZoneId zone = ZoneId.systemDefault();
+
+    private Slot[] slots;
+    private int mask;
+    private final AtomicLong claimed = new AtomicLong();
+    private volatile long consumed;
+    private volatile boolean running;
+    private final LongAdder logged = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private Thread writer;
+
+    private AccessLog(Path file, Logger logger) {
+        this.file = file;
+        this.logger = logger;
+    }
+
+    /**
+     * Log to a file, appending to it if it exists.
+     *
+     * @param file The log file.
+     * @return The AccessLog instance.
+     */
+    public static AccessLog toFile(Path file) {
+        if (file == null) throw new IllegalArgumentException("file must not be null");
+        return new AccessLog(file, null);
+    }
+
+    /**
+     * Log each line at INFO level to an SLF4J logger.
+     *
+     * @param loggerName The logger name, e.g. {@code "aweb.access"}.
+     * @return The AccessLog instance.
+     */
+    public static AccessLog toLogger(String loggerName) {
+        if (loggerName == null) throw new IllegalArgumentException("loggerName must not be null");
+        return new AccessLog(null, LoggerFactory.getLogger(loggerName));
+    }
+
+    /**
+     * Set the layout of log lines. Defaults to {@link Format#COMMON}.
+     *
+     * @param format The format.
+     * @return The AccessLog instance.
+     */
+    public AccessLog format(Format format) {
+        if (format == null) throw new IllegalArgumentException("format must not be null");
+        checkNotStarted();
+        this.format = format;
+        return this;
+    }
+
+    /**
+     * Set how many requests the buffer holds before further ones are dropped. Rounded up to a
+     * power of two. Defaults to 4096.
+     *
+     * @param capacity The number of slots.
+     * @return The AccessLog instance.
+     */
+    public AccessLog capacity(int capacity) {
+        if (capacity < 1 || capacity > 1 << 24) throw new IllegalArgumentException("capacity must be between 1 and 2^24: " + capacity);
+        checkNotStarted();
+        this.capacity = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+        return this;
+    }
+
+    /**
+     * Set the time zone of {@link Format#COMMON} and {@link Format#COMBINED} timestamps. Defaults to
+     * the system zone; JSON timestamps are always UTC.
+     *
+     * @param zone The time zone.
+     * @return The AccessLog instance.
+     */
+    public AccessLog zone(ZoneId zone) {
+        if (zone == null) throw new IllegalArgumentException("zone must not be null");
+        checkNotStarted();
+        this.zone = zone;
+        return this;
+    }
+
+    /**
+     * @return The number of requests written to the log.
+     */
+    public long logged() {
+        return logged.sum();
+    }
+
+    /**
+     * @return The number of requests left out of the log because the buffer was full.
+     */
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    private void checkNotStarted() {
+        if (slots != null) throw new IllegalStateException("The access log is already in use");
+    }
+
+    /**
+     * Allocate the buffer and start the writer thread. Called when the server starts.
+     */
+    synchronized void start() {
+        if (running) return;
+        if (slots == null) {
+            boolean headers = format != Format.COMMON;
+            slots = new Slot[capacity];
+            for (int i = 0; i < capacity; i++) slots[i] = new Slot(headers);
+            mask = capacity - 1;
+        }
+        running = true;
+        writer = new Thread(this::drain, "aweb-access-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Write what is left in the buffer and stop the writer thread. Called when the server stops.
+     */
+    synchronized void stop() {
+        if (!running) return;
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Copy a request into the buffer, or count it as dropped if the buffer is full.
+     *
+     * @param connection     The connection the request arrived on.
+     * @param request        The request.
+     * @param status         The status sent, or 0 if none was.
+     * @param bytes          The bytes of the response.
+     * @param durationNanos  The time taken to handle the request.
+     */
+    void log(Connection connection, FormattedRequest request, int status, long bytes, long durationNanos) {
+        if (!running) return;
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed >= slots.length) {
+                dropped.increment();
+                return;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+
+        Slot slot = slots[(int) (sequence & mask)];
+        slot.timeMillis = System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(durationNanos);
+        slot.durationNanos = durationNanos;
+        slot.status = status;
+        slot.bytes = bytes;
+        slot.remoteLength = copy(connection.remoteAddress(), slot.remote);
+        slot.methodLength = copy(request.getMethod(), slot.method);
+        slot.versionLength = copy(request.getHttpVersion(), slot.version);
+        RequestHead head = request.getRequestHead();
+        if (head != null) {
+            slot.targetLength = head.copyTarget(slot.target);
+            if (slot.referer != null) {
+                slot.refererLength = copyHeader(head, "Referer", slot.referer);
+                slot.userAgentLength = copyHeader(head, "User-Agent", slot.userAgent);
+            }
+        } else {
+            slot.targetLength = copy(request.getPath(), slot.target);
+            if (slot.referer != null) {
+                slot.refererLength = copy(request.getHeader("Referer"), slot.referer);
+                slot.userAgentLength = copy(request.getHeader("User-Agent"), slot.userAgent);
+            }
+        }
+        // Publishes the slot to the writer thread.
+        slot.sequence = sequence;
+    }
+
+    private static int copyHeader(RequestHead head, String name, byte[] destination) {
+        int index = head.indexOf(name);
+        return index == -1 ? -1 : head.copyHeaderValue(index, destination);
+    }
+
+    /**
+     * Copy the characters of a string that fit in a byte each; others become '?'.
+     *
+     * @return The number of bytes copied, or -1 if the string is null.
+     */
+    private static int copy(String value, byte[] destination) {
+        if (value == null) return -1;
+        int count = Math.min(value.length(), destination.length);
+        for (int i = 0; i < count; i++) {
+            char c = value.charAt(i);
+            destination[i] = c < 0x100 ? (byte) c : (byte) '?';
+        }
+        return count;
+    }
+
+    /**
+     * The writer thread: format published slots into batches until stopped and empty.
+     */
+    private void drain() {
+        Output output = new Output();
+        long next = consumed;
+        try {
+            if (file != null) output.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            while (true) {
+                Slot slot = slots[(int) (next & mask)];
+                if (slot.sequence == next) {
+                    output.append(slot);
+                    next++;
+                    consumed = next;
+                    logged.increment();
+                    if (output.length >= BATCH_BYTES) output.flush();
+                    continue;
+                }
+                output.flush();
+                // Stop only once every claimed slot is written; a claimed slot is published moments later.
+                if (!running && claimed.get() == next) break;
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        } catch (IOException e) {
+            // Requests keep flowing: once the buffer fills up they are counted as dropped.
+            System.err.println("Error writing access log: " + e.getMessage());
+        } finally {
+            if (output.channel != null) {
+                try {
+                    output.channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * One request, copied out of the request with a fixed-size array for each field.
+     */
+    private static final class Slot {
+        volatile long sequence = -1;
+        long timeMillis;
+        long durationNanos;
+        int status;
+        long bytes;
+        final byte[] remote = new byte[MAX_TOKEN];
+        final byte[] method = new byte[MAX_TOKEN];
+        final byte[] version = new byte[MAX_TOKEN];
+        final byte[] target = new byte[MAX_TARGET];
+        final byte[] referer;
+        final byte[] userAgent;
+        int remoteLength;
+        int methodLength;
+        int versionLength;
+        int targetLength;
+        int refererLength;
+        int userAgentLength;
+
+        Slot(boolean headers) {
+            this.referer = headers ? new byte[MAX_HEADER] : null;
+            this.userAgent = headers ? new byte[MAX_HEADER] : null;
+        }
+    }
+
+    /**
+     * Formats slots on the writer thread into a reused buffer.
+     */
+    private final class Output {
+        private byte[] buffer = new byte[BATCH_BYTES + 4 * MAX_TARGET];
+        private int length;
+        private FileChannel channel;
+        private long timeSecond = Long.MIN_VALUE;
+        private byte[] timeText;
+
+        void append(Slot slot) throws IOException {
+            int lineStart = length;
+            if (format == Format.JSON) appendJson(slot);
+            else appendCommon(slot);
+            if (logger != null) {
+                logger.info(new String(buffer, lineStart, length - lineStart, StandardCharsets.UTF_8));
+                length = lineStart;
+            } else {
+                put((byte) '\n');
+            }
+        }
+
+        private void appendCommon(Slot slot) {
+            put(slot.remote, slot.remoteLength);
+            put(" - - ");
+            long second = Math.floorDiv(slot.timeMillis, 1000);
+            if (second != timeSecond) {
+                timeSecond = second;
+                timeText = COMMON_TIME.format(Instant.ofEpochSecond(second).atZone(zone)).getBytes(StandardCharsets.US_ASCII);
+            }
+            put(timeText, timeText.length);
+            put(" \"");
+            quoted(slot.method, slot.methodLength, false);
+            put((byte) ' ');
+            quoted(slot.target, slot.targetLength, false);
+            put((byte) ' ');
+            quoted(slot.version, slot.versionLength, false);
+            put("\" ");
+            if (slot.status > 0) number(slot.status);
+            else put((byte) '-');
+            put((byte) ' ');
+            if (slot.bytes > 0) number(slot.bytes);
+            else put((byte) '-');
+            if (format == Format.COMBINED) {
+                put(" \"");
+                if (slot.refererLength >= 0) quoted(slot.referer, slot.refererLength, false);
+                else put((byte) '-');
+                put("\" \"");
+                if (slot.userAgentLength >= 0) quoted(slot.userAgent, slot.userAgentLength, false);
+                else put((byte) '-');
+                put((byte) '"');
+            }
+        }
+
+        private void appendJson(Slot slot) {
+            put("{\"time\":\"");
+            put(Instant.ofEpochMilli(slot.timeMillis).toString());
+            put("\",\"remote\":\"");
+            quoted(slot.remote, slot.remoteLength, true);
+            put("\",\"method\":\"");
+            quoted(slot.method, slot.methodLength, true);
+            put("\",\"target\":\"");
+            quoted(slot.target, slot.targetLength, true);
+            put("\",\"version\":\"");
+            quoted(slot.version, slot.versionLength, true);
+            put("\",\"status\":");
+            number(slot.status);
+            put(",\"bytes\":");
+            number(slot.bytes);
+            put(",\"duration_us\":");
+            number(TimeUnit.NANOSECONDS.toMicros(slot.durationNanos));
+            if (slot.refererLength >= 0 && slot.referer != null) {
+                put(",\"referer\":\"");
+                quoted(slot.referer, slot.refererLength, true);
+                put((byte) '"');
+            }
+            if (slot.userAgentLength >= 0 && slot.userAgent != null) {
+                put(",\"user_agent\":\"");
+                quoted(slot.userAgent, slot.userAgentLength, true);
+                put((byte) '"');
+            }
+            put((byte) '}');
+        }
+
+        /**
+         * Append bytes for use inside double quotes, escaping quotes, backslashes and control characters.
+         */
+        private void quoted(byte[] bytes, int count, boolean json) {
+            for (int i = 0; i < count; i++) {
+                byte b = bytes[i];
+                if (b == '"' || b == '\\') {
+                    put((byte) '\\');
+                    put(b);
+                } else if ((b >= 0 && b < 0x20) || b == 0x7f) {
+                    put(json ? "\\u00" : "\\x");
+                    put(HEX[(b >> 4) & 0xf]);
+                    put(HEX[b & 0xf]);
+                } else {
+                    put(b);
+                }
+            }
+        }
+
+        private void number(long value) {
+            if (value < 0) {
+                put((byte) '-');
+                value = -value;
+            }
+            int start = length;
+            do {
+                put((byte) ('0' + value % 10));
+                value /= 10;
+            } while (value > 0);
+            for (int i = start, j = length - 1; i < j; i++, j--) {
+                byte swap = buffer[i];
+                buffer[i] = buffer[j];
+                buffer[j] = swap;
+            }
+        }
+
+        private void put(String text) {
+            for (int i = 0; i < text.length(); i++) put((byte) text.charAt(i));
+        }
+
+        private void put(byte[] bytes, int count) {
+            ensure(count);
+            System.arraycopy(bytes, 0, buffer, length, count);
+            length += count;
+        }
+
+        private void put(byte b) {
+            ensure(1);
+            buffer[length++] = b;
+        }
+
+        private void ensure(int count) {
+            if (length + count > buffer.length) buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + count));
+        }
+
+        void flush() throws IOException {
+            if (channel == null || length == 0) return;
+            ByteBuffer pending = ByteBuffer.wrap(buffer, 0, length);
+            while (pending.hasRemaining()) channel.write(pending);
+            length = 0;
+        }
+    }
+}
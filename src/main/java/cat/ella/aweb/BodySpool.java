@@ -0,0 +1,70 @@
+package cat.ella.aweb;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Collects a request body that arrives in pieces. Small bodies stay in memory; once the
+ * body grows past the threshold it is moved to a temporary file and the rest is appended there.
+ */
+final class BodySpool {
+    private final long threshold;
+    private byte[] memory = new byte[1024];
+    private long size;
+    private Path file;
+    private FileChannel channel;
+
+    BodySpool(long threshold) {
+        this.threshold = threshold;
+    }
+
+    void write(byte[] data, int offset, int length) throws IOException {
+        if (length == 0) return;
+        if (channel == null && size + length > threshold) {
+            file = Files.createTempFile("aweb-body", ".tmp");
+            channel = FileChannel.open(file, StandardOpenOption.WRITE);
+            channel.write(ByteBuffer.wrap(memory, 0, (int) size));
+            memory = null;
+        }
+        if (channel != null) {
+            ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+            while (buffer.hasRemaining()) channel.write(buffer);
+        } else {
+            if (size + length > memory.length) memory = Arrays.copyOf(memory, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(memory.length * 2L, size + length)));
+            System.arraycopy(data, offset, memory, (int) size, length);
+        }
+        size += length;
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * Finish writing and open the collected body for reading.
+     */
+    InputStream open() throws IOException {
+        if (channel == null) return new ByteArrayInputStream(memory, 0, (int) size);
+        channel.close();
+        return Files.newInputStream(file);
+    }
+
+    /**
+     * Remove the temporary file, if one was created.
+     */
+    void delete() {
+        try {
+            if (channel != null) channel.close();
+            if (file != null) Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.err.println("Error deleting request body spool: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package cat.ella.aweb;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed-size heap buffers shared by streaming responses, so a response being generated does not
+ * allocate per write. At most {@link #MAX_POOLED} idle buffers are kept.
+ */
+final class BufferPool {
+    static final int BUFFER_SIZE = 16 * 1024;
+    static final int MAX_POOLED = 256;
+
+    private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    /**
+     * @return A cleared buffer of {@link #BUFFER_SIZE} bytes.
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) return ByteBuffer.allocate(BUFFER_SIZE);
+        pooled.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Return a buffer once nothing refers to its contents any more.
+     */
+    void release(ByteBuffer buffer) {
+        if (pooled.incrementAndGet() > MAX_POOLED) {
+            pooled.decrementAndGet();
+            return;
+        }
+        buffers.offer(buffer);
+    }
+}
@@ -0,0 +1,145 @@
+package cat.ella.aweb;
+
+import cat.ella.aweb.api.FormattedResponse;
+import cat.ella.aweb.api.PublicFile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Range requests against public files: parsing {@code Range: bytes=...} and sending 206 and 416
+ * responses. Parts are written as slices of the in-memory contents or transferred straight from
+ * the file, never copied.
+ */
+final class ByteRanges {
+    /**
+     * Requests with more ranges than this get the whole file instead.
+     */
+    static final int MAX_RANGES = 16;
+    private static final String BOUNDARY = "aweb-" + Long.toHexString(ThreadLocalRandom.current().nextLong());
+
+    private ByteRanges() {
+    }
+
+    /**
+     * Parse a Range header against a representation of the given length. Overlapping and
+     * adjacent ranges of a multi-range request are merged.
+     *
+     * @param header The Range header, or null.
+     * @param length The length of the representation.
+     * @return The satisfiable ranges as inclusive {@code {first, last}} pairs, an empty list if none
+     * is satisfiable, or null if the header is absent, malformed or should be ignored.
+     */
+    static List<long[]> parse(String header, long length) {
+        if (header == null || !header.regionMatches(true, 0, "bytes=", 0, 6)) return null;
+        List<long[]> ranges = new ArrayList<>();
+        int specs = 0;
+        for (String spec : header.substring(6).split(",")) {
+            spec = spec.trim();
+            if (spec.isEmpty()) continue;
+            if (++specs > MAX_RANGES) return null;
+            int dash = spec.indexOf('-');
+            if (dash == -1) return null;
+            try {
+                if (dash == 0) {
+                    long suffix = Long.parseLong(spec.substring(1));
+                    if (suffix < 0) return null;
+                    if (suffix > 0 && length > 0) ranges.add(new long[]{Math.max(0, length - suffix), length - 1});
+                } else {
+                    long first = Long.parseLong(spec.substring(0, dash).trim());
+                    String lastText = spec.substring(dash + 1).trim();
+                    long last = lastText.isEmpty() ? Long.MAX_VALUE : Long.parseLong(lastText);
+                    if (first < 0 || last < first) return null;
+                    if (first < length) ranges.add(new long[]{first, Math.min(last, length - 1)});
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        if (specs == 0) return null;
+        return ranges.size() > 1 ? merge(ranges) : ranges;
+    }
+
+    private static List<long[]> merge(List<long[]> ranges) {
+        ranges.sort(Comparator.comparingLong(range -> range[0]));
+        List<long[]> merged = new ArrayList<>();
+        for (long[] range : ranges) {
+            long[] previous = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (previous != null && range[0] <= previous[1] + 1) previous[1] = Math.max(previous[1], range[1]);
+            else merged.add(range);
+        }
+        return merged;
+    }
+
+    /**
+     * Send the ranges of an entry: 416 if none is satisfiable, a single 206 part, or a
+     * {@code multipart/byteranges} 206 response.
+     *
+     * @param exchange The exchange to respond on.
+     * @param entry    The representation being served.
+     * @param data     The contents in memory, or null to read them from the entry's file.
+     * @param channel  An open channel on the entry's file, closed by this method, or null when data is given.
+     * @param length   The length of the representation.
+     * @param ranges   The ranges parsed by {@link #parse(String, long)}.
+     * @throws IOException If writing or reading the file fails.
+     */
+    static void send(Exchange exchange, PublicFile.Entry entry, ByteBuffer data, FileChannel channel, long length, List<long[]> ranges) throws IOException {
+        if (ranges.isEmpty()) {
+            if (channel != null) channel.close();
+            exchange.send(new FormattedResponse().statusCode(416).statusMessage("Range Not Satisfiable")
+                    .addHeader("Content-Range", "bytes */" + length).contentLength(0).buildHead());
+            return;
+        }
+
+        if (ranges.size() == 1) {
+            long first = ranges.get(0)[0];
+            long count = ranges.get(0)[1] - first + 1;
+            byte[] head = entry.partialResponse().contentType(entry.getContentType())
+                    .addHeader("Content-Range", contentRange(ranges.get(0), length)).contentLength(count).buildHead();
+            if (data != null) exchange.send(head, slice(data, first, count));
+            else exchange.send(head, channel, first, count);
+            return;
+        }
+
+        if (channel != null) channel.close();
+        List<byte[]> partHeads = new ArrayList<>(ranges.size());
+        long total = 0;
+        for (long[] range : ranges) {
+            byte[] partHead = ("\r\n--" + BOUNDARY + "\r\nContent-Type: " + entry.getContentType() + "\r\nContent-Range: "
+                    + contentRange(range, length) + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+            partHeads.add(partHead);
+            total += partHead.length + range[1] - range[0] + 1;
+        }
+        byte[] closing = ("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        total += closing.length;
+
+        exchange.sendHead(entry.partialResponse().contentType("multipart/byteranges; boundary=" + BOUNDARY).contentLength(total).buildHead());
+        Connection connection = exchange.connection();
+        for (int i = 0; i < ranges.size(); i++) {
+            long first = ranges.get(i)[0];
+            long count = ranges.get(i)[1] - first + 1;
+            connection.write(partHeads.get(i));
+            if (data != null) connection.write(slice(data, first, count));
+            else connection.transfer(FileChannel.open(entry.getFile(), StandardOpenOption.READ), first, count);
+        }
+        connection.write(closing);
+    }
+
+    private static String contentRange(long[] range, long length) {
+        return "bytes " + range[0] + "-" + range[1] + "/" + length;
+    }
+
+    private static ByteBuffer slice(ByteBuffer data, long first, long count) {
+        ByteBuffer slice = data.duplicate();
+        slice.position(slice.position() + (int) first);
+        slice.limit(slice.position() + (int) count);
+        return slice;
+    }
+}
@@ -0,0 +1,109 @@
+package cat.ella.aweb;
+
+import cat.ella.aweb.api.FormattedRequest;
+import cat.ella.aweb.api.FormattedResponse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The queue and delivery thread of one asynchronous {@code @Capture}. Requests are taken in
+ * arrival order and handed to the capture one at a time, or in batches to a batch handler.
+ * The queue is bounded; {@link #offer(FormattedRequest)} fails rather than blocks when it is full.
+ */
+final class CaptureQueue implements Runnable {
+    private final RouteBinding capture;
+    private final RouteBinding.AsyncCapture settings;
+    private final BlockingQueue<FormattedRequest> queue;
+    private final byte[] acknowledgement;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    CaptureQueue(RouteBinding capture, int capacity) {
+        this.capture = capture;
+        this.settings = capture.async();
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.acknowledgement = acknowledgement(settings.status());
+        this.thread = new Thread(this, "aweb-capture-" + capture.name());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private static byte[] acknowledgement(int status) {
+        return new FormattedResponse().statusCode(status).statusMessage(RouteBinding.AsyncCapture.STATUSES.get(status)).build();
+    }
+
+    /**
+     * Queue a request whose body has already been read into memory.
+     *
+     * @return Whether the request was queued; false if the queue is full or stopped.
+     */
+    boolean offer(FormattedRequest request) {
+        return running && queue.offer(request);
+    }
+
+    /**
+     * @return The response acknowledging a queued request. Must not be modified.
+     */
+    byte[] acknowledgement() {
+        return acknowledgement;
+    }
+
+    /**
+     * Stop accepting requests. Requests already queued are still delivered.
+     */
+    void stop() {
+        running = false;
+        thread.interrupt();
+    }
+
+    @Override
+    public void run() {
+        List<FormattedRequest> batch = new ArrayList<>(Math.min(settings.batchSize(), 1024));
+        while (running || !queue.isEmpty()) {
+            try {
+                FormattedRequest first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch, settings.batchSize() - 1);
+                if (settings.batch() != null && batch.size() < settings.batchSize() && settings.batchDelayMillis() > 0 && running) {
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(settings.batchDelayMillis());
+                    while (batch.size() < settings.batchSize()) {
+                        FormattedRequest next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                        if (next == null) break;
+                        batch.add(next);
+                        queue.drainTo(batch, settings.batchSize() - batch.size());
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Woken by stop(); deliver what was collected and drain the rest.
+                queue.drainTo(batch, Math.max(0, settings.batchSize() - batch.size()));
+            }
+            deliver(batch);
+            batch.clear();
+        }
+    }
+
+    private void deliver(List<FormattedRequest> batch) {
+        if (batch.isEmpty()) return;
+        if (settings.batch() != null) {
+            try {
+                settings.batch().capture(Collections.unmodifiableList(new ArrayList<>(batch)));
+            } catch (Exception e) {
+                System.err.println("Error in capture " + capture.name() + ": " + e.getMessage());
+            }
+            return;
+        }
+        for (FormattedRequest request : batch) {
+            try {
+                capture.capture().capture(request);
+            } catch (Exception e) {
+                System.err.println("Error in capture " + capture.name() + ": " + e.getMessage());
+            }
+        }
+    }
+}
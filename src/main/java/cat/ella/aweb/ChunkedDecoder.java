@@ -0,0 +1,94 @@
+package cat.ella.aweb;
+
+/**
+ * Incremental decoder for {@code Transfer-Encoding: chunked} bodies. Input may be split
+ * anywhere; the decoder keeps its place between calls. Chunk extensions and trailers are skipped.
+ */
+final class ChunkedDecoder {
+    private static final int SIZE = 0;
+    private static final int EXTENSION = 1;
+    private static final int DATA = 2;
+    private static final int DATA_END = 3;
+    private static final int TRAILER = 4;
+    private static final int TRAILER_LINE = 5;
+    private static final int DONE = 6;
+
+    private int state = SIZE;
+    private long remaining;
+    private boolean sizeDigits;
+    private int consumed;
+
+    /**
+     * Decode raw bytes into body bytes. The destination may be the source array, at or
+     * before {@code srcFrom}, to decode in place.
+     *
+     * @return The number of body bytes written to {@code dst}.
+     * @throws IllegalArgumentException If the chunk framing is malformed.
+     */
+    int decode(byte[] src, int srcFrom, int srcTo, byte[] dst, int dstFrom, int dstLength) {
+        int read = srcFrom, write = dstFrom, dstTo = dstFrom + dstLength;
+        while (read < srcTo && state != DONE) {
+            if (state == DATA) {
+                int count = (int) Math.min(remaining, Math.min(srcTo - read, dstTo - write));
+                if (count == 0) break;
+                System.arraycopy(src, read, dst, write, count);
+                read += count;
+                write += count;
+                remaining -= count;
+                if (remaining == 0) state = DATA_END;
+                continue;
+            }
+
+            byte b = src[read++];
+            switch (state) {
+                case SIZE:
+                    int digit = Character.digit(b, 16);
+                    if (digit >= 0) {
+                        if (remaining > (Long.MAX_VALUE >> 4)) throw new IllegalArgumentException("Chunk size too large");
+                        remaining = remaining * 16 + digit;
+                        sizeDigits = true;
+                    } else if (b == ';' || b == ' ' || b == '\t') {
+                        state = EXTENSION;
+                    } else if (b == '\n') {
+                        endSizeLine();
+                    } else if (b != '\r') {
+                        throw new IllegalArgumentException("Malformed chunk size");
+                    }
+                    break;
+                case EXTENSION:
+                    if (b == '\n') endSizeLine();
+                    break;
+                case DATA_END:
+                    if (b == '\n') state = SIZE;
+                    else if (b != '\r') throw new IllegalArgumentException("Missing CRLF after chunk");
+                    break;
+                case TRAILER:
+                    if (b == '\n') state = DONE;
+                    else if (b != '\r') state = TRAILER_LINE;
+                    break;
+                case TRAILER_LINE:
+                    if (b == '\n') state = TRAILER;
+                    break;
+            }
+        }
+        consumed = read - srcFrom;
+        return write - dstFrom;
+    }
+
+    private void endSizeLine() {
+        if (!sizeDigits) throw new IllegalArgumentException("Missing chunk size");
+        sizeDigits = false;
+        state = remaining == 0 ? TRAILER : DATA;
+    }
+
+    /**
+     * @return The number of raw bytes used by the last call to {@link #decode}.
+     */
+    int consumed() {
+        return consumed;
+    }
+
+    boolean isDone() {
+        return state == DONE;
+    }
+}
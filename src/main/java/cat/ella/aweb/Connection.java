@@ -0,0 +1,111 @@
+package cat.ella.aweb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A client connection as seen by the dispatch code, independent of the transport serving it.
+ */
+abstract class Connection {
+    private int requests;
+    private long bytesWritten;
+    private long writeNanos;
+
+    /**
+     * Count a request received on this connection.
+     *
+     * @return The number of requests received so far, including this one.
+     */
+    int nextRequest() {
+        return ++requests;
+    }
+
+    /**
+     * Count bytes handed to the transport and the time it took, for {@link Metrics}. Called by
+     * the transports from the thread serving the current request.
+     *
+     * @param bytes The number of bytes written.
+     * @param nanos The time spent writing them.
+     */
+    void wrote(long bytes, long nanos) {
+        bytesWritten += bytes;
+        writeNanos += nanos;
+    }
+
+    /**
+     * @return The bytes written over the life of the connection.
+     */
+    long bytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @return The time spent writing over the life of the connection.
+     */
+    long writeNanos() {
+        return writeNanos;
+    }
+
+    /**
+     * Write the remaining bytes of the buffer to the client.
+     *
+     * @param buffer The bytes to write.
+     * @throws IOException If the connection is closed or the write fails.
+     */
+    abstract void write(ByteBuffer buffer) throws IOException;
+
+    /**
+     * Write the remaining bytes of the buffer, then run {@code onSent} once the connection no
+     * longer refers to the buffer, so it can be reused. Transports that copy or send the bytes
+     * before returning run it right away; it also runs if the connection closes first.
+     *
+     * @param buffer The bytes to write.
+     * @param onSent Run when the buffer may be reused.
+     * @throws IOException If the connection is closed or the write fails.
+     */
+    void write(ByteBuffer buffer, Runnable onSent) throws IOException {
+        try {
+            write(buffer);
+        } finally {
+            onSent.run();
+        }
+    }
+
+    /**
+     * Send a region of a file to the client without copying it through the heap where the
+     * transport allows. The connection takes ownership of the channel and closes it once sent.
+     *
+     * @param file     The file to send from.
+     * @param position The offset of the first byte to send.
+     * @param count    The number of bytes to send.
+     * @throws IOException If the connection is closed or the transfer fails.
+     */
+    abstract void transfer(FileChannel file, long position, long count) throws IOException;
+
+    void write(byte[] data) throws IOException {
+        write(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Push buffered writes to the client. Called once a response is complete.
+     *
+     * @throws IOException If the write fails.
+     */
+    void flush() throws IOException {
+    }
+
+    abstract boolean isClosed();
+
+    /**
+     * @return The client's IP address as text, looked up once per connection, or "-" if it is unknown.
+     */
+    abstract String remoteAddress();
+
+    /**
+     * Close the connection once everything written so far has been sent.
+     *
+     * @throws IOException If closing the underlying channel fails.
+     */
+    abstract void close() throws IOException;
+}
@@ -0,0 +1,106 @@
+package cat.ella.aweb;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters kept by a {@link WebServer} about the connections it accepts, rejects and closes
+ * because of its limits. All counts are since the server was created.
+ */
+public final class ConnectionStats {
+    private final AtomicInteger open = new AtomicInteger();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder headerTimeouts = new LongAdder();
+    private final LongAdder idleTimeouts = new LongAdder();
+    private final LongAdder headsTooLarge = new LongAdder();
+
+    ConnectionStats() {
+    }
+
+    /**
+     * Count a new connection unless the limit is reached.
+     *
+     * @return Whether the connection may be served; if not, it has been counted as rejected.
+     */
+    boolean tryOpen(int maxConnections) {
+        while (true) {
+            int current = open.get();
+            if (current >= maxConnections) {
+                rejected.increment();
+                return false;
+            }
+            if (open.compareAndSet(current, current + 1)) {
+                accepted.increment();
+                return true;
+            }
+        }
+    }
+
+    void closed() {
+        open.decrementAndGet();
+    }
+
+    /**
+     * Undo {@link #tryOpen(int)} for a connection no worker could take, counting it as rejected.
+     */
+    void abandon() {
+        open.decrementAndGet();
+        accepted.decrement();
+        rejected.increment();
+    }
+
+    void headerTimeout() {
+        headerTimeouts.increment();
+    }
+
+    void idleTimeout() {
+        idleTimeouts.increment();
+    }
+
+    void headTooLarge() {
+        headsTooLarge.increment();
+    }
+
+    /**
+     * @return The number of connections currently open.
+     */
+    public int open() {
+        return open.get();
+    }
+
+    /**
+     * @return The number of connections accepted and served.
+     */
+    public long accepted() {
+        return accepted.sum();
+    }
+
+    /**
+     * @return The number of connections turned away with 503 because the server was at its connection limit or its workers were saturated.
+     */
+    public long rejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return The number of connections closed with 408 because a request head arrived too slowly.
+     */
+    public long headerTimeouts() {
+        return headerTimeouts.sum();
+    }
+
+    /**
+     * @return The number of connections closed because no request arrived within the idle timeout.
+     */
+    public long idleTimeouts() {
+        return idleTimeouts.sum();
+    }
+
+    /**
+     * @return The number of requests answered with 431 because their head was too large.
+     */
+    public long headsTooLarge() {
+        return headsTooLarge.sum();
+    }
+}
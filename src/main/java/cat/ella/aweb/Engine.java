@@ -0,0 +1,18 @@
+package cat.ella.aweb;
+
+import java.io.IOException;
+
+/**
+ * A transport that accepts connections on a port and feeds requests to a {@link WebServer}.
+ */
+interface Engine {
+
+    /**
+     * Bind the port and start serving. Blocks until the engine is stopped.
+     *
+     * @throws IOException If the port cannot be bound.
+     */
+    void run() throws IOException;
+
+    void stop();
+}
@@ -0,0 +1,212 @@
+package cat.ella.aweb;
+
+import cat.ella.aweb.api.FormattedRequest;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One request and its response on a connection. Tracks whether a response was sent
+ * and whether the connection may be reused afterwards. The response to a HEAD request
+ * is sent without its body, whichever way it was produced.
+ */
+final class Exchange {
+    private static final byte[] CONNECTION_CLOSE = "Connection: close\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONNECTION_KEEP_ALIVE = "Connection: keep-alive\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final FormattedRequest request;
+    private final Connection connection;
+    private final boolean http10;
+    private final boolean headOnly;
+    private final long bytesWrittenBefore;
+    private final long writeNanosBefore;
+    private boolean keepAlive;
+    private boolean responded;
+    private int status;
+
+    Exchange(FormattedRequest request, Connection connection, boolean keepAlive) {
+        this.request = request;
+        this.connection = connection;
+        this.http10 = "HTTP/1.0".equals(request.getHttpVersion());
+        this.headOnly = "HEAD".equals(request.getMethod());
+        this.keepAlive = keepAlive;
+        this.bytesWrittenBefore = connection.bytesWritten();
+        this.writeNanosBefore = connection.writeNanos();
+    }
+
+    FormattedRequest request() {
+        return request;
+    }
+
+    Connection connection() {
+        return connection;
+    }
+
+    boolean isResponded() {
+        return responded;
+    }
+
+    boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * @return Whether the request is a HEAD request, whose response must not carry a body.
+     */
+    boolean isHeadOnly() {
+        return headOnly;
+    }
+
+    /**
+     * @return The status code of the response sent, or 0 if none was.
+     */
+    int status() {
+        return status;
+    }
+
+    /**
+     * @return The bytes written to the connection since this exchange began.
+     */
+    long bytesWritten() {
+        return connection.bytesWritten() - bytesWrittenBefore;
+    }
+
+    /**
+     * @return The time spent writing to the connection since this exchange began.
+     */
+    long writeNanos() {
+        return connection.writeNanos() - writeNanosBefore;
+    }
+
+    /**
+     * Send a complete serialized response, adding a Connection header when the
+     * connection will be closed afterwards or the client needs keep-alive confirmed.
+     *
+     * @param response The response bytes, head and body.
+     * @throws IOException If writing fails.
+     */
+    void send(byte[] response) throws IOException {
+        if (responded) return;
+        responded = true;
+        int headEnd = headOnly ? ResponseHead.headEnd(response) : -1;
+        writeHead(response, headEnd == -1 ? response.length : headEnd);
+    }
+
+    /**
+     * Send only a response head; the caller then writes the body to the connection itself,
+     * unless {@link #isHeadOnly()}.
+     *
+     * @param head The serialized status line and headers, framing the body that follows.
+     * @throws IOException If writing fails.
+     */
+    void sendHead(byte[] head) throws IOException {
+        if (responded) return;
+        responded = true;
+        writeHead(head, head.length);
+    }
+
+    /**
+     * Send a response head followed by a body held in memory. The buffer is written as is, not copied.
+     *
+     * @param head The serialized status line and headers.
+     * @param body The body, or null to send only the head.
+     * @throws IOException If writing fails.
+     */
+    void send(byte[] head, ByteBuffer body) throws IOException {
+        if (responded) return;
+        responded = true;
+        writeHead(head, head.length);
+        if (!headOnly && body != null && body.hasRemaining()) connection.write(body);
+    }
+
+    /**
+     * Send a response head followed by a region of a file. The file channel is closed once sent.
+     *
+     * @param head     The serialized status line and headers.
+     * @param file     The file holding the body.
+     * @param position The offset of the body in the file.
+     * @param count    The body length.
+     * @throws IOException If writing fails.
+     */
+    void send(byte[] head, FileChannel file, long position, long count) throws IOException {
+        if (responded) {
+            file.close();
+            return;
+        }
+        responded = true;
+        try {
+            writeHead(head, head.length);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+        if (headOnly) file.close();
+        else connection.transfer(file, position, count);
+    }
+
+    /**
+     * Send a response head followed by a body read from a stream, copied through pooled buffers.
+     * The stream is closed once sent.
+     *
+     * @param head  The serialized status line and headers.
+     * @param body  The stream holding the body.
+     * @param count The body length announced by the head.
+     * @param pool  The pool to take the buffers from.
+     * @throws IOException If reading or writing fails, or the stream ends before {@code count} bytes.
+     */
+    void send(byte[] head, InputStream body, long count, BufferPool pool) throws IOException {
+        try (InputStream in = body) {
+            if (responded) return;
+            responded = true;
+            writeHead(head, head.length);
+            if (headOnly) return;
+            long remaining = count;
+            while (remaining > 0) {
+                ByteBuffer buffer = pool.acquire();
+                int read = in.readNBytes(buffer.array(), 0, (int) Math.min(buffer.capacity(), remaining));
+                if (read == 0) {
+                    pool.release(buffer);
+                    throw new EOFException("Body ended " + remaining + " bytes short of its length");
+                }
+                buffer.limit(read);
+                connection.write(buffer, () -> pool.release(buffer));
+                remaining -= read;
+            }
+        }
+    }
+
+    /**
+     * Close the connection after this exchange, e.g. because the response body could not be completed.
+     */
+    void abort() {
+        keepAlive = false;
+    }
+
+    /**
+     * @param length The number of bytes of the response to write; less than its length to leave out the body.
+     */
+    private void writeHead(byte[] response, int length) throws IOException {
+        status = Math.max(0, ResponseHead.statusCode(response));
+        String connectionHeader = ResponseHead.header(response, "Connection");
+        if (connectionHeader != null) {
+            if (connectionHeader.equalsIgnoreCase("close")) keepAlive = false;
+            connection.write(ByteBuffer.wrap(response, 0, length));
+            return;
+        }
+        if (keepAlive && !ResponseHead.isFramed(response)) keepAlive = false;
+
+        byte[] extra = !keepAlive ? CONNECTION_CLOSE : http10 ? CONNECTION_KEEP_ALIVE : null;
+        int lineEnd = extra == null ? -1 : ResponseHead.statusLineEnd(response);
+        if (lineEnd == -1) {
+            connection.write(ByteBuffer.wrap(response, 0, length));
+            return;
+        }
+        connection.write(ByteBuffer.wrap(response, 0, lineEnd));
+        connection.write(ByteBuffer.wrap(extra));
+        connection.write(ByteBuffer.wrap(response, lineEnd, length - lineEnd));
+    }
+}
@@ -0,0 +1,176 @@
+package cat.ella.aweb;
+
+import cat.ella.aweb.api.FormattedResponse;
+import cat.ella.aweb.api.ResponseStream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@link ResponseStream} over an {@link Exchange}. Body bytes collect in a pooled buffer that is
+ * handed to the connection as is when full; the connection returns it to the pool once sent.
+ */
+final class ExchangeResponseStream extends ResponseStream {
+    private static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final Exchange exchange;
+    private final BufferPool pool;
+    private final boolean headOnly;
+    private final boolean chunkable;
+    private final Map<String, String> headers = new LinkedHashMap<>();
+    private int statusCode = 200;
+    private String statusMessage = "OK";
+    private String contentType;
+    private long contentLength = -1;
+    private long written;
+    private boolean committed;
+    private boolean chunked;
+    private boolean closed;
+    private ByteBuffer buffer;
+
+    ExchangeResponseStream(Exchange exchange, BufferPool pool) {
+        this.exchange = exchange;
+        this.pool = pool;
+        this.headOnly = exchange.isHeadOnly();
+        this.chunkable = !"HTTP/1.0".equals(exchange.request().getHttpVersion());
+    }
+
+    @Override
+    public ResponseStream statusCode(int statusCode) {
+        checkNotCommitted();
+        this.statusCode = statusCode;
+        return this;
+    }
+
+    @Override
+    public ResponseStream statusMessage(String statusMessage) {
+        checkNotCommitted();
+        this.statusMessage = statusMessage;
+        return this;
+    }
+
+    @Override
+    public ResponseStream contentType(String contentType) {
+        checkNotCommitted();
+        this.contentType = contentType;
+        return this;
+    }
+
+    @Override
+    public ResponseStream contentLength(long contentLength) {
+        checkNotCommitted();
+        if (contentLength < 0) throw new IllegalArgumentException("contentLength must not be negative: " + contentLength);
+        this.contentLength = contentLength;
+        return this;
+    }
+
+    @Override
+    public ResponseStream addHeader(String name, String value) {
+        checkNotCommitted();
+        headers.put(name, value);
+        return this;
+    }
+
+    @Override
+    public boolean isCommitted() {
+        return committed;
+    }
+
+    private void checkNotCommitted() {
+        if (committed) throw new IllegalStateException("Response head already sent");
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (closed) throw new IOException("Response stream closed");
+        if (contentLength >= 0 && written + length > contentLength) {
+            exchange.abort();
+            throw new IOException("Wrote more than the declared Content-Length of " + contentLength);
+        }
+        written += length;
+        if (headOnly) return;
+        while (length > 0) {
+            if (buffer == null) buffer = pool.acquire();
+            int count = Math.min(length, buffer.remaining());
+            buffer.put(bytes, offset, count);
+            offset += count;
+            length -= count;
+            if (!buffer.hasRemaining()) sendBuffer();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (closed) return;
+        sendBuffer();
+        exchange.connection().flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        try {
+            // A body that never outgrew the buffer goes out with a Content-Length, unchunked.
+            if (!committed && contentLength < 0) contentLength = written;
+            if (contentLength >= 0 && written < contentLength) {
+                exchange.abort();
+                throw new IOException("Wrote " + written + " of the declared Content-Length of " + contentLength);
+            }
+            sendBuffer();
+            if (chunked && !headOnly) exchange.connection().write(LAST_CHUNK);
+        } finally {
+            closed = true;
+            discard();
+        }
+    }
+
+    /**
+     * Return the buffer to the pool without sending it, e.g. after the handler failed.
+     */
+    void discard() {
+        if (buffer != null) pool.release(buffer);
+        buffer = null;
+    }
+
+    private void commit() throws IOException {
+        if (committed) return;
+        committed = true;
+        StringBuilder head = new StringBuilder(128);
+        head.append("HTTP/1.1 ").append(statusCode).append(' ').append(statusMessage).append("\r\n");
+        if (contentType != null) head.append("Content-Type: ").append(contentType).append("\r\n");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        if (FormattedResponse.isBodiless(statusCode)) {
+            // Framed by its status: neither a length nor chunking may be declared.
+        } else if (contentLength >= 0) {
+            head.append("Content-Length: ").append(contentLength).append("\r\n");
+        } else if (chunkable) {
+            chunked = true;
+            head.append("Transfer-Encoding: chunked\r\n");
+        }
+        // Otherwise (HTTP/1.0) the body ends when the connection closes; Exchange adds Connection: close.
+        exchange.sendHead(head.append("\r\n").toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void sendBuffer() throws IOException {
+        commit();
+        if (buffer == null || buffer.position() == 0) return;
+        ByteBuffer full = buffer;
+        buffer = null;
+        full.flip();
+        Connection connection = exchange.connection();
+        if (chunked) connection.write(Integer.toHexString(full.remaining()).concat("\r\n").getBytes(StandardCharsets.US_ASCII));
+        connection.write(full, () -> pool.release(full));
+        if (chunked) connection.write(CRLF);
+    }
+}
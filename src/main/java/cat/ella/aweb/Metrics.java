@@ -0,0 +1,292 @@
+package cat.ella.aweb;
+
+import cat.ella.aweb.api.ContentCache;
+import cat.ella.aweb.api.PublicFile;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Request metrics kept by a {@link WebServer}: per route, the requests answered by status code,
+ * the bytes received and sent, and latency histograms for parsing the request head, running the
+ * handler and writing the response. A route is a {@code @Route} or {@code @Capture} method, named
+ * {@code Class#method}, or a {@link PublicFile}, named by its public path. All counts are since the
+ * server was created.
+ *
+ * <p>{@link #snapshot()} reads the counters; {@link #toPrometheus()} renders them, with the
+ * connection and static cache counters, in the Prometheus text format.</p>
+ */
+public final class Metrics {
+    /**
+     * The route name of requests no route or error route answered.
+     */
+    public static final String UNMATCHED = "(unmatched)";
+    private static final String[] BOUND_LABELS = new String[LatencyHistogram.BOUNDS_NANOS.length];
+
+    static {
+        for (int i = 0; i < BOUND_LABELS.length; i++) BOUND_LABELS[i] = seconds(LatencyHistogram.BOUNDS_NANOS[i]);
+    }
+
+    private final Map<String, RouteMetrics> routes = new ConcurrentHashMap<>();
+    private final ConnectionStats connectionStats;
+    private final List<PublicFile> publicFiles;
+
+    Metrics(ConnectionStats connectionStats, List<PublicFile> publicFiles) {
+        this.connectionStats = connectionStats;
+        this.publicFiles = publicFiles;
+    }
+
+    /**
+     * Get the counters of a route, creating them on its first request.
+     */
+    RouteMetrics route(String name) {
+        RouteMetrics metrics = routes.get(name);
+        return metrics != null ? metrics : routes.computeIfAbsent(name, RouteMetrics::new);
+    }
+
+    /**
+     * Read the counters of every route that has answered a request.
+     *
+     * @return The routes by name, in name order.
+     */
+    public Map<String, Route> snapshot() {
+        Map<String, Route> snapshot = new TreeMap<>();
+        for (Map.Entry<String, RouteMetrics> entry : routes.entrySet()) snapshot.put(entry.getKey(), entry.getValue().snapshot());
+        return Collections.unmodifiableMap(snapshot);
+    }
+
+    /**
+     * Render the route, connection and static cache counters in the Prometheus text exposition format.
+     *
+     * @return The metrics text.
+     */
+    public String toPrometheus() {
+        Map<String, Route> snapshot = snapshot();
+        StringBuilder out = new StringBuilder(4096);
+
+        type(out, "aweb_requests_total", "counter", "Requests answered, by route and status code.");
+        for (Route route : snapshot.values()) {
+            for (Map.Entry<Integer, Long> status : route.statuses().entrySet()) {
+                out.append("aweb_requests_total{route=\"").append(escape(route.name())).append("\",status=\"")
+                        .append(status.getKey()).append("\"} ").append(status.getValue()).append('\n');
+            }
+        }
+        type(out, "aweb_request_bytes_total", "counter", "Bytes received in request heads and declared request bodies, by route.");
+        for (Route route : snapshot.values()) sample(out, "aweb_request_bytes_total", route.name(), route.bytesIn());
+        type(out, "aweb_response_bytes_total", "counter", "Bytes sent in responses, by route.");
+        for (Route route : snapshot.values()) sample(out, "aweb_response_bytes_total", route.name(), route.bytesOut());
+
+        type(out, "aweb_request_duration_seconds", "histogram", "Time spent parsing the request head, running the handler and writing the response, by route.");
+        for (Route route : snapshot.values()) {
+            histogram(out, route.name(), "parse", route.parseTime());
+            histogram(out, route.name(), "handler", route.handlerTime());
+            histogram(out, route.name(), "write", route.writeTime());
+        }
+
+        type(out, "aweb_connections_open", "gauge", "Connections currently open.");
+        out.append("aweb_connections_open ").append(connectionStats.open()).append('\n');
+        type(out, "aweb_connections_accepted_total", "counter", "Connections accepted.");
+        out.append("aweb_connections_accepted_total ").append(connectionStats.accepted()).append('\n');
+        type(out, "aweb_connections_rejected_total", "counter", "Connections turned away with 503.");
+        out.append("aweb_connections_rejected_total ").append(connectionStats.rejected()).append('\n');
+        type(out, "aweb_connections_closed_total", "counter", "Connections closed by a limit, by reason.");
+        out.append("aweb_connections_closed_total{reason=\"header_timeout\"} ").append(connectionStats.headerTimeouts()).append('\n');
+        out.append("aweb_connections_closed_total{reason=\"idle_timeout\"} ").append(connectionStats.idleTimeouts()).append('\n');
+        out.append("aweb_connections_closed_total{reason=\"head_too_large\"} ").append(connectionStats.headsTooLarge()).append('\n');
+
+        List<PublicFile> cached = new ArrayList<>();
+        for (PublicFile file : publicFiles) if (file.getCache() != null) cached.add(file);
+        if (!cached.isEmpty()) {
+            type(out, "aweb_static_cache_requests_total", "counter", "Lookups in the content cache of lazy public files, by result.");
+            for (PublicFile file : cached) {
+                ContentCache cache = file.getCache();
+                String path = escape(file.getPublicPath());
+                out.append("aweb_static_cache_requests_total{path=\"").append(path).append("\",result=\"hit\"} ").append(cache.hits()).append('\n');
+                out.append("aweb_static_cache_requests_total{path=\"").append(path).append("\",result=\"miss\"} ").append(cache.misses()).append('\n');
+            }
+            type(out, "aweb_static_cache_evictions_total", "counter", "Files evicted from the content cache of lazy public files.");
+            for (PublicFile file : cached) {
+                out.append("aweb_static_cache_evictions_total{path=\"").append(escape(file.getPublicPath())).append("\"} ")
+                        .append(file.getCache().evictions()).append('\n');
+            }
+            type(out, "aweb_static_cache_bytes", "gauge", "Bytes held in the content cache of lazy public files.");
+            for (PublicFile file : cached) {
+                out.append("aweb_static_cache_bytes{path=\"").append(escape(file.getPublicPath())).append("\"} ")
+                        .append(file.getCache().size()).append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    private static void type(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String route, long value) {
+        out.append(name).append("{route=\"").append(escape(route)).append("\"} ").append(value).append('\n');
+    }
+
+    private static void histogram(StringBuilder out, String route, String phase, Histogram histogram) {
+        String labels = "route=\"" + escape(route) + "\",phase=\"" + phase + "\"";
+        long cumulative = 0;
+        long[] counts = histogram.counts();
+        for (int i = 0; i < BOUND_LABELS.length; i++) {
+            cumulative += counts[i];
+            out.append("aweb_request_duration_seconds_bucket{").append(labels).append(",le=\"").append(BOUND_LABELS[i]).append("\"} ")
+                    .append(cumulative).append('\n');
+        }
+        out.append("aweb_request_duration_seconds_bucket{").append(labels).append(",le=\"+Inf\"} ").append(histogram.count()).append('\n');
+        out.append("aweb_request_duration_seconds_sum{").append(labels).append("} ").append(seconds(histogram.sumNanos())).append('\n');
+        out.append("aweb_request_duration_seconds_count{").append(labels).append("} ").append(histogram.count()).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return BigDecimal.valueOf(nanos, 9).stripTrailingZeros().toPlainString();
+    }
+
+    private static String escape(String label) {
+        if (label.indexOf('\\') == -1 && label.indexOf('"') == -1 && label.indexOf('\n') == -1) return label;
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * The counters of one route at the time of a {@link #snapshot()}.
+     */
+    public static final class Route {
+        private final String name;
+        private final long requests;
+        private final Map<Integer, Long> statuses;
+        private final long bytesIn;
+        private final long bytesOut;
+        private final Histogram parseTime;
+        private final Histogram handlerTime;
+        private final Histogram writeTime;
+
+        Route(String name, long requests, Map<Integer, Long> statuses, long bytesIn, long bytesOut,
+              Histogram parseTime, Histogram handlerTime, Histogram writeTime) {
+            this.name = name;
+            this.requests = requests;
+            this.statuses = Collections.unmodifiableMap(statuses);
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+            this.parseTime = parseTime;
+            this.handlerTime = handlerTime;
+            this.writeTime = writeTime;
+        }
+
+        /**
+         * @return {@code Class#method} for annotated methods, the public path for public files, or {@link #UNMATCHED}.
+         */
+        public String name() {
+            return name;
+        }
+
+        /**
+         * @return The number of requests, answered or not.
+         */
+        public long requests() {
+            return requests;
+        }
+
+        /**
+         * @return The number of responses sent with each status code.
+         */
+        public Map<Integer, Long> statuses() {
+            return statuses;
+        }
+
+        /**
+         * @return The bytes of request heads and declared request bodies; chunked bodies are not counted.
+         */
+        public long bytesIn() {
+            return bytesIn;
+        }
+
+        /**
+         * @return The bytes of responses, heads and bodies.
+         */
+        public long bytesOut() {
+            return bytesOut;
+        }
+
+        /**
+         * @return The time spent parsing request heads, from their bytes to a {@code FormattedRequest}.
+         */
+        public Histogram parseTime() {
+            return parseTime;
+        }
+
+        /**
+         * @return The time spent dispatching and running the handler, excluding writes.
+         */
+        public Histogram handlerTime() {
+            return handlerTime;
+        }
+
+        /**
+         * @return The time spent handing the response to the connection, including waiting for a slow client to make room.
+         */
+        public Histogram writeTime() {
+            return writeTime;
+        }
+    }
+
+    /**
+     * A latency distribution at the time of a {@link #snapshot()}.
+     */
+    public static final class Histogram {
+        private final long[] counts;
+        private final long count;
+        private final long sumNanos;
+
+        Histogram(long[] counts, long sumNanos) {
+            this.counts = counts;
+            long total = 0;
+            for (long bucketCount : counts) total += bucketCount;
+            this.count = total;
+            this.sumNanos = sumNanos;
+        }
+
+        /**
+         * @return The upper bound of each bucket in nanoseconds, in ascending order; a final bucket holds slower samples.
+         */
+        public static long[] boundsNanos() {
+            return LatencyHistogram.BOUNDS_NANOS.clone();
+        }
+
+        /**
+         * @return The number of samples in each bucket; one more element than {@link #boundsNanos()}.
+         */
+        public long[] counts() {
+            return counts.clone();
+        }
+
+        public long count() {
+            return count;
+        }
+
+        public long sumNanos() {
+            return sumNanos;
+        }
+
+        /**
+         * Estimate a quantile as the upper bound of the bucket it falls in.
+         *
+         * @param quantile The quantile, e.g. 0.99.
+         * @return The estimate in nanoseconds, 0 if there are no samples, or {@link Long#MAX_VALUE} if it is beyond the last bound.
+         */
+        public long quantileNanos(double quantile) {
+            if (quantile < 0 || quantile > 1) throw new IllegalArgumentException("quantile must be between 0 and 1: " + quantile);
+            if (count == 0) return 0;
+            long rank = (long) Math.ceil(quantile * count);
+            long seen = 0;
+            for (int i = 0; i < LatencyHistogram.BOUNDS_NANOS.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) return LatencyHistogram.BOUNDS_NANOS[i];
+            }
+            return Long.MAX_VALUE;
+        }
+    }
+}
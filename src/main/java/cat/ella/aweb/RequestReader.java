@@ -0,0 +1,237 @@
+package cat.ella.aweb;
+
+import cat.ella.aweb.api.FormattedRequest;
+import cat.ella.aweb.api.PayloadTooLargeException;
+import cat.ella.aweb.api.RequestHead;
+import cat.ella.aweb.api.RequestParser;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+/**
+ * Reads requests from a blocking stream into one reusable buffer. Bytes after a request,
+ * such as pipelined requests, stay in the buffer for the next call. Bodies are not read
+ * up front: each request gets a stream that pulls its body from the socket on demand.
+ *
+ * <p>A request head must arrive within the server's header timeout of its first byte; the
+ * first request of a connection within the header timeout of the accept. Between requests
+ * the idle timeout applies.</p>
+ */
+final class RequestReader {
+    private static final int INITIAL_BUFFER = 8 * 1024;
+
+    private final Socket socket;
+    private final InputStream in;
+    private final RequestParser parser;
+    private final long maxBodySize;
+    private final long headerTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private int soTimeout = -1;
+    private boolean first = true;
+    private long parseNanos;
+    private BodyInputStream body;
+    private byte[] buffer = new byte[INITIAL_BUFFER];
+    private int position;
+    private int limit;
+
+    RequestReader(Socket socket, WebServer server) throws IOException {
+        this.socket = socket;
+        this.in = socket.getInputStream();
+        this.parser = new RequestParser(server.maxHeadSize(), server.maxHeaderCount());
+        this.maxBodySize = server.maxBodySize();
+        this.headerTimeoutMillis = server.headerTimeoutMillis();
+        this.idleTimeoutMillis = server.idleTimeoutMillis();
+    }
+
+    /**
+     * Read the head of the next request. The body, if any, is read through the request's body stream.
+     *
+     * @return The request, or null if the client closed the connection between requests.
+     * @throws PayloadTooLargeException If the declared body is larger than the maximum body size.
+     * @throws HeadTimeoutException     If part of a head arrived but not all of it within the header timeout.
+     * @throws SocketTimeoutException   If no request arrived within the timeout.
+     * @throws IOException              If reading fails or the client closed the connection mid-request.
+     */
+    FormattedRequest read() throws IOException {
+        long deadline = first ? System.currentTimeMillis() + headerTimeoutMillis : 0;
+        first = false;
+        parseNanos = 0;
+        RequestHead head;
+        while (true) {
+            long started = System.nanoTime();
+            head = parser.parse(buffer, position, limit);
+            parseNanos += System.nanoTime() - started;
+            if (head != null) break;
+            long now = System.currentTimeMillis();
+            if (deadline == 0 && limit > position) deadline = now + headerTimeoutMillis;
+            long timeout = deadline == 0 ? idleTimeoutMillis : deadline - now;
+            if (timeout <= 0) throw new HeadTimeoutException();
+            setSoTimeout(timeout);
+            try {
+                if (!fill()) {
+                    if (limit > position) throw new EOFException("Connection closed mid-request");
+                    return null;
+                }
+            } catch (SocketTimeoutException e) {
+                if (limit > position) throw new HeadTimeoutException();
+                throw e;
+            }
+        }
+        position += parser.consumed();
+        // Handlers reading the body wait at most the idle timeout for each part of it.
+        setSoTimeout(idleTimeoutMillis);
+
+        if (head.isChunked()) {
+            body = new BodyInputStream(-1);
+        } else {
+            long contentLength = head.getContentLength();
+            if (contentLength > maxBodySize) throw new PayloadTooLargeException(maxBodySize);
+            body = contentLength > 0 ? new BodyInputStream(contentLength) : null;
+        }
+        long started = System.nanoTime();
+        FormattedRequest request = new FormattedRequest(head, body);
+        parseNanos += System.nanoTime() - started;
+        return request;
+    }
+
+    /**
+     * @return The time spent parsing the head last returned by {@link #read()}, not counting waits for its bytes.
+     */
+    long parseNanos() {
+        return parseNanos;
+    }
+
+    private void setSoTimeout(long timeout) throws IOException {
+        int millis = (int) Math.min(Integer.MAX_VALUE, Math.max(1, timeout));
+        if (millis == soTimeout) return;
+        socket.setSoTimeout(millis);
+        soTimeout = millis;
+    }
+
+    /**
+     * Skip whatever the handler left unread of the current body, so the next request can be read.
+     *
+     * @param limit The most bytes worth skipping; larger leftovers are cheaper to drop with the connection.
+     * @return Whether the body was fully consumed.
+     */
+    boolean finishBody(long limit) throws IOException {
+        if (body == null) return true;
+        boolean finished = body.discard(limit);
+        body = null;
+        return finished;
+    }
+
+    /**
+     * Read more bytes into the buffer, moving unparsed bytes to the front or growing it first if it is full.
+     */
+    private boolean fill() throws IOException {
+        if (limit == buffer.length) {
+            if (position > 0) {
+                System.arraycopy(buffer, position, buffer, 0, limit - position);
+                limit -= position;
+                position = 0;
+            } else {
+                byte[] grown = new byte[buffer.length * 2];
+                System.arraycopy(buffer, 0, grown, 0, limit);
+                buffer = grown;
+            }
+        }
+        int read = in.read(buffer, limit, buffer.length - limit);
+        if (read < 0) return false;
+        limit += read;
+        return true;
+    }
+
+    /**
+     * The body of the current request, framed by Content-Length or chunked encoding.
+     * Never reads past the end of the body, so pipelined requests stay intact.
+     */
+    private final class BodyInputStream extends InputStream {
+        private final ChunkedDecoder decoder;
+        private long remaining;
+        private long total;
+        private boolean eof;
+
+        BodyInputStream(long contentLength) {
+            this.decoder = contentLength < 0 ? new ChunkedDecoder() : null;
+            this.remaining = contentLength;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (eof || body != this) return -1;
+            if (len == 0) return 0;
+            return decoder == null ? readFixed(b, off, len) : readChunked(b, off, len);
+        }
+
+        private int readFixed(byte[] b, int off, int len) throws IOException {
+            if (remaining == 0) {
+                eof = true;
+                return -1;
+            }
+            int count = (int) Math.min(len, remaining);
+            if (position < limit) {
+                count = Math.min(count, limit - position);
+                System.arraycopy(buffer, position, b, off, count);
+                position += count;
+            } else {
+                count = in.read(b, off, count);
+                if (count < 0) throw new EOFException("Connection closed mid-body");
+            }
+            remaining -= count;
+            return count;
+        }
+
+        private int readChunked(byte[] b, int off, int len) throws IOException {
+            while (true) {
+                if (position == limit && !fill()) throw new EOFException("Connection closed mid-body");
+                int produced;
+                try {
+                    produced = decoder.decode(buffer, position, limit, b, off, len);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(e.getMessage(), e);
+                }
+                position += decoder.consumed();
+                total += produced;
+                if (total > maxBodySize) throw new PayloadTooLargeException(maxBodySize);
+                if (decoder.isDone()) eof = true;
+                if (produced > 0) return produced;
+                if (eof) return -1;
+            }
+        }
+
+        @Override
+        public int available() {
+            if (eof || decoder != null) return 0;
+            return (int) Math.min(remaining, limit - position);
+        }
+
+        boolean discard(long limit) throws IOException {
+            if (eof) return true;
+            if (decoder == null && remaining > limit) return false;
+            byte[] scratch = new byte[8192];
+            long skipped = 0;
+            int read;
+            while (skipped <= limit && (read = read(scratch, 0, scratch.length)) != -1) skipped += read;
+            return eof;
+        }
+    }
+
+    /**
+     * Thrown when a client starts a request but does not finish its head within the header timeout.
+     */
+    static final class HeadTimeoutException extends IOException {
+        HeadTimeoutException() {
+            super("Request head not received in time");
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package cat.ella.aweb;
+
+import cat.ella.aweb.api.ContentEncoding;
+import cat.ella.aweb.api.FormattedResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Helpers for inspecting the head of an already serialized response, as returned by route handlers.
+ */
+final class ResponseHead {
+
+    private ResponseHead() {
+    }
+
+    /**
+     * Returns the index just past the CRLF that ends the status line, or -1 if there is none.
+     */
+    static int statusLineEnd(byte[] response) {
+        for (int i = 1; i < response.length; i++) {
+            if (response[i] == '\n' && response[i - 1] == '\r') return i + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index just past the blank line that ends the head, or -1 if there is none.
+     */
+    static int headEnd(byte[] response) {
+        for (int i = 3; i < response.length; i++) {
+            if (response[i] == '\n' && response[i - 1] == '\r' && response[i - 2] == '\n' && response[i - 3] == '\r') return i + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the value of the first header with the given name, ignoring case, or null if it is absent.
+     */
+    static String header(byte[] response, String name) {
+        int end = headEnd(response);
+        if (end == -1) return null;
+        int lineStart = statusLineEnd(response);
+        for (int i = lineStart; i < end - 1; i++) {
+            if (response[i] != '\r' || response[i + 1] != '\n') continue;
+            int length = i - lineStart;
+            if (length > name.length() && response[lineStart + name.length()] == ':') {
+                String line = new String(response, lineStart, length, StandardCharsets.ISO_8859_1);
+                if (line.regionMatches(true, 0, name, 0, name.length())) return line.substring(name.length() + 1).trim();
+            }
+            lineStart = i + 2;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the status code from the status line, or -1 if it cannot be read.
+     */
+    static int statusCode(byte[] response) {
+        int space = -1;
+        for (int i = 0; i < response.length && i < 32; i++) {
+            if (response[i] == ' ') {
+                space = i;
+                break;
+            }
+        }
+        if (space == -1 || space + 4 > response.length) return -1;
+        int code = 0;
+        for (int i = space + 1; i < space + 4; i++) {
+            if (response[i] < '0' || response[i] > '9') return -1;
+            code = code * 10 + (response[i] - '0');
+        }
+        return code;
+    }
+
+    /**
+     * Whether the client can find the end of this response without the connection being closed.
+     */
+    static boolean isFramed(byte[] response) {
+        int status = statusCode(response);
+        if (FormattedResponse.isBodiless(status)) return true;
+        if (header(response, "Content-Length") != null) return true;
+        String encoding = header(response, "Transfer-Encoding");
+        return encoding != null && encoding.toLowerCase().contains("chunked");
+    }
+
+    /**
+     * Gzip the body of a serialized response if the client accepts it, rewriting Content-Length
+     * and adding Content-Encoding. Responses that are small, already encoded, chunked, partial,
+     * bodiless or not text-like are returned unchanged; eligible ones get {@code Vary: Accept-Encoding}
+     * even when the client's header rules out gzip.
+     */
+    static byte[] gzip(byte[] response, String acceptEncoding, int threshold) {
+        int end = headEnd(response);
+        if (end == -1 || response.length - end < threshold) return response;
+        int status = statusCode(response);
+        if (status < 200 || status == 204 || status == 206 || status == 304) return response;
+        if (header(response, "Content-Encoding") != null || header(response, "Transfer-Encoding") != null
+                || !ContentEncoding.isCompressible(header(response, "Content-Type"))) return response;
+
+        boolean encode = ContentEncoding.negotiate(acceptEncoding, List.of(ContentEncoding.GZIP)) != null;
+        byte[] body = encode ? ContentEncoding.gzip(response, end, response.length - end) : null;
+        if (encode && body.length >= response.length - end) {
+            encode = false;
+            body = null;
+        }
+
+        StringBuilder head = new StringBuilder(end + 64);
+        String vary = null;
+        int lineStart = statusLineEnd(response);
+        head.append(new String(response, 0, lineStart, StandardCharsets.ISO_8859_1));
+        for (int i = lineStart; i < end - 2; i++) {
+            if (response[i] != '\r' || response[i + 1] != '\n') continue;
+            String line = new String(response, lineStart, i - lineStart, StandardCharsets.ISO_8859_1);
+            lineStart = i + 2;
+            if (line.regionMatches(true, 0, "Vary:", 0, 5)) {
+                vary = line.substring(5).trim();
+            } else if (!encode || !line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                head.append(line).append("\r\n");
+            }
+        }
+        if (vary == null || vary.isEmpty()) head.append("Vary: Accept-Encoding\r\n");
+        else if (vary.equals("*") || vary.toLowerCase().contains("accept-encoding")) head.append("Vary: ").append(vary).append("\r\n");
+        else head.append("Vary: ").append(vary).append(", Accept-Encoding\r\n");
+        if (encode) {
+            head.append("Content-Encoding: gzip\r\n");
+            head.append("Content-Length: ").append(body.length).append("\r\n");
+        }
+        head.append("\r\n");
+
+        byte[] headBytes = head.toString().getBytes(StandardCharsets.ISO_8859_1);
+        byte[] tail = encode ? body : response;
+        int tailStart = encode ? 0 : end;
+        byte[] result = new byte[headBytes.length + tail.length - tailStart];
+        System.arraycopy(headBytes, 0, result, 0, headBytes.length);
+        System.arraycopy(tail, tailStart, result, headBytes.length, tail.length - tailStart);
+        return result;
+    }
+}
@@ -0,0 +1,317 @@
+package cat.ella.aweb;
+
+import cat.ella.aweb.annotations.Capture;
+import cat.ella.aweb.annotations.Route;
+import cat.ella.aweb.annotations.WebService;
+import cat.ella.aweb.api.BatchCaptureHandler;
+import cat.ella.aweb.api.CaptureHandler;
+import cat.ella.aweb.api.FormattedRequest;
+import cat.ella.aweb.api.ResponseStream;
+import cat.ella.aweb.api.RouteHandler;
+import cat.ella.aweb.api.StreamingHandler;
+
+import java.lang.invoke.*;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@code @Route} or {@code @Capture} method bound once, at registration, to a functional
+ * interface. Static methods and methods on a supplied receiver are bound through
+ * {@link LambdaMetafactory} so the call site can be inlined; methods that cannot be bound
+ * that way fall back to a constant {@link MethodHandle}.
+ */
+final class RouteBinding {
+    private final int port;
+    private final String name;
+    private final String path;
+    private final boolean errorRoute;
+    private final boolean compress;
+    private final String verb;
+    private final RouteHandler route;
+    private final StreamingHandler streaming;
+    private final CaptureHandler capture;
+    private final AsyncCapture async;
+
+    private RouteBinding(int port, String name, String path, boolean errorRoute, boolean compress, String verb,
+                         RouteHandler route, StreamingHandler streaming, CaptureHandler capture, AsyncCapture async) {
+        this.port = port;
+        this.name = name;
+        this.path = path;
+        this.errorRoute = errorRoute;
+        this.compress = compress;
+        this.verb = verb;
+        this.route = route;
+        this.streaming = streaming;
+        this.capture = capture;
+        this.async = async;
+    }
+
+    /**
+     * @param port The {@code @WebService} port of the method, or 0 for the server's own port.
+     */
+    static RouteBinding route(int port, String name, String path, boolean errorRoute, boolean compress, RouteHandler handler) {
+        return new RouteBinding(port, name, path, errorRoute, compress, null, handler, null, null, null);
+    }
+
+    static RouteBinding streaming(int port, String name, String path, boolean errorRoute, StreamingHandler handler) {
+        return new RouteBinding(port, name, path, errorRoute, false, null, null, handler, null, null);
+    }
+
+    static RouteBinding capture(int port, String name, String path, String verb, CaptureHandler handler) {
+        return new RouteBinding(port, name, path, false, false, verb, null, null, handler, null);
+    }
+
+    /**
+     * @param handler The per-request handler, or null when {@code async} has a batch handler.
+     */
+    static RouteBinding capture(int port, String name, String path, String verb, CaptureHandler handler, AsyncCapture async) {
+        return new RouteBinding(port, name, path, false, false, verb, null, null, handler, async);
+    }
+
+    /**
+     * Whether a method has the batch capture signature: {@code void (List<FormattedRequest>)}.
+     */
+    static boolean isBatch(Method method) {
+        Type[] parameters = method.getGenericParameterTypes();
+        if (method.getReturnType() != void.class || parameters.length != 1 || !(parameters[0] instanceof ParameterizedType)) return false;
+        ParameterizedType list = (ParameterizedType) parameters[0];
+        return list.getRawType() == List.class && list.getActualTypeArguments()[0] == FormattedRequest.class;
+    }
+
+    /**
+     * Whether a method has the streaming route signature: {@code void (FormattedRequest, ResponseStream)}.
+     */
+    static boolean isStreaming(Method method) {
+        Class<?>[] parameters = method.getParameterTypes();
+        return method.getReturnType() == void.class && parameters.length == 2
+                && parameters[0] == FormattedRequest.class && parameters[1] == ResponseStream.class;
+    }
+
+    /**
+     * Bind an annotated route method.
+     *
+     * @param method   A method annotated with {@link Route} returning {@code byte[]}.
+     * @param receiver The instance to call the method on, or null for a static method.
+     * @return The binding.
+     */
+    static RouteBinding bindRoute(Method method, Object receiver) {
+        Route route = method.getAnnotation(Route.class);
+        RouteHandler handler = bind(method, receiver, RouteHandler.class, "handle", MethodType.methodType(byte[].class, FormattedRequest.class));
+        return route(portOf(method), describe(method), route.path(), route.errorRoute(), route.compress(), handler);
+    }
+
+    /**
+     * Bind an annotated streaming route method.
+     *
+     * @param method   A method annotated with {@link Route} for which {@link #isStreaming(Method)} holds.
+     * @param receiver The instance to call the method on, or null for a static method.
+     * @return The binding.
+     */
+    static RouteBinding bindStreaming(Method method, Object receiver) {
+        Route route = method.getAnnotation(Route.class);
+        StreamingHandler handler = bind(method, receiver, StreamingHandler.class, "handle",
+                MethodType.methodType(void.class, FormattedRequest.class, ResponseStream.class));
+        return streaming(portOf(method), describe(method), route.path(), route.errorRoute(), handler);
+    }
+
+    /**
+     * Bind an annotated capture method.
+     *
+     * @param method   A method annotated with {@link Route} and {@link Capture}.
+     * @param receiver The instance to call the method on, or null for a static method.
+     * @return The binding.
+     */
+    static RouteBinding bindCapture(Method method, Object receiver) {
+        Capture capture = method.getAnnotation(Capture.class);
+        String path = method.getAnnotation(Route.class).path();
+        if (isBatch(method)) {
+            BatchCaptureHandler batch = bind(method, receiver, BatchCaptureHandler.class, "capture", MethodType.methodType(void.class, List.class));
+            return capture(portOf(method), describe(method), path, capture.method(), null, new AsyncCapture(capture, batch));
+        }
+        CaptureHandler handler = bind(method, receiver, CaptureHandler.class, "capture", MethodType.methodType(void.class, FormattedRequest.class));
+        return capture(portOf(method), describe(method), path, capture.method(), handler, capture.async() ? new AsyncCapture(capture, null) : null);
+    }
+
+    /**
+     * @return The port the binding asked to be served on, or 0 for the server's own port.
+     */
+    int port() {
+        return port;
+    }
+
+    String name() {
+        return name;
+    }
+
+    String path() {
+        return path;
+    }
+
+    boolean isErrorRoute() {
+        return errorRoute;
+    }
+
+    boolean isCompressed() {
+        return compress;
+    }
+
+    String verb() {
+        return verb;
+    }
+
+    RouteHandler route() {
+        return route;
+    }
+
+    StreamingHandler streaming() {
+        return streaming;
+    }
+
+    CaptureHandler capture() {
+        return capture;
+    }
+
+    /**
+     * @return How an asynchronous capture is queued and delivered, or null for a synchronous one.
+     */
+    AsyncCapture async() {
+        return async;
+    }
+
+    private static int portOf(Method method) {
+        WebService service = method.getAnnotation(WebService.class);
+        return service == null ? 0 : service.port();
+    }
+
+    private static String describe(Method method) {
+        return method.getDeclaringClass().getName() + "#" + method.getName();
+    }
+
+    private static <T> T bind(Method method, Object receiver, Class<T> type, String name, MethodType samType) {
+        boolean isStatic = Modifier.isStatic(method.getModifiers());
+        if (!isStatic && receiver == null) throw new IllegalArgumentException("No receiver for instance method " + describe(method));
+        if (method.getParameterCount() > samType.parameterCount()) throw new IllegalArgumentException("Too many parameters on " + describe(method));
+
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(method.getDeclaringClass(), MethodHandles.lookup());
+            MethodHandle target = lookup.unreflect(method);
+            if (method.getParameterCount() == samType.parameterCount()) {
+                MethodType factoryType = isStatic
+                        ? MethodType.methodType(type)
+                        : MethodType.methodType(type, method.getDeclaringClass());
+                CallSite site = LambdaMetafactory.metafactory(lookup, name, factoryType, samType, target, samType);
+                Object bound = isStatic ? site.getTarget().invoke() : site.getTarget().invoke(receiver);
+                return type.cast(bound);
+            }
+        } catch (Throwable ignored) {
+            // Not bindable as a lambda; fall back to a method handle below.
+        }
+        return bindHandle(method, receiver, type, samType);
+    }
+
+    private static <T> T bindHandle(Method method, Object receiver, Class<T> type, MethodType samType) {
+        try {
+            method.setAccessible(true);
+            MethodHandle target = MethodHandles.lookup().unreflect(method);
+            if (!Modifier.isStatic(method.getModifiers())) target = target.bindTo(receiver);
+            if (method.getParameterCount() == 0) target = MethodHandles.dropArguments(target, 0, FormattedRequest.class);
+            MethodHandle handle = target.asType(samType);
+            if (type == BatchCaptureHandler.class) {
+                return type.cast((BatchCaptureHandler) requests -> {
+                    try {
+                        handle.invokeExact(requests);
+                    } catch (Exception | Error e) {
+                        throw e;
+                    } catch (Throwable t) {
+                        throw new RuntimeException(t);
+                    }
+                });
+            }
+            if (type == StreamingHandler.class) {
+                return type.cast((StreamingHandler) (request, response) -> {
+                    try {
+                        handle.invokeExact(request, response);
+                    } catch (Exception | Error e) {
+                        throw e;
+                    } catch (Throwable t) {
+                        throw new RuntimeException(t);
+                    }
+                });
+            }
+            if (type == RouteHandler.class) {
+                return type.cast((RouteHandler) request -> {
+                    try {
+                        return (byte[]) handle.invokeExact(request);
+                    } catch (Exception | Error e) {
+                        throw e;
+                    } catch (Throwable t) {
+                        throw new RuntimeException(t);
+                    }
+                });
+            }
+            return type.cast((CaptureHandler) request -> {
+                try {
+                    handle.invokeExact(request);
+                } catch (Exception | Error e) {
+                    throw e;
+                } catch (Throwable t) {
+                    throw new RuntimeException(t);
+                }
+            });
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * The {@code @Capture} settings of an asynchronous capture.
+     */
+    static final class AsyncCapture {
+        /**
+         * The statuses an acknowledgement may carry, with their reason phrases. Any other would
+         * either not mean the request was taken, or promise a body the acknowledgement lacks.
+         */
+        static final Map<Integer, String> STATUSES = Map.of(200, "OK", 201, "Created", 202, "Accepted", 204, "No Content");
+
+        private final int status;
+        private final int batchSize;
+        private final long batchDelayMillis;
+        private final BatchCaptureHandler batch;
+
+        AsyncCapture(Capture capture, BatchCaptureHandler batch) {
+            this(capture.status(), capture.batchSize(), capture.batchDelayMillis(), batch);
+        }
+
+        AsyncCapture(int status, int batchSize, long batchDelayMillis, BatchCaptureHandler batch) {
+            if (!STATUSES.containsKey(status)) throw new IllegalArgumentException("status must be 200, 201, 202 or 204: " + status);
+            if (batchSize < 1) throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+            this.status = status;
+            this.batchSize = batchSize;
+            this.batchDelayMillis = Math.max(0, batchDelayMillis);
+            this.batch = batch;
+        }
+
+        int status() {
+            return status;
+        }
+
+        int batchSize() {
+            return batchSize;
+        }
+
+        long batchDelayMillis() {
+            return batchDelayMillis;
+        }
+
+        /**
+         * @return The batch handler, or null if requests are delivered one at a time.
+         */
+        BatchCaptureHandler batch() {
+            return batch;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package cat.ella.aweb;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The live counters of one route, updated by every request it answers.
+ */
+final class RouteMetrics {
+    private static final int MAX_STATUS = 599;
+
+    private final String name;
+    private final LongAdder requests = new LongAdder();
+    /**
+     * One counter per status code, created the first time the code is sent.
+     */
+    private final AtomicReferenceArray<LongAdder> statuses = new AtomicReferenceArray<>(MAX_STATUS + 1);
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LatencyHistogram parse = new LatencyHistogram();
+    private final LatencyHistogram handler = new LatencyHistogram();
+    private final LatencyHistogram write = new LatencyHistogram();
+
+    RouteMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @param status The status sent, or 0 if the request was not answered.
+     */
+    void record(int status, long parseNanos, long handlerNanos, long writeNanos, long in, long out) {
+        requests.increment();
+        if (status > 0 && status <= MAX_STATUS) statusCounter(status).increment();
+        bytesIn.add(in);
+        bytesOut.add(out);
+        parse.record(parseNanos);
+        handler.record(handlerNanos);
+        write.record(writeNanos);
+    }
+
+    private LongAdder statusCounter(int status) {
+        LongAdder counter = statuses.get(status);
+        if (counter != null) return counter;
+        statuses.compareAndSet(status, null, new LongAdder());
+        return statuses.get(status);
+    }
+
+    Metrics.Route snapshot() {
+        Map<Integer, Long> counts = new TreeMap<>();
+        for (int status = 0; status <= MAX_STATUS; status++) {
+            LongAdder counter = statuses.get(status);
+            if (counter != null) counts.put(status, counter.sum());
+        }
+        return new Metrics.Route(name, requests.sum(), counts, bytesIn.sum(), bytesOut.sum(),
+                parse.snapshot(), handler.snapshot(), write.snapshot());
+    }
+}
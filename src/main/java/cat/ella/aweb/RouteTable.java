@@ -0,0 +1,237 @@
+package cat.ella.aweb;
+
+import cat.ella.aweb.api.FormattedRequest;
+import cat.ella.aweb.api.PathParameters;
+import cat.ella.aweb.api.PublicFile;
+
+import java.util.*;
+
+/**
+ * Immutable lookup structure compiled from the registered routes, captures and public files.
+ * Exact paths resolve through a hash map. Templated paths such as {@code /users/{id}} and paths
+ * ending in {@code /*}, which match every path below them, are kept in a segment trie. A literal
+ * segment is preferred over a parameter, and a parameter over a wildcard, so the most specific
+ * route wins. A path whose entry has nothing for the request's method, such as one holding only a
+ * POST capture, does not shadow the less specific routes below it. Annotations are read once, at
+ * compile time.
+ */
+final class RouteTable {
+    private static final String WILDCARD = "/*";
+    private static final String PARAMETER = "{}";
+    private static final String TAIL = "*";
+    private static final String[] NO_PARAMETERS = new String[0];
+
+    private final Map<String, Entry> exact;
+    private final Node templates;
+    private final int maxParameters;
+    private final RouteBinding errorRoute;
+
+    private RouteTable(Map<String, Entry> exact, Node templates, int maxParameters, RouteBinding errorRoute) {
+        this.exact = exact;
+        this.templates = templates;
+        this.maxParameters = maxParameters;
+        this.errorRoute = errorRoute;
+    }
+
+    /**
+     * Find the entry serving a request, setting the request's path parameters if it matched a template.
+     *
+     * @param request The request.
+     * @return The most specific entry with something for the request's method; otherwise the entry
+     * registered for the exact path, or null if there is none.
+     */
+    Entry lookup(FormattedRequest request) {
+        String path = request.getPath();
+        String verb = request.getMethod();
+        Entry entry = exact.get(path);
+        if ((entry != null && entry.handles(verb)) || maxParameters == 0) return entry;
+
+        String[] values = new String[maxParameters];
+        Entry matched = match(templates, path, path.startsWith("/") ? 1 : 0, verb, values, 0);
+        if (matched == null) return entry;
+        if (matched.parameterNames.length > 0) request.parameters(new PathParameters(matched.parameterNames, values));
+        return matched;
+    }
+
+    /**
+     * Walk the trie from a node, backtracking from literal segments to parameters to wildcards
+     * until an entry handling the verb is found.
+     *
+     * @param start The index of the next segment in the path.
+     * @param count The number of parameters captured so far.
+     */
+    private static Entry match(Node node, String path, int start, String verb, String[] values, int count) {
+        if (start >= path.length()) {
+            if (node.entry != null && node.entry.handles(verb)) return node.entry;
+            if (node.wildcard == null || !node.wildcard.handles(verb)) return null;
+            values[count] = "";
+            return node.wildcard;
+        }
+        int end = path.indexOf('/', start);
+        if (end == -1) end = path.length();
+        if (end == start) return match(node, path, end + 1, verb, values, count);
+
+        Node literal = node.children.get(path.substring(start, end));
+        if (literal != null) {
+            Entry entry = match(literal, path, end + 1, verb, values, count);
+            if (entry != null) return entry;
+        }
+        if (node.parameter != null) {
+            values[count] = path.substring(start, end);
+            Entry entry = match(node.parameter, path, end + 1, verb, values, count + 1);
+            if (entry != null) return entry;
+        }
+        if (node.wildcard == null || !node.wildcard.handles(verb)) return null;
+        values[count] = path.substring(start);
+        return node.wildcard;
+    }
+
+    RouteBinding errorRoute() {
+        return errorRoute;
+    }
+
+    static RouteTable compile(List<RouteBinding> routes, List<RouteBinding> captures, List<PublicFile> publicFiles) {
+        Map<String, Builder> exact = new HashMap<>();
+        Map<String, Builder> templated = new HashMap<>();
+        RouteBinding errorRoute = null;
+
+        for (PublicFile file : publicFiles) {
+            for (String path : file.getPaths()) exact.computeIfAbsent(path, p -> new Builder()).file(file);
+        }
+        for (RouteBinding route : routes) {
+            if (route.isErrorRoute() && errorRoute == null) errorRoute = route;
+            builderFor(route.path(), exact, templated).route(route);
+        }
+        for (RouteBinding capture : captures) {
+            builderFor(capture.path(), exact, templated).capture(capture.verb(), capture);
+        }
+
+        Node root = new Node();
+        int maxParameters = 0;
+        for (Map.Entry<String, Builder> template : templated.entrySet()) {
+            String shape = template.getKey();
+            boolean wildcard = shape.endsWith(WILDCARD);
+            Node node = root;
+            for (String segment : (wildcard ? shape.substring(0, shape.length() - WILDCARD.length()) : shape).split("/")) {
+                if (segment.isEmpty()) continue;
+                if (segment.equals(PARAMETER)) node = node.parameter != null ? node.parameter : (node.parameter = new Node());
+                else node = node.children.computeIfAbsent(segment, s -> new Node());
+            }
+            Entry entry = template.getValue().build();
+            if (wildcard) node.wildcard = entry;
+            else node.entry = entry;
+            maxParameters = Math.max(maxParameters, entry.parameterNames.length);
+        }
+
+        Map<String, Entry> compiled = new HashMap<>();
+        for (Map.Entry<String, Builder> path : exact.entrySet()) compiled.put(path.getKey(), path.getValue().build());
+        root.freeze();
+        return new RouteTable(Collections.unmodifiableMap(compiled), root, maxParameters, errorRoute);
+    }
+
+    private static Builder builderFor(String path, Map<String, Builder> exact, Map<String, Builder> templated) {
+        if (!path.endsWith(WILDCARD) && path.indexOf('{') == -1) return exact.computeIfAbsent(path, p -> new Builder());
+
+        // Templates differing only in parameter names share one entry and must agree on the names.
+        List<String> names = new ArrayList<>();
+        String[] segments = path.split("/", -1);
+        for (int i = 0; i < segments.length; i++) {
+            String segment = segments[i];
+            if (segment.length() > 2 && segment.startsWith("{") && segment.endsWith("}")) {
+                names.add(segment.substring(1, segment.length() - 1));
+                segments[i] = PARAMETER;
+            } else if (segment.indexOf('{') != -1 || segment.indexOf('}') != -1) {
+                throw new IllegalArgumentException("A path parameter must be a whole segment: " + path);
+            }
+        }
+        if (path.endsWith(WILDCARD)) names.add(TAIL);
+        if (new HashSet<>(names).size() != names.size()) throw new IllegalArgumentException("Duplicate path parameter in " + path);
+
+        Builder builder = templated.computeIfAbsent(String.join("/", segments), p -> new Builder());
+        if (builder.parameterNames == null) builder.parameterNames = names.toArray(new String[0]);
+        else if (!Arrays.asList(builder.parameterNames).equals(names)) {
+            throw new IllegalArgumentException("Path " + path + " names its parameters differently from another route on the same path: " + Arrays.toString(builder.parameterNames));
+        }
+        return builder;
+    }
+
+    /**
+     * Everything registered for one path.
+     */
+    static final class Entry {
+        private final PublicFile file;
+        private final RouteBinding route;
+        private final Map<String, RouteBinding> captures;
+        private final String[] parameterNames;
+
+        private Entry(PublicFile file, RouteBinding route, Map<String, RouteBinding> captures, String[] parameterNames) {
+            this.file = file;
+            this.route = route;
+            this.captures = captures;
+            this.parameterNames = parameterNames;
+        }
+
+        PublicFile file() {
+            return file;
+        }
+
+        RouteBinding route() {
+            return route;
+        }
+
+        /**
+         * @param verb The HTTP method of the request.
+         * @return The capture registered for the verb, or null.
+         */
+        RouteBinding capture(String verb) {
+            return captures.get(verb);
+        }
+
+        /**
+         * @return Whether anything here answers a request with the verb.
+         */
+        boolean handles(String verb) {
+            return file != null || route != null || captures.containsKey(verb);
+        }
+    }
+
+    private static final class Builder {
+        private PublicFile file;
+        private RouteBinding route;
+        private final Map<String, RouteBinding> captures = new HashMap<>();
+        private String[] parameterNames;
+
+        Builder file(PublicFile file) {
+            if (this.file == null) this.file = file;
+            return this;
+        }
+
+        Builder route(RouteBinding route) {
+            if (this.route == null) this.route = route;
+            return this;
+        }
+
+        Builder capture(String verb, RouteBinding capture) {
+            captures.putIfAbsent(verb, capture);
+            return this;
+        }
+
+        Entry build() {
+            return new Entry(file, route, captures.isEmpty() ? Collections.emptyMap() : Map.copyOf(captures),
+                    parameterNames == null ? NO_PARAMETERS : parameterNames);
+        }
+    }
+
+    private static final class Node {
+        private Map<String, Node> children = new HashMap<>();
+        private Node parameter;
+        private Entry entry;
+        private Entry wildcard;
+
+        void freeze() {
+            for (Node child : children.values()) child.freeze();
+            if (parameter != null) parameter.freeze();
+            children = children.isEmpty() ? Collections.emptyMap() : Map.copyOf(children);
+        }
+    }
+}
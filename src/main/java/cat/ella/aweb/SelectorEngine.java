@@ -0,0 +1,617 @@
+package cat.ella.aweb;
+
+import cat.ella.aweb.api.FormattedRequest;
+import cat.ella.aweb.api.RequestHead;
+import cat.ella.aweb.api.RequestHeadTooLargeException;
+import cat.ella.aweb.api.RequestParser;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Non-blocking transport: a few event-loop threads own every connection and only
+ * hand complete requests to the worker executor. Idle connections cost a buffer,
+ * not a thread.
+ */
+final class SelectorEngine implements Engine {
+    private static final int INITIAL_BUFFER = 8 * 1024;
+    private static final long HIGH_WATER_MARK = 1024 * 1024;
+
+    private final WebServer server;
+    private final WebServer.Listener listener;
+    private static final long ACCEPT_RETRY_MILLIS = 100;
+
+    private final int port;
+    private final ExecutorService executor;
+    private final EventLoop[] loops;
+    private final Thread[] threads;
+    private volatile ServerSocketChannel serverChannel;
+    private volatile boolean running;
+    private int nextLoop;
+    private SelectionKey acceptKey;
+    /**
+     * When accepting failed, e.g. for lack of file descriptors, the time to try again; 0 while accepting.
+     */
+    private long acceptPausedUntil;
+
+    SelectorEngine(WebServer server, WebServer.Listener listener, ExecutorService executor, int loopCount) {
+        this.server = server;
+        this.listener = listener;
+        this.port = listener.port();
+        this.executor = executor;
+        this.loops = new EventLoop[Math.max(1, loopCount)];
+        this.threads = new Thread[loops.length];
+    }
+
+    @Override
+    public void run() throws IOException {
+        running = true;
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), server.backlog());
+        serverChannel.configureBlocking(false);
+
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop();
+            if (i > 0) {
+                threads[i] = new Thread(loops[i], "aweb-selector-" + port + "-" + i);
+                threads[i].setDaemon(true);
+                threads[i].start();
+            }
+        }
+        acceptKey = serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+        threads[0] = Thread.currentThread();
+        loops[0].run();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        for (EventLoop loop : loops) {
+            if (loop != null) loop.selector.wakeup();
+        }
+        try {
+            if (serverChannel != null) serverChannel.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Accept every pending connection. A failure affects one connection at most: it is closed and
+     * the rest are still accepted. When accepting itself fails, accepting pauses briefly rather than
+     * spinning on a listening socket that stays ready.
+     */
+    private void accept() {
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (IOException e) {
+                System.err.println("Error accepting connection: " + e.getMessage());
+                acceptPausedUntil = System.currentTimeMillis() + ACCEPT_RETRY_MILLIS;
+                acceptKey.interestOps(0);
+                return;
+            }
+            if (channel == null) return;
+            try {
+                channel.configureBlocking(false);
+                channel.setOption(java.net.StandardSocketOptions.TCP_NODELAY, true);
+            } catch (IOException e) {
+                // Typically a client that reset the connection right after connecting.
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+                continue;
+            }
+            if (!server.connectionStats().tryOpen(server.maxConnections())) {
+                // Best effort: the response fits an empty send buffer, and the client gets a reset otherwise.
+                try (SocketChannel rejected = channel) {
+                    rejected.write(ByteBuffer.wrap(WebServer.SERVICE_UNAVAILABLE));
+                } catch (IOException ignored) {
+                }
+                continue;
+            }
+            EventLoop loop = loops[nextLoop];
+            nextLoop = (nextLoop + 1) % loops.length;
+            SocketChannel accepted = channel;
+            loop.execute(() -> new SelectorConnection(loop, accepted).register());
+        }
+    }
+
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private volatile Thread thread;
+
+        EventLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        private void closeExpired(long now) {
+            for (SelectionKey key : selector.keys()) {
+                Object attachment = key.attachment();
+                if (attachment instanceof SelectorConnection) ((SelectorConnection) attachment).checkTimeouts(now);
+            }
+        }
+
+        boolean inLoop() {
+            return Thread.currentThread() == thread;
+        }
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            long sweepInterval = Math.min(1000, Math.min(server.idleTimeoutMillis(), server.headerTimeoutMillis()));
+            long nextSweep = System.currentTimeMillis() + sweepInterval;
+            try {
+                while (running) {
+                    boolean accepting = acceptKey != null && acceptKey.selector() == selector;
+                    selector.select(accepting && acceptPausedUntil != 0
+                            ? Math.max(1, Math.min(sweepInterval, acceptPausedUntil - System.currentTimeMillis())) : sweepInterval);
+                    long now = System.currentTimeMillis();
+                    if (now >= nextSweep) {
+                        closeExpired(now);
+                        nextSweep = now + sweepInterval;
+                    }
+                    if (accepting && acceptPausedUntil != 0 && now >= acceptPausedUntil && acceptKey.isValid()) {
+                        acceptPausedUntil = 0;
+                        acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+                    }
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) task.run();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (!key.isValid()) continue;
+                        if (key.isAcceptable()) {
+                            accept();
+                            continue;
+                        }
+                        SelectorConnection connection = (SelectorConnection) key.attachment();
+                        if (key.isWritable()) connection.flush();
+                        if (key.isValid() && key.isReadable()) connection.onReadable();
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                if (running) throw new RuntimeException(e);
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof SelectorConnection) ((SelectorConnection) key.attachment()).closeNow();
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private final class SelectorConnection extends Connection {
+        private final EventLoop loop;
+        private final SocketChannel channel;
+        /**
+         * ByteBuffers and FileRegions to send, and Runnables to run once everything before them is sent.
+         */
+        private final Deque<Object> outbound = new ArrayDeque<>();
+        private SelectionKey key;
+        private final RequestParser parser = new RequestParser(server.maxHeadSize(), server.maxHeaderCount());
+        private ByteBuffer in = ByteBuffer.allocate(INITIAL_BUFFER);
+        private RequestHead head;
+        private ChunkedDecoder decoder;
+        private BodySpool spool;
+        private long bodyRemaining;
+        private long lastActive = System.currentTimeMillis();
+        /**
+         * When the head being read started to arrive, or 0 if none is. The first head is timed from the accept.
+         */
+        private long headStarted = lastActive;
+        /**
+         * Time spent parsing the head being read, over every attempt as its bytes arrive.
+         */
+        private long parseNanos;
+        private boolean busy;
+        private long pending;
+        private boolean closing;
+        private boolean closed;
+        private String remoteAddress;
+
+        SelectorConnection(EventLoop loop, SocketChannel channel) {
+            this.loop = loop;
+            this.channel = channel;
+        }
+
+        void register() {
+            try {
+                key = channel.register(loop.selector, SelectionKey.OP_READ, this);
+            } catch (IOException e) {
+                closeNow();
+            }
+        }
+
+        void onReadable() {
+            try {
+                int read = channel.read(in);
+                if (read < 0) {
+                    closeNow();
+                    return;
+                }
+                lastActive = System.currentTimeMillis();
+                processBuffered();
+            } catch (IllegalArgumentException e) {
+                rejectMalformed(e);
+            } catch (IOException | RuntimeException e) {
+                closeNow();
+            }
+        }
+
+        private void rejectMalformed(IllegalArgumentException e) {
+            if (e instanceof RequestHeadTooLargeException) {
+                server.connectionStats().headTooLarge();
+                reject(WebServer.HEAD_TOO_LARGE);
+            } else {
+                reject(WebServer.errorResponse(400, "Bad Request"));
+            }
+        }
+
+        /**
+         * Dispatch the next buffered request if one is complete and none is in flight,
+         * so pipelined requests are answered in order. Runs on the event loop.
+         */
+        private void processBuffered() throws IOException {
+            if (busy || closed) return;
+            if (head == null) {
+                long started = System.nanoTime();
+                head = parser.parse(in.array(), 0, in.position());
+                parseNanos += System.nanoTime() - started;
+                if (head == null) {
+                    if (headStarted == 0 && in.position() > 0) headStarted = System.currentTimeMillis();
+                    if (!in.hasRemaining()) grow(in.capacity() * 2);
+                    updateInterest();
+                    return;
+                }
+                headStarted = 0;
+                consume(parser.consumed());
+                if (!startBody()) return;
+            }
+            if (spool != null && !readBody()) {
+                updateInterest();
+                return;
+            }
+
+            long started = System.nanoTime();
+            FormattedRequest request = new FormattedRequest(head, spool == null ? null : spool.open());
+            long requestParseNanos = parseNanos + System.nanoTime() - started;
+            BodySpool requestSpool = spool;
+            parseNanos = 0;
+            head = null;
+            spool = null;
+            decoder = null;
+            busy = true;
+            try {
+                executor.execute(() -> dispatch(request, requestSpool, requestParseNanos));
+            } catch (RejectedExecutionException e) {
+                // Handlers never run on the event loop: a saturated pool is answered with 503.
+                if (requestSpool != null) requestSpool.delete();
+                reject(WebServer.SERVICE_UNAVAILABLE);
+                return;
+            }
+            updateInterest();
+        }
+
+        /**
+         * Prepare to collect the body of the head just parsed.
+         *
+         * @return False if the request was rejected.
+         */
+        private boolean startBody() throws IOException {
+            if (head.isChunked()) {
+                decoder = new ChunkedDecoder();
+            } else {
+                long contentLength = head.getContentLength();
+                if (contentLength > server.maxBodySize()) {
+                    reject(WebServer.errorResponse(413, "Payload Too Large"));
+                    return false;
+                }
+                if (contentLength <= 0) return true;
+                bodyRemaining = contentLength;
+            }
+            spool = new BodySpool(server.spoolThreshold());
+            if ("HTTP/1.1".equals(head.getHttpVersion()) && "100-continue".equalsIgnoreCase(head.getHeader("Expect"))) {
+                write(ByteBuffer.wrap(WebServer.CONTINUE));
+            }
+            return true;
+        }
+
+        /**
+         * Move buffered body bytes into the spool.
+         *
+         * @return Whether the whole body has arrived.
+         */
+        private boolean readBody() throws IOException {
+            byte[] data = in.array();
+            if (decoder != null) {
+                int produced = decoder.decode(data, 0, in.position(), data, 0, in.position());
+                spool.write(data, 0, produced);
+                consume(decoder.consumed());
+                if (spool.size() > server.maxBodySize()) {
+                    spool.delete();
+                    spool = null;
+                    reject(WebServer.errorResponse(413, "Payload Too Large"));
+                    return false;
+                }
+                return decoder.isDone();
+            }
+            int count = (int) Math.min(bodyRemaining, in.position());
+            spool.write(data, 0, count);
+            consume(count);
+            bodyRemaining -= count;
+            return bodyRemaining == 0;
+        }
+
+        private void consume(int count) {
+            in.flip().position(count);
+            in.compact();
+        }
+
+        /**
+         * Answer a request that cannot be served and close once the answer is sent.
+         */
+        private void reject(byte[] response) {
+            busy = true;
+            try {
+                write(ByteBuffer.wrap(response));
+                close();
+            } catch (IOException e) {
+                closeNow();
+            }
+        }
+
+        private void updateInterest() {
+            if (key == null || !key.isValid()) return;
+            int ops = busy ? 0 : SelectionKey.OP_READ;
+            synchronized (this) {
+                if (!outbound.isEmpty()) ops |= SelectionKey.OP_WRITE;
+            }
+            key.interestOps(ops);
+        }
+
+        private void grow(int capacity) {
+            in = ByteBuffer.allocate(capacity).put(in.flip());
+        }
+
+        private void dispatch(FormattedRequest request, BodySpool requestSpool, long parseNanos) {
+            boolean keepAlive = false;
+            try {
+                keepAlive = server.handle(listener, request, this, parseNanos);
+            } catch (Exception e) {
+                System.err.println("Error handling connection: " + e.getMessage());
+            } finally {
+                if (requestSpool != null) requestSpool.delete();
+            }
+            if (!keepAlive) {
+                close();
+                return;
+            }
+            loop.execute(() -> {
+                busy = false;
+                lastActive = System.currentTimeMillis();
+                try {
+                    processBuffered();
+                } catch (IllegalArgumentException e) {
+                    rejectMalformed(e);
+                } catch (IOException | RuntimeException e) {
+                    closeNow();
+                }
+            });
+        }
+
+        /**
+         * Close the connection if a head is arriving too slowly or no request came within the idle timeout.
+         * Runs on the event loop.
+         */
+        void checkTimeouts(long now) {
+            if (busy) return;
+            synchronized (this) {
+                if (!outbound.isEmpty() || closing || closed) return;
+            }
+            if (headStarted != 0 && now - headStarted > server.headerTimeoutMillis()) {
+                if (in.position() > 0) {
+                    server.connectionStats().headerTimeout();
+                    reject(WebServer.REQUEST_TIMEOUT);
+                } else {
+                    server.connectionStats().idleTimeout();
+                    closeNow();
+                }
+            } else if (headStarted == 0 && now - lastActive > server.idleTimeoutMillis()) {
+                server.connectionStats().idleTimeout();
+                closeNow();
+            }
+        }
+
+        @Override
+        void write(ByteBuffer buffer) throws IOException {
+            enqueue(buffer, null);
+        }
+
+        @Override
+        void write(ByteBuffer buffer, Runnable onSent) throws IOException {
+            enqueue(buffer, onSent);
+        }
+
+        private void enqueue(ByteBuffer buffer, Runnable onSent) throws IOException {
+            long started = System.nanoTime();
+            int count = buffer.remaining();
+            synchronized (this) {
+                if (closing || closed) {
+                    if (onSent != null) onSent.run();
+                    throw new ClosedChannelException();
+                }
+                outbound.add(buffer);
+                // Queued behind the buffer, so flush runs it once the buffer is written out.
+                if (onSent != null) outbound.add(onSent);
+                pending += buffer.remaining();
+            }
+            loop.execute(this::flush);
+            synchronized (this) {
+                if (pending > HIGH_WATER_MARK && loop.inLoop()) {
+                    // Only this thread can flush, so waiting here would stop the loop for good.
+                    closeNow();
+                    throw new IOException("Write would block the event loop");
+                }
+                while (pending > HIGH_WATER_MARK && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while writing", e);
+                    }
+                }
+                if (closed) throw new ClosedChannelException();
+            }
+            wrote(count, System.nanoTime() - started);
+        }
+
+        @Override
+        void transfer(FileChannel file, long position, long count) throws IOException {
+            long started = System.nanoTime();
+            synchronized (this) {
+                if (closing || closed) {
+                    file.close();
+                    throw new ClosedChannelException();
+                }
+                outbound.add(new FileRegion(file, position, count));
+            }
+            loop.execute(this::flush);
+            wrote(count, System.nanoTime() - started);
+        }
+
+        /**
+         * Write queued buffers and file regions until the socket would block. Called on the event loop
+         * when the socket becomes writable, and by handler threads to push out what they queued.
+         */
+        void flush() {
+            try {
+                synchronized (this) {
+                    Object head;
+                    while ((head = outbound.peek()) != null) {
+                        if (head instanceof FileRegion) {
+                            if (!((FileRegion) head).transferTo(channel)) break;
+                        } else if (head instanceof Runnable) {
+                            ((Runnable) head).run();
+                        } else {
+                            ByteBuffer buffer = (ByteBuffer) head;
+                            pending -= channel.write(buffer);
+                            if (buffer.hasRemaining()) break;
+                        }
+                        outbound.poll();
+                    }
+                    notifyAll();
+                    if (!outbound.isEmpty() || !closing) {
+                        updateInterest();
+                        return;
+                    }
+                }
+                closeNow();
+            } catch (IOException e) {
+                closeNow();
+            }
+        }
+
+        @Override
+        synchronized boolean isClosed() {
+            return closing || closed;
+        }
+
+        @Override
+        String remoteAddress() {
+            if (remoteAddress == null) {
+                InetAddress address = channel.socket().getInetAddress();
+                remoteAddress = address != null ? address.getHostAddress() : "-";
+            }
+            return remoteAddress;
+        }
+
+        @Override
+        void close() {
+            synchronized (this) {
+                if (closing || closed) return;
+                closing = true;
+            }
+            loop.execute(this::flush);
+        }
+
+        void closeNow() {
+            if (spool != null) spool.delete();
+            synchronized (this) {
+                if (!closed) server.connectionStats().closed();
+                closed = true;
+                for (Object queued : outbound) {
+                    if (queued instanceof FileRegion) ((FileRegion) queued).close();
+                    else if (queued instanceof Runnable) ((Runnable) queued).run();
+                }
+                outbound.clear();
+                notifyAll();
+            }
+            if (key != null) key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * A queued part of a file, sent with {@link FileChannel#transferTo} as the socket accepts it.
+     */
+    private static final class FileRegion {
+        private final FileChannel file;
+        private long position;
+        private long count;
+
+        FileRegion(FileChannel file, long position, long count) {
+            this.file = file;
+            this.position = position;
+            this.count = count;
+        }
+
+        /**
+         * @return Whether the whole region has been sent; the file is closed once it has.
+         */
+        boolean transferTo(SocketChannel channel) throws IOException {
+            while (count > 0) {
+                long sent = file.transferTo(position, count, channel);
+                if (sent == 0) {
+                    if (position >= file.size()) throw new EOFException("File shorter than expected");
+                    return false;
+                }
+                position += sent;
+                count -= sent;
+            }
+            close();
+            return true;
+        }
+
+        void close() {
+            try {
+                file.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package cat.ella.aweb;
+
+import cat.ella.aweb.api.FormattedRequest;
+import cat.ella.aweb.api.PayloadTooLargeException;
+import cat.ella.aweb.api.RequestHeadTooLargeException;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Blocking transport: one acceptor thread and one worker task per connection. Sockets are
+ * accepted through a blocking {@link ServerSocketChannel} so files can be sent with
+ * {@link FileChannel#transferTo}.
+ */
+final class SocketEngine implements Engine {
+    private final WebServer server;
+    private final WebServer.Listener listener;
+    private final int port;
+    private final ExecutorService executor;
+    private volatile ServerSocketChannel serverChannel;
+
+    SocketEngine(WebServer server, WebServer.Listener listener, ExecutorService executor) {
+        this.server = server;
+        this.listener = listener;
+        this.port = listener.port();
+        this.executor = executor;
+    }
+
+    @Override
+    public void run() throws IOException {
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), server.backlog());
+        ConnectionStats stats = server.connectionStats();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Socket clientSocket = serverChannel.accept().socket();
+                if (!stats.tryOpen(server.maxConnections())) {
+                    reject(clientSocket);
+                    continue;
+                }
+                try {
+                    executor.execute(() -> handleConnection(clientSocket));
+                } catch (RejectedExecutionException e) {
+                    stats.abandon();
+                    reject(clientSocket);
+                }
+            }
+        } catch (IOException e) {
+            if (serverChannel.isOpen()) throw e;
+        }
+    }
+
+    @Override
+    public void stop() {
+        try {
+            if (serverChannel != null) serverChannel.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Answer a connection the server has no room for with 503 and close it. The response is
+     * small enough to fit the socket's send buffer, so the acceptor never waits on the client.
+     */
+    private static void reject(Socket clientSocket) {
+        try (Socket socket = clientSocket) {
+            socket.getOutputStream().write(WebServer.SERVICE_UNAVAILABLE);
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void handleConnection(Socket clientSocket) {
+        SocketConnection connection = new SocketConnection(clientSocket);
+        ConnectionStats stats = server.connectionStats();
+        try {
+            // The head of a file response is flushed before the file is transferred; with Nagle's
+            // algorithm that small write would wait for the client's delayed ACK.
+            clientSocket.setTcpNoDelay(true);
+            RequestReader reader = new RequestReader(clientSocket, server);
+            while (true) {
+                FormattedRequest formattedRequest = reader.read();
+                if (formattedRequest == null) break;
+                if (WebServer.expectsContinue(formattedRequest)) {
+                    // The client holds the body back until it sees this, so it cannot wait in the buffer.
+                    connection.write(WebServer.CONTINUE);
+                    connection.flush();
+                }
+                if (!server.handle(listener, formattedRequest, connection, reader.parseNanos()) || !reader.finishBody(WebServer.DRAIN_LIMIT)) break;
+            }
+        } catch (RequestReader.HeadTimeoutException e) {
+            stats.headerTimeout();
+            respond(connection, WebServer.REQUEST_TIMEOUT);
+        } catch (SocketTimeoutException ignored) {
+            // Idle persistent connection, closed below.
+            stats.idleTimeout();
+        } catch (PayloadTooLargeException e) {
+            respond(connection, WebServer.errorResponse(413, "Payload Too Large"));
+        } catch (RequestHeadTooLargeException e) {
+            stats.headTooLarge();
+            respond(connection, WebServer.HEAD_TOO_LARGE);
+        } catch (IllegalArgumentException e) {
+            respond(connection, WebServer.errorResponse(400, "Bad Request"));
+        } catch (Exception e) {
+            System.err.println("Error handling connection: " + e.getMessage());
+        } finally {
+            stats.closed();
+            try {
+                connection.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static void respond(SocketConnection connection, byte[] response) {
+        try {
+            connection.write(response);
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static final class SocketConnection extends Connection {
+        private final Socket socket;
+        private OutputStream out;
+        private String remoteAddress;
+
+        SocketConnection(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        void write(ByteBuffer buffer) throws IOException {
+            long started = System.nanoTime();
+            int count = buffer.remaining();
+            if (out == null) out = new BufferedOutputStream(socket.getOutputStream());
+            if (buffer.hasArray()) {
+                out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                buffer.position(buffer.limit());
+            } else {
+                byte[] chunk = new byte[buffer.remaining()];
+                buffer.get(chunk);
+                out.write(chunk);
+            }
+            wrote(count, System.nanoTime() - started);
+        }
+
+        @Override
+        void transfer(FileChannel file, long position, long count) throws IOException {
+            try (FileChannel source = file) {
+                flush();
+                long started = System.nanoTime();
+                SocketChannel target = socket.getChannel();
+                long total = count;
+                while (count > 0) {
+                    long sent = source.transferTo(position, count, target);
+                    if (sent <= 0 && position >= source.size()) throw new EOFException("File shorter than expected");
+                    position += sent;
+                    count -= sent;
+                }
+                wrote(total, System.nanoTime() - started);
+            }
+        }
+
+        @Override
+        void flush() throws IOException {
+            if (out == null) return;
+            long started = System.nanoTime();
+            out.flush();
+            wrote(0, System.nanoTime() - started);
+        }
+
+        @Override
+        boolean isClosed() {
+            return socket.isClosed();
+        }
+
+        @Override
+        String remoteAddress() {
+            if (remoteAddress == null) {
+                InetAddress address = socket.getInetAddress();
+                remoteAddress = address != null ? address.getHostAddress() : "-";
+            }
+            return remoteAddress;
+        }
+
+        @Override
+        void close() throws IOException {
+            if (socket.isClosed()) return;
+            try {
+                flush();
+            } finally {
+                socket.close();
+            }
+        }
+    }
+}
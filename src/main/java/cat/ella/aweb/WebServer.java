@@ -3,162 +3,781 @@ package cat.ella.aweb;
 import cat.ella.aweb.annotations.Capture;
 import cat.ella.aweb.annotations.Route;
 import cat.ella.aweb.annotations.WebService;
-import cat.ella.aweb.api.PublicFile;
-import cat.ella.aweb.api.FormattedRequest;
-import cat.ella.aweb.api.FormattedResponse;
-import org.reflections.Reflections;
-import org.reflections.scanners.Scanners;
-import org.reflections.util.ConfigurationBuilder;
+import cat.ella.aweb.api.*;
 
 import java.io.*;
 import java.lang.reflect.*;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
 
 public class WebServer {
+    static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+    static final long DRAIN_LIMIT = 64 * 1024;
+    static final byte[] SERVICE_UNAVAILABLE = errorResponse(503, "Service Unavailable");
+    static final byte[] REQUEST_TIMEOUT = errorResponse(408, "Request Timeout");
+    static final byte[] HEAD_TOO_LARGE = errorResponse(431, "Request Header Fields Too Large");
+
     private final int port;
-    private Method useOnFailure = null;
-    private final ArrayList<Method> openRoutes = new ArrayList<>();
-    private final ArrayList<Method> captrueRoutes = new ArrayList<>();
-    private final ArrayList<PublicFile> publicFiles = new ArrayList<>();
-    private ServerSocket webServer;
-    private Thread webServerThread;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final List<RouteBinding> openRoutes = new CopyOnWriteArrayList<>();
+    private final List<RouteBinding> captrueRoutes = new CopyOnWriteArrayList<>();
+    private final List<PublicFile> publicFiles = new CopyOnWriteArrayList<>();
+    private final Map<PublicFile, Integer> publicFilePorts = new ConcurrentHashMap<>();
+    private final Set<Integer> extraPorts = new LinkedHashSet<>();
+    private boolean listenOnAnnotatedPorts;
+    private final Map<Integer, Listener> listeners = new ConcurrentHashMap<>();
+    private Transport transport = Transport.BLOCKING;
+    private int selectorThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private boolean keepAlive = true;
+    private long idleTimeoutMillis = 15_000;
+    private long headerTimeoutMillis = 10_000;
+    private int maxRequestsPerConnection = 1000;
+    private int maxHeadSize = 64 * 1024;
+    private int maxHeaderCount = 100;
+    private int maxConnections = Integer.MAX_VALUE;
+    private int backlog;
+    private final ConnectionStats connectionStats = new ConnectionStats();
+    private final Metrics metrics = new Metrics(connectionStats, publicFiles);
+    private AccessLog accessLog;
+    private long maxBodySize = 16L * 1024 * 1024;
+    private long spoolThreshold = Long.MAX_VALUE;
+    private int compressionThreshold = 1024;
+    private int captureQueueCapacity = 10_000;
+    private final Map<RouteBinding, CaptureQueue> captureQueues = new ConcurrentHashMap<>();
+    private final BufferPool bufferPool = new BufferPool();
 
+    /**
+     * Creates a server that hands each accepted connection to a worker.
+     * Uses one virtual thread per connection on Java 21+, or a bounded pool
+     * sized to the available processors on older runtimes.
+     *
+     * @param port The port to listen on.
+     */
     public WebServer(int port) {
+        this(port, Workers.defaultExecutor(), true);
+    }
+
+    /**
+     * Creates a server backed by a bounded worker pool.
+     *
+     * @param port          The port to listen on.
+     * @param workerThreads The number of threads handling connections.
+     */
+    public WebServer(int port, int workerThreads) {
+        this(port, Workers.bounded(workerThreads, workerThreads * Workers.QUEUE_PER_THREAD), true);
+    }
+
+    /**
+     * Creates a server that dispatches connections to the given executor.
+     * The executor is not shut down when the server stops. When saturated it should
+     * throw {@link java.util.concurrent.RejectedExecutionException} rather than run
+     * tasks on the submitting thread, which is the acceptor or an event loop.
+     *
+     * @param port     The port to listen on.
+     * @param executor The executor handling accepted connections.
+     */
+    public WebServer(int port, ExecutorService executor) {
+        this(port, executor, false);
+    }
+
+    private WebServer(int port, ExecutorService executor, boolean ownsExecutor) {
         this.port = port;
+        this.executor = Objects.requireNonNull(executor, "executor");
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * One bound port: its engine and the routes compiled for it.
+     */
+    static final class Listener {
+        private final int port;
+        private volatile RouteTable routes;
+        private Engine engine;
+        private Thread thread;
+
+        private Listener(int port) {
+            this.port = port;
+        }
+
+        int port() {
+            return port;
+        }
+    }
+
+    /**
+     * Also listen on the given ports. Methods whose {@link WebService#port()} is one of them are
+     * served there and not on the server's own port; public files can be placed on them with
+     * {@link #add(PublicFile, int)}. All ports share the workers, buffers and caches of this server.
+     *
+     * @param ports The additional ports.
+     * @return The WebServer instance.
+     */
+    public WebServer listen(int... ports) {
+        for (int extra : ports) {
+            if (extra < 0 || extra > 65535) throw new IllegalArgumentException("Invalid port: " + extra);
+            if (extra != port) extraPorts.add(extra);
+        }
+        return this;
+    }
+
+    /**
+     * Listen on every distinct {@link WebService#port()} found when the server starts, rather than
+     * serving all annotated methods on the server's own port. Off by default.
+     *
+     * @param listenOnAnnotatedPorts Whether to bind the annotated ports.
+     * @return The WebServer instance.
+     */
+    public WebServer listenOnAnnotatedPorts(boolean listenOnAnnotatedPorts) {
+        this.listenOnAnnotatedPorts = listenOnAnnotatedPorts;
+        return this;
+    }
+
+    /**
+     * The network transport used to accept and read connections.
+     */
+    public enum Transport {
+        /** Blocking sockets, one worker task per connection. */
+        BLOCKING,
+        /** Non-blocking selector event loops; workers only run while a request is handled. */
+        SELECTOR
+    }
+
+    /**
+     * Set the transport used by the server. Defaults to {@link Transport#BLOCKING}.
+     *
+     * @param transport The transport.
+     * @return The WebServer instance.
+     */
+    public WebServer transport(Transport transport) {
+        this.transport = Objects.requireNonNull(transport, "transport");
+        return this;
+    }
+
+    /**
+     * Set the number of event-loop threads used by the {@link Transport#SELECTOR} transport.
+     *
+     * @param selectorThreads The number of event loops.
+     * @return The WebServer instance.
+     */
+    public WebServer selectorThreads(int selectorThreads) {
+        if (selectorThreads < 1) throw new IllegalArgumentException("selectorThreads must be positive: " + selectorThreads);
+        this.selectorThreads = selectorThreads;
+        return this;
+    }
+
+    /**
+     * Enable or disable HTTP/1.1 persistent connections. Enabled by default.
+     *
+     * @param keepAlive Whether connections may serve more than one request.
+     * @return The WebServer instance.
+     */
+    public WebServer keepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+        return this;
+    }
+
+    /**
+     * Set how long a persistent connection may wait for its next request before it is closed.
+     *
+     * @param timeout The idle timeout.
+     * @param unit    The unit of the timeout.
+     * @return The WebServer instance.
+     */
+    public WebServer idleTimeout(long timeout, TimeUnit unit) {
+        if (timeout <= 0) throw new IllegalArgumentException("timeout must be positive: " + timeout);
+        this.idleTimeoutMillis = unit.toMillis(timeout);
+        return this;
+    }
+
+    /**
+     * Set how long a client may take to send a complete request head, counted from its first
+     * byte, or from the connection being accepted for the first request. Slower clients are
+     * answered with 408 Request Timeout and disconnected. Defaults to 10 seconds.
+     *
+     * @param timeout The header read timeout.
+     * @param unit    The unit of the timeout.
+     * @return The WebServer instance.
+     */
+    public WebServer headerTimeout(long timeout, TimeUnit unit) {
+        if (timeout <= 0) throw new IllegalArgumentException("timeout must be positive: " + timeout);
+        this.headerTimeoutMillis = unit.toMillis(timeout);
+        return this;
+    }
+
+    /**
+     * Set the largest request head, the request line and headers together, accepted.
+     * Larger heads are answered with 431 Request Header Fields Too Large. Defaults to 64 KiB.
+     *
+     * @param maxHeadSize The maximum head size in bytes.
+     * @return The WebServer instance.
+     */
+    public WebServer maxHeadSize(int maxHeadSize) {
+        if (maxHeadSize < 64) throw new IllegalArgumentException("maxHeadSize must be at least 64: " + maxHeadSize);
+        this.maxHeadSize = maxHeadSize;
+        return this;
+    }
+
+    /**
+     * Set the most header lines accepted in one request. Requests with more are answered with
+     * 431 Request Header Fields Too Large. Defaults to 100.
+     *
+     * @param maxHeaderCount The maximum number of headers.
+     * @return The WebServer instance.
+     */
+    public WebServer maxHeaderCount(int maxHeaderCount) {
+        if (maxHeaderCount < 1) throw new IllegalArgumentException("maxHeaderCount must be positive: " + maxHeaderCount);
+        this.maxHeaderCount = maxHeaderCount;
+        return this;
+    }
+
+    /**
+     * Set the most connections open at once. Further connections are answered with
+     * 503 Service Unavailable and closed as soon as they are accepted. Unlimited by default.
+     *
+     * @param maxConnections The maximum number of open connections.
+     * @return The WebServer instance.
+     */
+    public WebServer maxConnections(int maxConnections) {
+        if (maxConnections < 1) throw new IllegalArgumentException("maxConnections must be positive: " + maxConnections);
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    /**
+     * Set the length of the operating system's queue of connections not yet accepted.
+     * Zero, the default, uses the platform's default.
+     *
+     * @param backlog The accept backlog.
+     * @return The WebServer instance.
+     */
+    public WebServer backlog(int backlog) {
+        if (backlog < 0) throw new IllegalArgumentException("backlog must not be negative: " + backlog);
+        this.backlog = backlog;
+        return this;
+    }
+
+    /**
+     * Get the counters of connections accepted, rejected and timed out.
+     *
+     * @return The connection counters.
+     */
+    public ConnectionStats connectionStats() {
+        return connectionStats;
+    }
+
+    /**
+     * Get the per-route request counters and latency histograms.
+     *
+     * @return The metrics of this server.
+     */
+    public Metrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Serve {@link Metrics#toPrometheus()} at a path on the server's own port, for scraping by Prometheus.
+     *
+     * @param path The path of the metrics route, e.g. {@code /metrics}.
+     * @return The WebServer instance.
+     */
+    public WebServer metricsRoute(String path) {
+        return metricsRoute(path, 0);
+    }
+
+    /**
+     * Serve {@link Metrics#toPrometheus()} at a path on another port, such as an admin port added
+     * with {@link #listen(int...)}. The route falls back to the server's own port if nothing
+     * listens on the given one.
+     *
+     * @param path The path of the metrics route, e.g. {@code /metrics}.
+     * @param port The port to serve it on.
+     * @return The WebServer instance.
+     */
+    public WebServer metricsRoute(String path, int port) {
+        if (path == null || !path.startsWith("/")) throw new IllegalArgumentException("path must start with '/': " + path);
+        openRoutes.add(RouteBinding.route(port, "metrics", path, false, true, request -> new FormattedResponse()
+                .contentType("text/plain; version=0.0.4; charset=utf-8")
+                .content(metrics.toPrometheus())
+                .build()));
+        recompileRoutes();
+        return this;
+    }
+
+    /**
+     * Log every request to an access log, written by a background thread.
+     *
+     * @param accessLog The access log, or null for none.
+     * @return The WebServer instance.
+     */
+    public WebServer accessLog(AccessLog accessLog) {
+        this.accessLog = accessLog;
+        return this;
+    }
+
+    /**
+     * Set the number of requests served on one connection before it is closed.
+     *
+     * @param maxRequests The maximum number of requests per connection.
+     * @return The WebServer instance.
+     */
+    public WebServer maxRequestsPerConnection(int maxRequests) {
+        if (maxRequests < 1) throw new IllegalArgumentException("maxRequests must be positive: " + maxRequests);
+        this.maxRequestsPerConnection = maxRequests;
+        return this;
+    }
+
+    /**
+     * Set the largest request body accepted. Larger bodies are answered with 413 Payload Too Large.
+     *
+     * @param maxBodySize The maximum body size in bytes.
+     * @return The WebServer instance.
+     */
+    public WebServer maxBodySize(long maxBodySize) {
+        if (maxBodySize < 0) throw new IllegalArgumentException("maxBodySize must not be negative: " + maxBodySize);
+        this.maxBodySize = maxBodySize;
+        return this;
+    }
+
+    /**
+     * Set the body size above which the {@link Transport#SELECTOR} transport writes a request
+     * body to a temporary file instead of holding it in memory. The blocking transport streams
+     * bodies from the socket and never needs to spool. Off by default.
+     *
+     * @param spoolThreshold The threshold in bytes.
+     * @return The WebServer instance.
+     */
+    public WebServer spoolThreshold(long spoolThreshold) {
+        if (spoolThreshold < 0) throw new IllegalArgumentException("spoolThreshold must not be negative: " + spoolThreshold);
+        this.spoolThreshold = spoolThreshold;
+        return this;
+    }
+
+    /**
+     * Set the smallest response body, in bytes, that {@code @Route(compress = true)} handlers gzip.
+     * Defaults to 1 KiB.
+     *
+     * @param compressionThreshold The threshold in bytes.
+     * @return The WebServer instance.
+     */
+    public WebServer compressionThreshold(int compressionThreshold) {
+        if (compressionThreshold < 0) throw new IllegalArgumentException("compressionThreshold must not be negative: " + compressionThreshold);
+        this.compressionThreshold = compressionThreshold;
+        return this;
+    }
+
+    /**
+     * Set how many requests an asynchronous {@code @Capture} may hold before further requests
+     * are answered with 503 Service Unavailable. Each capture has its own queue.
+     *
+     * @param captureQueueCapacity The capacity of each queue.
+     * @return The WebServer instance.
+     */
+    public WebServer captureQueueCapacity(int captureQueueCapacity) {
+        if (captureQueueCapacity < 1) throw new IllegalArgumentException("captureQueueCapacity must be positive: " + captureQueueCapacity);
+        this.captureQueueCapacity = captureQueueCapacity;
+        return this;
+    }
+
+    long maxBodySize() {
+        return maxBodySize;
+    }
+
+    long spoolThreshold() {
+        return spoolThreshold;
+    }
+
+    static boolean expectsContinue(FormattedRequest request) {
+        return "HTTP/1.1".equals(request.getHttpVersion()) && "100-continue".equalsIgnoreCase(request.getHeader("Expect"));
+    }
+
+    long idleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    long headerTimeoutMillis() {
+        return headerTimeoutMillis;
+    }
+
+    int maxHeadSize() {
+        return maxHeadSize;
+    }
+
+    int maxHeaderCount() {
+        return maxHeaderCount;
+    }
+
+    int maxConnections() {
+        return maxConnections;
+    }
+
+    int backlog() {
+        return backlog;
+    }
+
+    /**
+     * Build a plain-text error response that closes the connection.
+     */
+    static byte[] errorResponse(int statusCode, String statusMessage) {
+        return new FormattedResponse()
+                .contentType("text/plain")
+                .content(statusCode + " " + statusMessage)
+                .addHeader("Connection", "close")
+                .statusCode(statusCode)
+                .statusMessage(statusMessage).build();
     }
 
     public void start() {
-        webServerThread = new Thread(() -> {
-            try {
-                System.out.println("Server started on port " + port+"...");
-                AnnotationHandler();
-
-                if (this.webServer == null) this.webServer = new ServerSocket(port);
-                while (true) {
-                    Socket clientSocket = this.webServer.accept();
-                    FormattedRequest formattedRequest = getFormattedRequest(clientSocket);
-                    if (formattedRequest == null) continue;
-
-                    if (useOnFailure == null) this.useOnFailure = this.openRoutes.stream().filter(r -> r.getAnnotation(Route.class).errorRoute()).findFirst().orElseGet(() -> null);
-
-                    this.publicFiles.stream()
-                            .filter(r -> r.getPaths().contains(formattedRequest.getPath()))
-                            .findAny()
-                            .ifPresent(r -> handlePublicFile(formattedRequest, r.getData(formattedRequest.getPath()), clientSocket));
-                    this.openRoutes.stream()
-                            .filter(r -> r.getAnnotation(Route.class).path().equals(formattedRequest.getPath()))
-                            .findAny()
-                            .ifPresent(r -> handleRoute(r, formattedRequest, clientSocket));
-
-                    this.captrueRoutes.stream()
-                            .filter(r -> r.getAnnotation(Route.class).path().equals(formattedRequest.getPath()) && r.getAnnotation(Capture.class).method().equals(formattedRequest.getMethod()))
-                            .findAny()
-                            .ifPresent(r -> handleCapture(r, formattedRequest));
-
-                    if (clientSocket.isClosed()) continue;
-                    if (useOnFailure != null) handleRoute(useOnFailure, formattedRequest, clientSocket);
+        AnnotationHandler();
+        if (accessLog != null) accessLog.start();
+
+        Set<Integer> ports = new LinkedHashSet<>();
+        ports.add(port);
+        ports.addAll(extraPorts);
+        if (listenOnAnnotatedPorts) {
+            for (RouteBinding binding : openRoutes) if (binding.port() != 0) ports.add(binding.port());
+            for (RouteBinding binding : captrueRoutes) if (binding.port() != 0) ports.add(binding.port());
+        }
+        synchronized (this) {
+            for (int listenPort : ports) listeners.put(listenPort, new Listener(listenPort));
+            recompileRoutes();
+        }
+
+        for (Listener listener : listeners.values()) {
+            listener.engine = transport == Transport.SELECTOR
+                    ? new SelectorEngine(this, listener, executor, selectorThreads)
+                    : new SocketEngine(this, listener, executor);
+            listener.thread = new Thread(() -> {
+                try {
+                    System.out.println("Server started on port " + listener.port + "...");
+                    listener.engine.run();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
                 }
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-        });
-        webServerThread.start();
+            }, "aweb-acceptor-" + listener.port);
+            listener.thread.start();
+        }
     }
 
-    private static FormattedRequest getFormattedRequest(Socket clientSocket) throws IOException {
-        BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream(), StandardCharsets.UTF_8));
+    /**
+     * Dispatch one request read from a connection accepted by a listener.
+     *
+     * @param parseNanos The time the transport spent parsing the request head, for {@link Metrics}.
+     * @return Whether the connection may be used for another request.
+     */
+    boolean handle(Listener listener, FormattedRequest formattedRequest, Connection connection, long parseNanos) throws IOException {
+        long started = System.nanoTime();
+        Exchange exchange = new Exchange(formattedRequest, connection, isKeepAlive(formattedRequest, connection.nextRequest()));
+        RouteTable routes = listener.routes;
+        // The route, capture or file the request is counted under: the first one to answer it.
+        String handledBy = Metrics.UNMATCHED;
+
+        try {
+            RouteTable.Entry entry = routes.lookup(formattedRequest);
+            if (entry != null) {
+                if (entry.file() != null) {
+                    handledBy = entry.file().getPublicPath();
+                    handlePublicFile(exchange, entry.file().getEntry(formattedRequest.getPath()));
+                }
+                if (entry.route() != null && !exchange.isResponded()) {
+                    handledBy = entry.route().name();
+                    handleRoute(entry.route(), exchange);
+                }
 
-        List<String> headers = new ArrayList<>();
-        String line;
-        int contentLength = -1;
-        while ((line = in.readLine()) != null && !line.isEmpty()) {
-            headers.add(line);
-            if (line.startsWith("Content-Length: ")) {
-                contentLength = Integer.parseInt(line.substring(16).trim());
+                RouteBinding capture = entry.capture(formattedRequest.getMethod());
+                if (capture != null) {
+                    if (!exchange.isResponded()) handledBy = capture.name();
+                    handleCapture(capture, exchange);
+                }
+            }
+
+            RouteBinding errorRoute = routes.errorRoute();
+            if (!exchange.isResponded() && errorRoute != null) {
+                handledBy = errorRoute.name();
+                handleRoute(errorRoute, exchange);
+            }
+        } catch (RuntimeException e) {
+            if (exchange.isResponded() || !causedBy(e, PayloadTooLargeException.class)) {
+                record(handledBy, exchange, parseNanos, started);
+                throw e;
             }
+            exchange.send(errorResponse(413, "Payload Too Large"));
         }
+        connection.flush();
+        record(handledBy, exchange, parseNanos, started);
+        return exchange.isResponded() && exchange.isKeepAlive();
+    }
+
+    private void record(String route, Exchange exchange, long parseNanos, long started) {
+        long elapsed = System.nanoTime() - started;
+        long writeNanos = exchange.writeNanos();
+        FormattedRequest request = exchange.request();
+        metrics.route(route).record(exchange.status(), parseNanos, elapsed - writeNanos, writeNanos,
+                request.getHeadLength() + Math.max(0, request.getContentLength()), exchange.bytesWritten());
+        AccessLog log = accessLog;
+        if (log != null) log.log(exchange.connection(), request, exchange.status(), exchange.bytesWritten(), elapsed);
+    }
 
-        if (contentLength > 0) {
-            char[] buffer = new char[contentLength];
-            in.read(buffer);
-            headers.add(0, String.valueOf(buffer));
+    private static boolean causedBy(Throwable throwable, Class<? extends Throwable> type) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (type.isInstance(cause)) return true;
         }
+        return false;
+    }
 
-        return !headers.isEmpty() ? new FormattedRequest(headers) : null;
+    private boolean isKeepAlive(FormattedRequest request, int requestCount) {
+        if (!keepAlive || requestCount >= maxRequestsPerConnection) return false;
+        String connectionHeader = request.getHeader("Connection");
+        if ("HTTP/1.1".equals(request.getHttpVersion())) return connectionHeader == null || !connectionHeader.equalsIgnoreCase("close");
+        return connectionHeader != null && connectionHeader.equalsIgnoreCase("keep-alive");
     }
 
     public void stop() {
-        webServerThread.interrupt();
-        System.out.println("Server(" + port + ") stopped.");
+        for (Listener listener : listeners.values()) {
+            if (listener.thread != null) listener.thread.interrupt();
+            if (listener.engine != null) listener.engine.stop();
+        }
+        captureQueues.values().forEach(CaptureQueue::stop);
+        if (accessLog != null) accessLog.stop();
+        if (ownsExecutor) executor.shutdown();
+        for (int listenPort : listeners.keySet()) System.out.println("Server(" + listenPort + ") stopped.");
     }
 
+    /**
+     * Register the static {@link WebService} methods: from the generated {@link RouteRegistry}
+     * classes when there are any, otherwise by scanning the classpath.
+     */
     void AnnotationHandler() {
+        boolean generated = false;
+        RouteRegistry.Routes routes = new RegistryRoutes();
+        for (RouteRegistry registry : ServiceLoader.load(RouteRegistry.class)) {
+            registry.register(routes);
+            generated = true;
+        }
+        if (generated) return;
+
         cat.ella.Reflections newReflections = new cat.ella.Reflections(getClass());
 
         for (Method method : newReflections.getMethodsAnnotatedWith(WebService.class)) {
-            System.out.println("method: " + method);
-
-            if (method.isAnnotationPresent(Route.class)
-                    && Arrays.stream(method.getParameters()).allMatch(p -> FormattedRequest.class.isAssignableFrom(p.getType()))
-                    && byte[].class.isAssignableFrom(method.getReturnType())
-                    && !method.isAnnotationPresent(Capture.class)) {
-                openRoutes.add(method);
-            } else if (method.isAnnotationPresent(Route.class) && method.isAnnotationPresent(Capture.class)) {
-                captrueRoutes.add(method);
-            }
+            if (!Modifier.isStatic(method.getModifiers())) continue;
+            register(method, null);
+        }
+    }
+
+    /**
+     * Adds the routes of generated registries to the server's route lists.
+     */
+    private final class RegistryRoutes implements RouteRegistry.Routes {
+        @Override
+        public void route(int port, String name, String path, boolean errorRoute, boolean compress, RouteHandler handler) {
+            openRoutes.add(RouteBinding.route(port, name, path, errorRoute, compress, handler));
+        }
+
+        @Override
+        public void streaming(int port, String name, String path, boolean errorRoute, StreamingHandler handler) {
+            openRoutes.add(RouteBinding.streaming(port, name, path, errorRoute, handler));
+        }
+
+        @Override
+        public void capture(int port, String name, String path, String method, CaptureHandler handler) {
+            captrueRoutes.add(RouteBinding.capture(port, name, path, method, handler));
+        }
+
+        @Override
+        public void asyncCapture(int port, String name, String path, String method, int status, CaptureHandler handler) {
+            captrueRoutes.add(RouteBinding.capture(port, name, path, method, handler, new RouteBinding.AsyncCapture(status, 1, 0, null)));
+        }
+
+        @Override
+        public void batchCapture(int port, String name, String path, String method, int status, int batchSize, long batchDelayMillis,
+                                 BatchCaptureHandler handler) {
+            captrueRoutes.add(RouteBinding.capture(port, name, path, method, null, new RouteBinding.AsyncCapture(status, batchSize, batchDelayMillis, handler)));
+        }
+    }
+
+    /**
+     * Register the non-static {@link WebService} methods of an object, called on that object.
+     * Static methods are found by the classpath scan when the server starts.
+     *
+     * @param service The object whose annotated instance methods should be served.
+     * @return The WebServer instance.
+     */
+    public WebServer addService(Object service) {
+        Set<Method> methods = new LinkedHashSet<>(Arrays.asList(service.getClass().getMethods()));
+        methods.addAll(Arrays.asList(service.getClass().getDeclaredMethods()));
+        for (Method method : methods) {
+            if (method.isAnnotationPresent(WebService.class) && !Modifier.isStatic(method.getModifiers())) register(method, service);
+        }
+        recompileRoutes();
+        return this;
+    }
+
+    private void register(Method method, Object receiver) {
+        if (method.isAnnotationPresent(Route.class) && !method.isAnnotationPresent(Capture.class) && RouteBinding.isStreaming(method)) {
+            openRoutes.add(RouteBinding.bindStreaming(method, receiver));
+            return;
+        }
+        if (method.isAnnotationPresent(Route.class) && method.isAnnotationPresent(Capture.class) && RouteBinding.isBatch(method)) {
+            captrueRoutes.add(RouteBinding.bindCapture(method, receiver));
+            return;
+        }
+        if (!method.isAnnotationPresent(Route.class)
+                || !Arrays.stream(method.getParameters()).allMatch(p -> FormattedRequest.class.isAssignableFrom(p.getType()))) return;
+
+        if (byte[].class.isAssignableFrom(method.getReturnType()) && !method.isAnnotationPresent(Capture.class)) {
+            openRoutes.add(RouteBinding.bindRoute(method, receiver));
+        } else if (method.isAnnotationPresent(Capture.class)) {
+            captrueRoutes.add(RouteBinding.bindCapture(method, receiver));
         }
     }
 
     public void add(PublicFile file) {
+        add(file, port);
+    }
+
+    /**
+     * Serve a public file on one of the server's ports.
+     *
+     * @param file The files to serve.
+     * @param port The server's own port or one passed to {@link #listen(int...)}.
+     */
+    public void add(PublicFile file, int port) {
+        publicFilePorts.put(file, port);
         publicFiles.add(file);
+        // A watched PublicFile can gain or lose paths after registration.
+        file.addChangeListener(this::recompileRoutes);
+        recompileRoutes();
+    }
+
+    /**
+     * Compile each listener's route table from the bindings and files placed on its port.
+     * Bindings for a port nothing listens on are served on the server's own port.
+     */
+    private synchronized void recompileRoutes() {
+        for (Listener listener : listeners.values()) {
+            listener.routes = RouteTable.compile(bindingsFor(listener.port, openRoutes), bindingsFor(listener.port, captrueRoutes),
+                    publicFiles.stream().filter(file -> servedOn(publicFilePorts.getOrDefault(file, port)) == listener.port).collect(Collectors.toList()));
+        }
     }
 
-    private void handleRoute(Method method, FormattedRequest request, Socket clientSocket) {
-        if (clientSocket.isClosed()) return;
-        try (OutputStream outputStream = clientSocket.getOutputStream()) {
-            byte[] response = (byte[]) method.invoke(method.getDeclaringClass(), request);
+    private List<RouteBinding> bindingsFor(int listenPort, List<RouteBinding> bindings) {
+        List<RouteBinding> served = new ArrayList<>();
+        for (RouteBinding binding : bindings) {
+            if (servedOn(binding.port()) == listenPort) served.add(binding);
+        }
+        return served;
+    }
+
+    private int servedOn(int requestedPort) {
+        return listeners.containsKey(requestedPort) ? requestedPort : port;
+    }
+
+    private void handleRoute(RouteBinding route, Exchange exchange) {
+        if (exchange.isResponded()) return;
+        if (route.streaming() != null) {
+            handleStreamingRoute(route, exchange);
+            return;
+        }
+        try {
+            byte[] response = route.route().handle(exchange.request());
             byte[] dataToSend = (response != null && response.length > 0)
                     ? response
                     : new FormattedResponse().contentType("application/json").statusCode(404).statusMessage("Not Found").build();
-            outputStream.write(dataToSend);
-            clientSocket.close();
+            if (route.isCompressed()) dataToSend = ResponseHead.gzip(dataToSend, exchange.request().getHeader("Accept-Encoding"), compressionThreshold);
+            exchange.send(dataToSend);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
-    private void handleCapture(Method method, FormattedRequest request) {
+    private void handleStreamingRoute(RouteBinding route, Exchange exchange) {
+        ExchangeResponseStream response = new ExchangeResponseStream(exchange, bufferPool);
         try {
-            method.invoke(method.getDeclaringClass(), request);
-        } catch (IllegalAccessException | InvocationTargetException e) {
+            route.streaming().handle(exchange.request(), response);
+            response.close();
+        } catch (Exception e) {
+            // Part of the response may be on the wire already; only closing the connection ends it cleanly.
+            if (response.isCommitted()) exchange.abort();
+            response.discard();
             throw new RuntimeException(e);
         }
     }
 
-    private void handlePublicFile(FormattedRequest request, byte[] fileData, Socket clientSocket) {
-        if (clientSocket.isClosed()) return;
+    private void handleCapture(RouteBinding capture, Exchange exchange) throws IOException {
+        if (capture.async() == null) {
+            try {
+                capture.capture().capture(exchange.request());
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            return;
+        }
+
+        // The connection moves on to its next request once this returns, so the body has to be read now.
+        FormattedRequest request = exchange.request().bufferBody();
+        CaptureQueue queue = captureQueues.computeIfAbsent(capture, binding -> new CaptureQueue(binding, captureQueueCapacity));
+        boolean queued = queue.offer(request);
+        if (exchange.isResponded()) return;
+        exchange.send(queued ? queue.acknowledgement() : errorResponse(503, "Service Unavailable"));
+    }
+
+    private void handlePublicFile(Exchange exchange, PublicFile.Entry file) {
+        // A watched file deleted since the route table was compiled is left to the error route.
+        if (exchange.isResponded() || file == null) return;
         try {
-            String pathType = request.getPath().substring(request.getPath().lastIndexOf(".") + 1);
-            OutputStream outputStream = clientSocket.getOutputStream();
-
-            Path tempFile = Files.createTempFile("tempWebconfig", "." + pathType);
-            Files.write(tempFile, fileData);
-            try (InputStream inputStream = Files.newInputStream(tempFile)) {
-                outputStream.write(new FormattedResponse()
-                        .contentType(Files.probeContentType(tempFile))
-                        .content(inputStream.readAllBytes())
-                        .statusCode(200)
-                        .statusMessage("OK").build());
-            } finally {
-                Files.deleteIfExists(tempFile);
+            FormattedRequest request = exchange.request();
+            file = file.select(request.getHeader("Accept-Encoding"));
+            String method = request.getMethod();
+            boolean headOnly = "HEAD".equals(method);
+            if ((headOnly || "GET".equals(method)) && file.isNotModified(request.getHeader("If-None-Match"), request.getHeader("If-Modified-Since"))) {
+                exchange.send(file.getNotModifiedHead());
+                return;
+            }
+
+            boolean ranged = "GET".equals(method) && request.getHeader("Range") != null && file.matchesIfRange(request.getHeader("If-Range"));
+            ByteBuffer data = headOnly ? null : file.getBuffer();
+            if (data != null || (headOnly && !file.isFile())) {
+                List<long[]> ranges = ranged ? ByteRanges.parse(request.getHeader("Range"), file.length()) : null;
+                if (ranges != null) ByteRanges.send(exchange, file, data, null, file.length(), ranges);
+                else exchange.send(file.getHead(), data);
+                return;
+            }
+            if (!file.isFile()) {
+                // A lazy resource too large to cache, copied from the jar as it is sent. Ranges are
+                // not served from it, since the stream would have to be read up to each one.
+                exchange.send(file.getHead(), file.openStream(), file.length(), bufferPool);
+                return;
             }
 
-            clientSocket.close();
+            FileChannel channel;
+            try {
+                channel = FileChannel.open(file.getFile(), StandardOpenOption.READ);
+            } catch (NoSuchFileException e) {
+                return; // Deleted, and not yet dropped from the index.
+            }
+            long length = channel.size();
+            byte[] head = file.getHead();
+            if (length != file.length()) {
+                // The file changed since it was indexed; the prebuilt validators no longer describe it.
+                FormattedResponse response = new FormattedResponse().contentType(file.getContentType()).contentLength(length);
+                if (file.getContentEncoding() != null) response.addHeader("Content-Encoding", file.getContentEncoding());
+                head = response.buildHead();
+                ranged = false;
+            }
+            List<long[]> ranges = ranged ? ByteRanges.parse(request.getHeader("Range"), length) : null;
+            if (headOnly) {
+                channel.close();
+                exchange.send(head, null);
+            } else if (ranges != null) {
+                ByteRanges.send(exchange, file, null, channel, length, ranges);
+            } else {
+                exchange.send(head, channel, 0, length);
+            }
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
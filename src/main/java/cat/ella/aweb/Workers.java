@@ -0,0 +1,53 @@
+package cat.ella.aweb;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Factories for the executors that handle accepted connections.
+ */
+final class Workers {
+    static final int QUEUE_PER_THREAD = 64;
+
+    private Workers() {
+    }
+
+    /**
+     * Returns a virtual-thread-per-task executor when the runtime provides one,
+     * otherwise a bounded pool sized to the available processors.
+     *
+     * @return The default connection executor.
+     */
+    static ExecutorService defaultExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            int threads = Runtime.getRuntime().availableProcessors() * 2;
+            return bounded(threads, threads * QUEUE_PER_THREAD);
+        }
+    }
+
+    /**
+     * Creates a fixed-size pool with a bounded queue. When the queue is full the pool
+     * throws {@link RejectedExecutionException}, and the engine answers the connection
+     * with 503 instead of serving it on the accepting thread.
+     *
+     * @param threads       The number of worker threads.
+     * @param queueCapacity The number of connections allowed to wait for a worker.
+     * @return The executor.
+     */
+    static ExecutorService bounded(int threads, int queueCapacity) {
+        if (threads < 1) throw new IllegalArgumentException("threads must be positive: " + threads);
+        AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)),
+                r -> {
+                    Thread thread = new Thread(r, "aweb-worker-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+}
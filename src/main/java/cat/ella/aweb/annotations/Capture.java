@@ -23,6 +23,24 @@ import java.lang.annotation.*;
  * }
  * </pre>
  *
+ * <p>With {@code async = true} the request is acknowledged right away with {@code status}
+ * (202 Accepted by default; 200, 201 and 204 are also allowed) and the method runs later on the
+ * capture's own thread, in arrival order. When the capture's queue is full, requests are answered
+ * with 503 instead. A method
+ * taking a {@code List<FormattedRequest>} is always asynchronous and receives up to
+ * {@code batchSize} requests per call, waiting at most {@code batchDelayMillis} for a batch to fill.</p>
+ *
+ * <pre>
+ * {@code
+ * @WebService(port = 2020)
+ * @Route(path = "/telemetry")
+ * @Capture(method = "POST", batchSize = 500, batchDelayMillis = 100)
+ * public static void ingest(List<FormattedRequest> requests) {
+ *     database.insertAll(requests);
+ * }
+ * }
+ * </pre>
+ *
  * @see WebService
  * @see Route
  */
@@ -31,6 +49,10 @@ import java.lang.annotation.*;
 @Retention(RetentionPolicy.RUNTIME)
 public @interface Capture {
     String method() default "GET";
+    boolean async() default false;
+    int status() default 202;
+    int batchSize() default 1;
+    long batchDelayMillis() default 0;
 }
 
 
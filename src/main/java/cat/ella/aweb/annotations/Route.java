@@ -13,6 +13,20 @@ import java.lang.annotation.*;
  *
  * <p>When used alone, the method should return a byte array.</p>
  *
+ * <p>A path ending in {@code /*} matches every path below it, unless a more
+ * specific route is registered for that path.</p>
+ *
+ * <p>A segment written as {@code {name}} matches any single segment, which the
+ * handler reads with {@code request.getParameter("name")}; the path matched by a
+ * trailing {@code /*} is the parameter {@code *}. Literal paths and segments take
+ * precedence over parameters, e.g. {@code /users/me} over {@code /users/{id}}.</p>
+ *
+ * <p>A method taking a {@code FormattedRequest} and a {@code ResponseStream} and
+ * returning void writes its response to the stream as it produces it.</p>
+ *
+ * <p>Setting {@code compress} gzips text-like responses larger than the server's
+ * compression threshold for clients that accept it.</p>
+ *
  * <p>Example usage with {@link Capture}:</p>
  * <pre>
  * {@code
@@ -46,5 +60,6 @@ import java.lang.annotation.*;
 public @interface Route {
     String path();
     boolean errorRoute() default false;
+    boolean compress() default false;
 }
 
@@ -18,6 +18,16 @@ import java.lang.annotation.*;
  * }
  * </pre>
  *
+ * <p>Static methods are discovered when the server starts, from the registry generated
+ * by {@code cat.ella.aweb.processor.RouteProcessor} when the library is on the annotation
+ * processor path, or by scanning the classpath otherwise. The processor also rejects
+ * methods whose signature cannot be served. Instance methods are served once their
+ * object is registered with {@code WebServer.addService}.</p>
+ *
+ * <p>Methods are served on the port given here when the server listens on it, either
+ * through {@code WebServer.listen} or {@code WebServer.listenOnAnnotatedPorts}, and on
+ * the server's own port otherwise.</p>
+ *
  * @see Route
  * @see Capture
  */
@@ -0,0 +1,11 @@
+package cat.ella.aweb.api;
+
+import java.util.List;
+
+/**
+ * A bound asynchronous {@code @Capture} method that receives queued requests in batches.
+ */
+@FunctionalInterface
+public interface BatchCaptureHandler {
+    void capture(List<FormattedRequest> requests) throws Exception;
+}
@@ -0,0 +1,9 @@
+package cat.ella.aweb.api;
+
+/**
+ * A bound {@code @Capture} method: receives the request and produces no response.
+ */
+@FunctionalInterface
+public interface CaptureHandler {
+    void capture(FormattedRequest request) throws Exception;
+}
@@ -0,0 +1,108 @@
+package cat.ella.aweb.api;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Least-recently-used cache of file contents for a lazy {@link PublicFile}, bounded by the total
+ * number of bytes held. Files larger than an eighth of the bound are never cached, so one large
+ * file cannot flush everything else.
+ */
+public final class ContentCache {
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final LinkedHashMap<PublicFile.Entry, byte[]> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long size;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    ContentCache(long maxBytes) {
+        if (maxBytes <= 0) throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.max(1, maxBytes / 8);
+    }
+
+    /**
+     * Whether contents of the given length are small enough to be cached.
+     */
+    boolean accepts(long length) {
+        return length <= maxEntryBytes;
+    }
+
+    /**
+     * Get the contents of an entry, loading and caching them on a miss. Concurrent misses on the
+     * same entry may each load it; the first to finish is kept.
+     *
+     * @return The contents, or null if they could not be loaded consistently with the entry.
+     */
+    byte[] get(PublicFile.Entry entry) {
+        synchronized (this) {
+            byte[] cached = entries.get(entry);
+            if (cached != null) {
+                hits.increment();
+                return cached;
+            }
+        }
+        misses.increment();
+        byte[] loaded = entry.load();
+        if (loaded == null || !accepts(loaded.length)) return loaded;
+        synchronized (this) {
+            byte[] raced = entries.putIfAbsent(entry, loaded);
+            if (raced != null) return raced;
+            size += loaded.length;
+            Iterator<Map.Entry<PublicFile.Entry, byte[]>> eldest = entries.entrySet().iterator();
+            while (size > maxBytes && eldest.hasNext()) {
+                size -= eldest.next().getValue().length;
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Drop an entry's contents, e.g. because the file changed.
+     */
+    synchronized void invalidate(PublicFile.Entry entry) {
+        byte[] removed = entries.remove(entry);
+        if (removed != null) size -= removed.length;
+    }
+
+    /**
+     * @return The number of requests served from the cache.
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return The number of requests that had to load the file.
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return The number of files dropped to stay within the bound.
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return The number of bytes currently cached.
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * @return The bound on the number of bytes cached.
+     */
+    public long maxBytes() {
+        return maxBytes;
+    }
+}
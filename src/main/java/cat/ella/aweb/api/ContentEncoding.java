@@ -0,0 +1,122 @@
+package cat.ella.aweb.api;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content-coding helpers: {@code Accept-Encoding} negotiation and gzip compression.
+ */
+public final class ContentEncoding {
+    public static final String GZIP = "gzip";
+    public static final String BROTLI = "br";
+    public static final String DEFLATE = "deflate";
+
+    /**
+     * Codings in order of preference when the client weighs them equally.
+     */
+    private static final String[] PREFERENCE = {BROTLI, GZIP, DEFLATE};
+
+    private ContentEncoding() {
+    }
+
+    /**
+     * Pick the coding to send for an {@code Accept-Encoding} header.
+     *
+     * @param acceptEncoding The request's Accept-Encoding header, or null.
+     * @param available      The codings the response is available in, besides identity.
+     * @return The chosen coding, or null to send the response unencoded.
+     */
+    public static String negotiate(String acceptEncoding, Collection<String> available) {
+        if (acceptEncoding == null || available.isEmpty()) return null;
+        String best = null;
+        float bestQuality = 0;
+        for (String coding : PREFERENCE) {
+            if (!available.contains(coding)) continue;
+            float quality = quality(acceptEncoding, coding);
+            if (quality > bestQuality) {
+                best = coding;
+                bestQuality = quality;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Get the weight the client gives a coding, 0 if it is not acceptable. {@code x-gzip} counts
+     * as gzip, and {@code *} applies to codings that are not listed.
+     */
+    static float quality(String acceptEncoding, String coding) {
+        float wildcard = 0;
+        int start = 0;
+        while (start < acceptEncoding.length()) {
+            int end = acceptEncoding.indexOf(',', start);
+            if (end == -1) end = acceptEncoding.length();
+            String element = acceptEncoding.substring(start, end);
+            start = end + 1;
+
+            int semicolon = element.indexOf(';');
+            String name = (semicolon == -1 ? element : element.substring(0, semicolon)).trim();
+            float quality = semicolon == -1 ? 1 : parseQuality(element.substring(semicolon + 1));
+            if (name.equalsIgnoreCase(coding) || (coding.equals(GZIP) && name.equalsIgnoreCase("x-gzip"))) return quality;
+            if (name.equals("*")) wildcard = quality;
+        }
+        return wildcard;
+    }
+
+    private static float parseQuality(String parameters) {
+        for (String parameter : parameters.split(";")) {
+            parameter = parameter.trim();
+            if (!parameter.startsWith("q=") && !parameter.startsWith("Q=")) continue;
+            try {
+                return Float.parseFloat(parameter.substring(2).trim());
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Whether a content type is worth compressing. Images, audio, video, fonts and archives
+     * other than the uncompressed formats below are already compressed.
+     *
+     * @param contentType The content type, parameters allowed.
+     * @return Whether the type is text-like.
+     */
+    public static boolean isCompressible(String contentType) {
+        if (contentType == null) return false;
+        String type = contentType.toLowerCase();
+        return type.startsWith("text/")
+                || type.startsWith("application/json")
+                || type.startsWith("application/javascript")
+                || type.startsWith("application/xml")
+                || type.startsWith("application/wasm")
+                || type.startsWith("image/svg+xml")
+                || type.startsWith("image/x-icon")
+                || type.startsWith("font/ttf")
+                || type.startsWith("font/otf")
+                || type.contains("+json")
+                || type.contains("+xml");
+    }
+
+    /**
+     * Compress bytes with gzip.
+     *
+     * @param data   The source array.
+     * @param offset The first byte to compress.
+     * @param length The number of bytes to compress.
+     * @return The gzip stream.
+     */
+    public static byte[] gzip(byte[] data, int offset, int length) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, length / 3));
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out, 8192)) {
+            gzip.write(data, offset, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+}
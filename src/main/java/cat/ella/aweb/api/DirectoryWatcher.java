@@ -0,0 +1,106 @@
+package cat.ella.aweb.api;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches an external {@link PublicFile} directory and reports the files that changed, in batches.
+ * Events arriving within {@link #SETTLE_MILLIS} of each other are reported together, so a deploy
+ * that copies many files causes one refresh rather than one per file.
+ */
+final class DirectoryWatcher implements Runnable {
+    static final long SETTLE_MILLIS = 100;
+
+    private final Path root;
+    private final boolean recursive;
+    private final Consumer<Set<Path>> onChange;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private final Thread thread;
+
+    /**
+     * @param root      The directory to watch.
+     * @param recursive Whether to watch subdirectories too.
+     * @param onChange  Called on the watcher thread with the created, modified or deleted paths.
+     *                  A deleted directory is reported as the directory itself; a created one as the files in it.
+     */
+    DirectoryWatcher(Path root, boolean recursive, Consumer<Set<Path>> onChange) throws IOException {
+        this.root = root;
+        this.recursive = recursive;
+        this.onChange = onChange;
+        this.watchService = root.getFileSystem().newWatchService();
+        register(root);
+        this.thread = new Thread(this, "aweb-watch-" + root.getFileName());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void register(Path directory) throws IOException {
+        if (!recursive) {
+            directories.put(directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), directory);
+            return;
+        }
+        try (Stream<Path> tree = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) tree.filter(Files::isDirectory)::iterator) {
+                directories.put(path.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), path);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Set<Path> changed = new HashSet<>();
+                WatchKey key = watchService.take();
+                while (key != null) {
+                    collect(key, changed);
+                    key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                if (!changed.isEmpty()) onChange.accept(changed);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Stopped.
+        }
+    }
+
+    private void collect(WatchKey key, Set<Path> changed) {
+        Path directory = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW || directory == null) {
+                // Events were lost; report everything under the root so it is rescanned.
+                changed.add(root);
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context());
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                if (!recursive) continue;
+                try {
+                    register(path);
+                    try (Stream<Path> tree = Files.walk(path)) {
+                        tree.filter(Files::isRegularFile).forEach(changed::add);
+                    }
+                } catch (IOException e) {
+                    System.err.println("Error watching " + path + ": " + e.getMessage());
+                }
+            } else {
+                changed.add(path);
+            }
+        }
+        if (!key.reset()) directories.remove(key);
+    }
+
+    void stop() {
+        thread.interrupt();
+        try {
+            watchService.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -1,15 +1,28 @@
 package cat.ella.aweb.api;
 
-import java.util.HashMap;
-import java.util.List;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
 
 public class FormattedRequest {
 
-    private HashMap<String, String> headers;
+    private RequestHead head;
+    private byte[] bodyBytes;
+    private InputStream bodyStream;
+    private Headers headers;
+    private HashMap<String, String> headerCopy;
     private String body;
     private String method;
     private String path;
     private String pathParameters;
+    private PathParameters parameters = PathParameters.EMPTY;
+    private String target;
+    private int queryStart = -1;
+    private int[] queryIndex;
+    private int queryCount;
     private HashMap<String, String> query;
     private String httpVersion;
 
@@ -28,50 +41,179 @@ public class FormattedRequest {
 
         String[] mainMethods = inputHeaders.remove(0).split(" ");
         this.method = mainMethods[0];
-        String fullPath = mainMethods[1];
+        this.target = mainMethods[1];
         this.httpVersion = mainMethods[2];
+        this.headers = new Headers(inputHeaders);
+    }
+
+    /**
+     * Constructor for FormattedRequest from a parsed head. The path, query and headers
+     * are only turned into strings when first read.
+     *
+     * @param head      The parsed request line and headers.
+     * @param bodyBytes The raw request body, or null if there is none.
+     */
+    public FormattedRequest(RequestHead head, byte[] bodyBytes) {
+        this.head = head;
+        this.bodyBytes = bodyBytes;
+        this.method = head.getMethod();
+        this.httpVersion = head.getHttpVersion();
+    }
 
-        this.headers = new HashMap<>();
-        this.query = new HashMap<>();
+    /**
+     * Constructor for FormattedRequest whose body is read on demand.
+     *
+     * @param head       The parsed request line and headers.
+     * @param bodyStream The request body, already decoded from any transfer encoding, or null if there is none.
+     */
+    public FormattedRequest(RequestHead head, InputStream bodyStream) {
+        this(head, (byte[]) null);
+        this.bodyStream = bodyStream;
+    }
+
+    private void parseTarget() {
+        if (path != null) return;
+        if (head != null) target = head.getTarget();
+        if (target == null) return;
 
-        int queryIndex = fullPath.indexOf('?');
+        int queryIndex = target.indexOf('?');
         if (queryIndex != -1) {
-            String[] pathAndQuery = fullPath.split("\\?", 2);
-            this.path = pathAndQuery[0];
-            String[] queryParams = pathAndQuery[1].split("&");
-            for (String param : queryParams) {
-                String[] keyValue = param.split("=", 2);
-                query.put(keyValue[0], keyValue.length > 1 ? keyValue[1] : "");
-            }
+            this.path = target.substring(0, queryIndex);
+            this.queryStart = queryIndex + 1;
         } else {
-            this.path = fullPath;
+            this.path = target;
         }
 
         int pathParamIndex = path.indexOf(':');
         if (pathParamIndex != -1) {
             this.pathParameters = path.substring(pathParamIndex + 1);
             this.path = path.substring(0, pathParamIndex);
-        } else {
-            this.pathParameters = null;
         }
+    }
 
-        for (String header : inputHeaders) {
-            String[] parts = header.split(": ", 2);
-            if (parts.length == 2) {
-                headers.put(parts[0], parts[1]);
+    /**
+     * Index the query string as {@code keyStart, keyEnd, valueEnd} triples into the target.
+     * Nothing is decoded until a parameter is read.
+     */
+    private void parseQuery() {
+        if (queryIndex != null) return;
+        parseTarget();
+        int[] index = new int[0];
+        int count = 0;
+        if (queryStart != -1) {
+            index = new int[12];
+            int start = queryStart;
+            while (start <= target.length()) {
+                int end = target.indexOf('&', start);
+                if (end == -1) end = target.length();
+                if (end > start) {
+                    int equals = target.indexOf('=', start);
+                    if (equals == -1 || equals > end) equals = end;
+                    if (count * 3 == index.length) index = Arrays.copyOf(index, index.length * 2);
+                    index[count * 3] = start;
+                    index[count * 3 + 1] = equals;
+                    index[count * 3 + 2] = end;
+                    count++;
+                }
+                start = end + 1;
             }
         }
+        this.queryIndex = index;
+        this.queryCount = count;
+    }
+
+    private boolean queryKeyEquals(int parameter, String name) {
+        int start = queryIndex[parameter * 3], end = queryIndex[parameter * 3 + 1];
+        if (end - start == name.length() && target.regionMatches(start, name, 0, name.length())) return true;
+        for (int i = start; i < end; i++) {
+            char c = target.charAt(i);
+            if (c == '%' || c == '+') return queryKey(parameter).equals(name);
+        }
+        return false;
+    }
+
+    private String queryKey(int parameter) {
+        return PercentDecoder.decode(target.substring(queryIndex[parameter * 3], queryIndex[parameter * 3 + 1]), true);
+    }
+
+    private String queryValue(int parameter) {
+        int equals = queryIndex[parameter * 3 + 1], end = queryIndex[parameter * 3 + 2];
+        return equals == end ? "" : PercentDecoder.decode(target.substring(equals + 1, end), true);
     }
 
     /**
-     * Get the request body.
+     * Get the request body. A streamed body is read fully the first time this is called.
      *
-     * @return The request body.
+     * @return The request body, or null if the request has none.
+     * @throws UncheckedIOException If reading a streamed body fails, e.g. with {@link PayloadTooLargeException}.
      */
     public String getBody() {
+        bufferBody();
+        if (body == null && bodyBytes != null) body = new String(bodyBytes, StandardCharsets.UTF_8);
         return body;
     }
 
+    /**
+     * Get the request body as a stream, without holding it in memory. The stream can be read once;
+     * it is empty if the request has no body or the body was already read with {@link #getBody()}.
+     *
+     * @return The request body stream.
+     */
+    public InputStream getBodyStream() {
+        if (bodyStream != null) return bodyStream;
+        if (bodyBytes != null) return new ByteArrayInputStream(bodyBytes);
+        if (body != null) return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+        return InputStream.nullInputStream();
+    }
+
+    /**
+     * Read the body into memory now, if it is still being streamed from the connection, so the
+     * request stays usable after the server has moved on to the next request.
+     *
+     * @return The FormattedRequest instance.
+     */
+    public FormattedRequest bufferBody() {
+        if (body == null && bodyBytes == null && bodyStream != null) {
+            try (InputStream stream = bodyStream) {
+                bodyBytes = stream.readAllBytes();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                bodyStream = null;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Get the head the request was parsed from, for reading its bytes without creating strings.
+     *
+     * @return The head, or null if the request was built from header lines.
+     */
+    public RequestHead getRequestHead() {
+        return head;
+    }
+
+    /**
+     * Get the size of the request head as received.
+     *
+     * @return The head length in bytes, or 0 if the request was not parsed from bytes.
+     */
+    public int getHeadLength() {
+        return head != null ? head.length() : 0;
+    }
+
+    /**
+     * Get the declared length of the body.
+     *
+     * @return The Content-Length of the request, or -1 if it is unknown, e.g. for chunked bodies.
+     */
+    public long getContentLength() {
+        if (head != null) return head.getContentLength();
+        if (bodyBytes != null) return bodyBytes.length;
+        return body != null ? body.getBytes(StandardCharsets.UTF_8).length : -1;
+    }
+
     /**
      * Get the request method.
      *
@@ -87,6 +229,7 @@ public class FormattedRequest {
      * @return The request path.
      */
     public String getPath() {
+        parseTarget();
         return path;
     }
 
@@ -96,18 +239,85 @@ public class FormattedRequest {
      * @return The path parameters.
      */
     public String getPathParameters() {
+        parseTarget();
         return pathParameters;
     }
 
     /**
-     * Get the request query parameters.
+     * Get the parameters captured by the templated route the request matched,
+     * e.g. {@code id} for {@code /users/{id}}.
+     *
+     * @return The path parameters; empty if the request matched no template.
+     */
+    public PathParameters getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Get a parameter captured by the templated route the request matched.
+     *
+     * @param name The parameter name.
+     * @return The decoded value, or null if the route has no such parameter.
+     */
+    public String getParameter(String name) {
+        return parameters.get(name);
+    }
+
+    /**
+     * Set the parameters captured by the templated route the request matched. Called by the server.
+     *
+     * @param parameters The path parameters.
+     * @return The FormattedRequest instance.
+     */
+    public FormattedRequest parameters(PathParameters parameters) {
+        this.parameters = parameters;
+        return this;
+    }
+
+    /**
+     * Get the request query parameters, decoded. When a key is repeated, the map holds its first value;
+     * use {@link #getQueryParameters(String)} to read them all.
      *
      * @return The request query parameters.
      */
     public HashMap<String, String> getQuery() {
+        if (query == null) {
+            parseQuery();
+            query = new HashMap<>();
+            for (int i = 0; i < queryCount; i++) query.putIfAbsent(queryKey(i), queryValue(i));
+        }
         return query;
     }
 
+    /**
+     * Get a query parameter, decoded.
+     *
+     * @param name The parameter name.
+     * @return The first value of the parameter, empty if it has none, or null if it is absent.
+     */
+    public String getQueryParameter(String name) {
+        parseQuery();
+        for (int i = 0; i < queryCount; i++) {
+            if (queryKeyEquals(i, name)) return queryValue(i);
+        }
+        return null;
+    }
+
+    /**
+     * Get every value of a repeated query parameter, e.g. {@code ?tag=a&tag=b}, decoded.
+     *
+     * @param name The parameter name.
+     * @return The values in the order sent; empty if the parameter is absent.
+     */
+    public List<String> getQueryParameters(String name) {
+        parseQuery();
+        List<String> values = new ArrayList<>(1);
+        for (int i = 0; i < queryCount; i++) {
+            if (queryKeyEquals(i, name)) values.add(queryValue(i));
+        }
+        return values;
+    }
+
     /**
      * Get the HTTP version.
      *
@@ -118,11 +328,44 @@ public class FormattedRequest {
     }
 
     /**
-     * Get the request headers.
+     * Get the request headers as a HashMap keyed by the names as received, where a repeated header
+     * holds its last value. The map is copied from the request on first use; prefer {@link #getHeaderMap()}
+     * or {@link #getHeader(String)}, which match names ignoring case and copy nothing.
      *
      * @return A HashMap representing the request headers, where keys are header names and values are header values.
      */
     public HashMap<String, String> getHeaders() {
+        if (headerCopy == null) {
+            Headers headers = getHeaderMap();
+            if (headers == null) return null;
+            headerCopy = new HashMap<>();
+            for (String name : headers.keySet()) {
+                List<String> values = headers.getAll(name);
+                headerCopy.put(name, values.get(values.size() - 1));
+            }
+        }
+        return headerCopy;
+    }
+
+    /**
+     * Get the request headers. Names are matched ignoring case, so {@code getHeaderMap().get("content-length")}
+     * finds {@code Content-Length}.
+     *
+     * @return The request headers, or null if the request could not be parsed.
+     */
+    public Headers getHeaderMap() {
+        if (headers == null && head != null) headers = new Headers(head);
         return headers;
     }
+
+    /**
+     * Get a header value by name, ignoring case.
+     *
+     * @param name The header name.
+     * @return The header value, or null if the header is absent.
+     */
+    public String getHeader(String name) {
+        if (head != null) return head.getHeader(name);
+        return headers == null ? null : headers.get(name);
+    }
 }
@@ -1,5 +1,6 @@
 package cat.ella.aweb.api;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
@@ -14,6 +15,7 @@ public class FormattedResponse {
     private String statusMessage = "OK";
     private String contentType;
     private byte[] contentBytes;
+    private long contentLength = -1;
     private Map<String, String> customHeaders = new HashMap<>();
 
     /**
@@ -96,32 +98,75 @@ public class FormattedResponse {
     }
 
     /**
-     * Build the formatted response.
+     * Declare the body length for a response whose body is sent separately, e.g. a file
+     * written with {@link #buildHead()}. Ignored when content is set.
      *
-     * @return The formatted response as bytes.
+     * @param contentLength The body length in bytes.
+     * @return The FormattedResponse instance.
      */
-    public byte[] build() {
+    public FormattedResponse contentLength(long contentLength) {
+        this.contentLength = contentLength;
+        return this;
+    }
+
+    /**
+     * Build only the status line and headers, ending with the blank line.
+     *
+     * @return The response head as bytes.
+     */
+    public byte[] buildHead() {
         StringBuilder responseBuilder = new StringBuilder();
-        responseBuilder.append(httpVersion).append(" ").append(statusCode).append(" ").append(statusMessage).append("\r\n")
-                .append("Content-Type: ").append(contentType).append("\r\n");
+        responseBuilder.append(httpVersion).append(" ").append(statusCode).append(" ").append(statusMessage).append("\r\n");
+        if (contentType != null) responseBuilder.append("Content-Type: ").append(contentType).append("\r\n");
 
         // Append custom headers
         for (Map.Entry<String, String> entry : customHeaders.entrySet()) {
             responseBuilder.append(entry.getKey()).append(": ").append(entry.getValue()).append("\r\n");
         }
 
-        if (contentBytes != null) {
-            responseBuilder.append("Content-Length: ").append(contentBytes.length).append("\r\n\r\n");
-            byte[] headerBytes = responseBuilder.toString().getBytes(StandardCharsets.UTF_8);
+        // 1xx, 204 and 304 responses never have a body and must not declare one (RFC 9110 section 8.6).
+        if (!isBodiless(statusCode)) {
+            long length = contentBytes != null ? contentBytes.length : Math.max(0, contentLength);
+            responseBuilder.append("Content-Length: ").append(length).append("\r\n");
+        }
+        return responseBuilder.append("\r\n").toString().getBytes(StandardCharsets.UTF_8);
+    }
 
-            byte[] responseBytes = new byte[headerBytes.length + contentBytes.length];
-            System.arraycopy(headerBytes, 0, responseBytes, 0, headerBytes.length);
-            System.arraycopy(contentBytes, 0, responseBytes, headerBytes.length, contentBytes.length);
+    /**
+     * @param statusCode A response status code.
+     * @return Whether responses with this status never carry a body: 1xx, 204 and 304.
+     */
+    public static boolean isBodiless(int statusCode) {
+        return statusCode == 204 || statusCode == 304 || (statusCode >= 100 && statusCode < 200);
+    }
 
-            return responseBytes;
-        } else {
-            return responseBuilder.append("\r\n").toString().getBytes(StandardCharsets.UTF_8);
-        }
+    /**
+     * Write this response to a streaming response, with its length declared so it is sent unchunked.
+     *
+     * @param response The stream to write to. It is not closed.
+     * @throws IOException If writing fails.
+     */
+    public void writeTo(ResponseStream response) throws IOException {
+        response.statusCode(statusCode).statusMessage(statusMessage);
+        if (contentType != null) response.contentType(contentType);
+        for (Map.Entry<String, String> entry : customHeaders.entrySet()) response.addHeader(entry.getKey(), entry.getValue());
+        byte[] body = contentBytes != null ? contentBytes : new byte[0];
+        response.contentLength(body.length);
+        response.write(body);
     }
-}
 
+    /**
+     * Build the formatted response. The content of a 1xx, 204 or 304 response is not sent.
+     *
+     * @return The formatted response as bytes.
+     */
+    public byte[] build() {
+        byte[] headerBytes = buildHead();
+        if (contentBytes == null || contentBytes.length == 0 || isBodiless(statusCode)) return headerBytes;
+
+        byte[] responseBytes = new byte[headerBytes.length + contentBytes.length];
+        System.arraycopy(headerBytes, 0, responseBytes, 0, headerBytes.length);
+        System.arraycopy(contentBytes, 0, responseBytes, headerBytes.length, contentBytes.length);
+        return responseBytes;
+    }
+}
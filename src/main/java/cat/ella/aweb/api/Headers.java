@@ -0,0 +1,100 @@
+package cat.ella.aweb.api;
+
+import java.util.*;
+
+/**
+ * The headers of a request as a read-only map whose keys are compared ignoring case, so
+ * {@code get("content-length")} finds {@code Content-Length}. Lookups read the received bytes
+ * directly; the entry set is only built when iterated. When a header is repeated, the map holds
+ * its first value and {@link #getAll(String)} returns every value.
+ */
+public final class Headers extends AbstractMap<String, String> {
+    private final RequestHead head;
+    private final String[] names;
+    private final String[] values;
+    private Set<Entry<String, String>> entries;
+
+    Headers(RequestHead head) {
+        this.head = head;
+        this.names = null;
+        this.values = null;
+    }
+
+    /**
+     * @param lines Header lines of the form {@code Name: value}; other lines are skipped.
+     */
+    Headers(List<String> lines) {
+        List<String> names = new ArrayList<>(lines.size());
+        List<String> values = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            String[] parts = line.split(": ", 2);
+            if (parts.length != 2) continue;
+            names.add(parts[0]);
+            values.add(parts[1]);
+        }
+        this.head = null;
+        this.names = names.toArray(new String[0]);
+        this.values = values.toArray(new String[0]);
+    }
+
+    private int count() {
+        return head != null ? head.getHeaderCount() : names.length;
+    }
+
+    private String name(int index) {
+        return head != null ? head.getHeaderName(index) : names[index];
+    }
+
+    private String value(int index) {
+        return head != null ? head.getHeaderValue(index) : values[index];
+    }
+
+    private int indexOf(String name, int from) {
+        if (head != null) return head.indexOf(name, from);
+        for (int i = from; i < names.length; i++) {
+            if (names[i].equalsIgnoreCase(name)) return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public String get(Object name) {
+        if (!(name instanceof String)) return null;
+        int index = indexOf((String) name, 0);
+        return index == -1 ? null : value(index);
+    }
+
+    @Override
+    public boolean containsKey(Object name) {
+        return name instanceof String && indexOf((String) name, 0) != -1;
+    }
+
+    /**
+     * Get every value of a header that may be repeated, such as {@code Cookie} or {@code Accept}.
+     *
+     * @param name The header name, in any case.
+     * @return The values in the order received; empty if the header is absent.
+     */
+    public List<String> getAll(String name) {
+        int index = indexOf(name, 0);
+        if (index == -1) return Collections.emptyList();
+        int next = indexOf(name, index + 1);
+        if (next == -1) return Collections.singletonList(value(index));
+        List<String> all = new ArrayList<>();
+        for (; index != -1; index = indexOf(name, index + 1)) all.add(value(index));
+        return Collections.unmodifiableList(all);
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        if (entries == null) {
+            Set<Entry<String, String>> built = new LinkedHashSet<>();
+            for (int i = 0; i < count(); i++) {
+                String name = name(i);
+                if (indexOf(name, 0) == i) built.add(new SimpleImmutableEntry<>(name, value(i)));
+            }
+            entries = Collections.unmodifiableSet(built);
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,41 @@
+package cat.ella.aweb.api;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+/**
+ * Formatting and parsing of HTTP dates, as used by Last-Modified and If-Modified-Since.
+ */
+final class HttpDates {
+    /**
+     * {@link DateTimeFormatter#RFC_1123_DATE_TIME} would do for parsing, but it writes single-digit days without the zero.
+     */
+    private static final DateTimeFormatter IMF_FIXDATE = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.ROOT);
+
+    private HttpDates() {
+    }
+
+    /**
+     * @param epochSeconds Seconds since the epoch.
+     * @return The date in IMF-fixdate form, e.g. {@code Sun, 06 Nov 1994 08:49:37 GMT}.
+     */
+    static String format(long epochSeconds) {
+        return IMF_FIXDATE.format(ZonedDateTime.ofInstant(Instant.ofEpochSecond(epochSeconds), ZoneOffset.UTC));
+    }
+
+    /**
+     * @param date An HTTP date.
+     * @return Seconds since the epoch, or -1 if the date cannot be parsed.
+     */
+    static long parse(String date) {
+        try {
+            return ZonedDateTime.parse(date.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package cat.ella.aweb.api;
+
+import java.net.URLConnection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Content types by file extension, resolved once when a {@link PublicFile} is registered.
+ */
+final class MimeTypes {
+    private static final String DEFAULT = "application/octet-stream";
+    private static final Map<String, String> TYPES = new HashMap<>();
+
+    static {
+        TYPES.put("html", "text/html");
+        TYPES.put("htm", "text/html");
+        TYPES.put("css", "text/css");
+        TYPES.put("js", "text/javascript");
+        TYPES.put("mjs", "text/javascript");
+        TYPES.put("json", "application/json");
+        TYPES.put("map", "application/json");
+        TYPES.put("txt", "text/plain");
+        TYPES.put("csv", "text/csv");
+        TYPES.put("xml", "application/xml");
+        TYPES.put("svg", "image/svg+xml");
+        TYPES.put("png", "image/png");
+        TYPES.put("jpg", "image/jpeg");
+        TYPES.put("jpeg", "image/jpeg");
+        TYPES.put("gif", "image/gif");
+        TYPES.put("webp", "image/webp");
+        TYPES.put("avif", "image/avif");
+        TYPES.put("ico", "image/x-icon");
+        TYPES.put("woff", "font/woff");
+        TYPES.put("woff2", "font/woff2");
+        TYPES.put("ttf", "font/ttf");
+        TYPES.put("otf", "font/otf");
+        TYPES.put("wasm", "application/wasm");
+        TYPES.put("pdf", "application/pdf");
+        TYPES.put("zip", "application/zip");
+        TYPES.put("mp3", "audio/mpeg");
+        TYPES.put("ogg", "audio/ogg");
+        TYPES.put("wav", "audio/wav");
+        TYPES.put("mp4", "video/mp4");
+        TYPES.put("webm", "video/webm");
+    }
+
+    private MimeTypes() {
+    }
+
+    /**
+     * Get the content type for a file name.
+     *
+     * @param name The file name or path.
+     * @return The content type, or {@code application/octet-stream} if it is unknown.
+     */
+    static String of(String name) {
+        int dot = name.lastIndexOf('.');
+        String type = dot == -1 ? null : TYPES.get(name.substring(dot + 1).toLowerCase());
+        if (type == null) type = URLConnection.guessContentTypeFromName(name);
+        return type != null ? type : DEFAULT;
+    }
+}
@@ -0,0 +1,128 @@
+package cat.ella.aweb.api;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * The parameters captured from a templated route such as {@code /users/{id}/orders/{orderId}}.
+ * The names are shared by every request matching the route and the values are the segments
+ * matched, so reading a parameter allocates nothing. The tail of a path matched by a route
+ * ending in {@code /*} is available as the parameter {@code *}.
+ *
+ * <p>The map is read-only.</p>
+ */
+public final class PathParameters extends AbstractMap<String, String> {
+    /**
+     * The parameters of a request that matched no template.
+     */
+    public static final PathParameters EMPTY = new PathParameters(new String[0], new String[0]);
+
+    private final String[] names;
+    private final String[] values;
+
+    /**
+     * Create the parameters of a matched request. Percent-escapes in the values are decoded.
+     *
+     * @param names  The parameter names, in the order they appear in the template.
+     * @param values The matched segments; only the first {@code names.length} are used.
+     */
+    public PathParameters(String[] names, String[] values) {
+        if (values.length < names.length) throw new IllegalArgumentException("Expected " + names.length + " values, got " + values.length);
+        this.names = names;
+        this.values = values;
+        for (int i = 0; i < names.length; i++) {
+            if (values[i].indexOf('%') != -1) values[i] = PercentDecoder.decode(values[i], false);
+        }
+    }
+
+    @Override
+    public String get(Object name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) return values[i];
+        }
+        return null;
+    }
+
+    @Override
+    public boolean containsKey(Object name) {
+        return get(name) != null;
+    }
+
+    @Override
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * Get a parameter as an int.
+     *
+     * @param name The parameter name.
+     * @return The value.
+     * @throws NumberFormatException If the parameter is absent or not an int.
+     */
+    public int getInt(String name) {
+        return Integer.parseInt(require(name));
+    }
+
+    /**
+     * Get a parameter as a long.
+     *
+     * @param name The parameter name.
+     * @return The value.
+     * @throws NumberFormatException If the parameter is absent or not a long.
+     */
+    public long getLong(String name) {
+        return Long.parseLong(require(name));
+    }
+
+    /**
+     * Get a parameter as a UUID.
+     *
+     * @param name The parameter name.
+     * @return The value.
+     * @throws IllegalArgumentException If the parameter is absent or not a UUID.
+     */
+    public UUID getUUID(String name) {
+        return UUID.fromString(require(name));
+    }
+
+    private String require(String name) {
+        String value = get(name);
+        if (value == null) throw new NumberFormatException("No path parameter " + name);
+        return value;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<Entry<String, String>>() {
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                return new Iterator<Entry<String, String>>() {
+                    private int index;
+
+                    @Override
+                    public boolean hasNext() {
+                        return index < names.length;
+                    }
+
+                    @Override
+                    public Entry<String, String> next() {
+                        if (index >= names.length) throw new NoSuchElementException();
+                        Entry<String, String> entry = new SimpleImmutableEntry<>(names[index], values[index]);
+                        index++;
+                        return entry;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return names.length;
+            }
+        };
+    }
+}
@@ -0,0 +1,14 @@
+package cat.ella.aweb.api;
+
+import java.io.IOException;
+
+/**
+ * Thrown while reading a request body that grows past the server's maximum body size.
+ * The server answers such requests with 413 if the handler has not responded.
+ */
+public class PayloadTooLargeException extends IOException {
+
+    public PayloadTooLargeException(long maxBodySize) {
+        super("Request body larger than " + maxBodySize + " bytes");
+    }
+}
@@ -0,0 +1,50 @@
+package cat.ella.aweb.api;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decoding of percent-encoded path segments and query strings.
+ */
+final class PercentDecoder {
+    private PercentDecoder() {
+    }
+
+    /**
+     * Decode percent-escapes as UTF-8. Malformed escapes are kept as they are.
+     *
+     * @param value       The encoded text.
+     * @param plusAsSpace Whether {@code +} stands for a space, as in query strings.
+     * @return The decoded text, or the same string if nothing was encoded.
+     */
+    static String decode(String value, boolean plusAsSpace) {
+        int i = 0;
+        while (i < value.length() && !(value.charAt(i) == '%' && hex(value, i) != -1) && !(plusAsSpace && value.charAt(i) == '+')) i++;
+        if (i == value.length()) return value;
+
+        StringBuilder decoded = new StringBuilder(value.length()).append(value, 0, i);
+        byte[] escapes = new byte[(value.length() - i) / 3];
+        while (i < value.length()) {
+            char c = value.charAt(i);
+            if (c == '%' && hex(value, i) != -1) {
+                // Consecutive escapes may encode one multi-byte character, so decode them together.
+                int count = 0;
+                while (i < value.length() && value.charAt(i) == '%' && hex(value, i) != -1) {
+                    escapes[count++] = (byte) hex(value, i);
+                    i += 3;
+                }
+                decoded.append(new String(escapes, 0, count, StandardCharsets.UTF_8));
+            } else {
+                decoded.append(plusAsSpace && c == '+' ? ' ' : c);
+                i++;
+            }
+        }
+        return decoded.toString();
+    }
+
+    private static int hex(String value, int percent) {
+        if (percent + 2 >= value.length()) return -1;
+        int high = Character.digit(value.charAt(percent + 1), 16);
+        int low = Character.digit(value.charAt(percent + 2), 16);
+        return high == -1 || low == -1 ? -1 : high << 4 | low;
+    }
+}
@@ -2,27 +2,120 @@ package cat.ella.aweb.api;
 
 import java.io.*;
 import java.net.URISyntaxException;
+import java.net.JarURLConnection;
 import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import java.util.stream.Stream;
 
 public class PublicFile {
 
-    private final Map<String, byte[]> pathAndData = new HashMap<>();
+    /**
+     * Replaced as a whole, never modified, once the constructor returns, so readers need no locking.
+     */
+    private volatile Map<String, Entry> pathAndData = new HashMap<>();
+    private final ContentCache cache;
+    private final List<Runnable> changeListeners = new CopyOnWriteArrayList<>();
+    private final Class<?> callingClass;
+    private final String localPath;
+    private final String publicPath;
+    private final int pathType;
+    private final int publicDepth;
+    private String cacheControl;
+    private boolean compress;
+    private DirectoryWatcher watcher;
+
+    /**
+     * Files smaller than this are not compressed; the gzip framing would eat most of the gain.
+     */
+    static final int MIN_COMPRESS_SIZE = 256;
+
+    /**
+     * Directories with at least this many files are loaded on the common fork-join pool.
+     */
+    static final int PARALLEL_LOAD_THRESHOLD = 32;
+
+    /**
+     * @return The content cache of a lazy PublicFile, for its hit, miss and eviction counts, or null if it is not lazy.
+     */
+    public ContentCache getCache() {
+        return cache;
+    }
+
+    /**
+     * @return The public path the files are served under, ending with a slash.
+     */
+    public String getPublicPath() {
+        return publicPath;
+    }
 
     public Collection<String> getPaths() {
         return pathAndData.keySet();
     }
 
+    /**
+     * Get the contents of a public path. External files are read from disk on every call;
+     * prefer {@link #getEntry(String)} when serving them.
+     *
+     * @param path The public path.
+     * @return The file contents, or null if the path is not part of this PublicFile.
+     */
     public byte[] getData(String path) {
+        Entry entry = pathAndData.get(path);
+        return entry != null ? entry.getBytes() : null;
+    }
+
+    /**
+     * Get the entry serving a public path.
+     *
+     * @param path The public path.
+     * @return The entry, or null if the path is not part of this PublicFile.
+     */
+    public Entry getEntry(String path) {
         return pathAndData.get(path);
     }
 
+    /**
+     * Set the Cache-Control header sent with every file of this PublicFile, e.g.
+     * {@code "public, max-age=3600"}. No Cache-Control header is sent by default.
+     *
+     * @param cacheControl The header value, or null to send none.
+     * @return The PublicFile instance.
+     */
+    public synchronized PublicFile cacheControl(String cacheControl) {
+        this.cacheControl = cacheControl;
+        for (Entry entry : pathAndData.values()) entry.cacheControl(cacheControl);
+        return this;
+    }
+
+    /**
+     * Compress every file with a text-like content type with gzip once, now, and serve the
+     * compressed copy to clients that accept it. Copies that would not be meaningfully smaller
+     * are dropped. Lazy PublicFiles are not compressed, as that would load every file.
+     * {@code .gz} and {@code .br} files found next to a file are used as its encoded variants
+     * whether or not this is enabled.
+     *
+     * @param compress Whether to compress.
+     * @return The PublicFile instance.
+     */
+    public synchronized PublicFile compress(boolean compress) {
+        this.compress = compress;
+        if (compress) pathAndData.values().forEach(Entry::compress);
+        return this;
+    }
+
     /**
      * Handles directory inclusion based on specified parameters.
      *
@@ -36,22 +129,49 @@ public class PublicFile {
      *                    1 - All items within the directory, including subdirectories
      */
     public PublicFile(Class<?> callingClass, String localPath, String publicPath, int pathType, int publicDepth) {
+        this(callingClass, localPath, publicPath, pathType, publicDepth, 0);
+    }
+
+    /**
+     * Handles directory inclusion like {@link #PublicFile(Class, String, String, int, int)}, but
+     * lazily when {@code cacheBytes} is positive: only the path index and file metadata are read
+     * now, and contents are loaded on first request into a least-recently-used cache holding at
+     * most {@code cacheBytes}. Files too large for the cache are streamed from disk, or from the jar
+     * they are packaged in, on every request.
+     *
+     * @param cacheBytes The cache bound in bytes, or 0 to load every file now.
+     */
+    public PublicFile(Class<?> callingClass, String localPath, String publicPath, int pathType, int publicDepth, long cacheBytes) {
+        this.cache = cacheBytes > 0 ? new ContentCache(cacheBytes) : null;
         callingClass = callingClass == null ? this.getClass() : callingClass;
         localPath = !localPath.contains(".") && (localPath.endsWith("/") || localPath.endsWith("\\")) ? localPath : localPath + "/";
         publicPath = publicPath.endsWith("/") ? publicPath : publicPath + "/";
+        this.callingClass = callingClass;
+        this.localPath = localPath;
+        this.publicPath = publicPath;
+        this.pathType = pathType;
+        this.publicDepth = publicDepth;
 
-        Collection<String> paths = captureFilePaths(callingClass, localPath, pathType);
-        handleCapturedFiles(callingClass, paths, localPath, publicPath, pathType, publicDepth);
+        File jarFile = pathType == 0 ? new File(callingClass.getProtectionDomain().getCodeSource().getLocation().getPath()) : null;
+        if (jarFile != null && jarFile.isFile()) { // Running from JAR: open it once for the index and every read
+            try (JarFile jar = new JarFile(jarFile)) {
+                Collection<String> paths = captureFilePaths(callingClass, jar, localPath, pathType);
+                handleCapturedFiles(callingClass, jar, paths, localPath, publicPath, pathType, publicDepth, pathAndData);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else {
+            Collection<String> paths = captureFilePaths(callingClass, null, localPath, pathType);
+            handleCapturedFiles(callingClass, null, paths, localPath, publicPath, pathType, publicDepth, pathAndData);
+        }
     }
 
-    private Collection<String> captureFilePaths(Class<?> callingClass, String localPath, int pathType) {
+    private Collection<String> captureFilePaths(Class<?> callingClass, JarFile jar, String localPath, int pathType) {
         Set<String> paths = new HashSet<>();
         try {
             switch (pathType) {
                 case 0:
-                    final File jarFile = new File(callingClass.getProtectionDomain().getCodeSource().getLocation().getPath());
-                    if (jarFile.isFile()) { // Running from JAR
-                        JarFile jar = new JarFile(jarFile);
+                    if (jar != null) {
                         Enumeration<JarEntry> entries = jar.entries();
                         while (entries.hasMoreElements()) {
                             JarEntry entry = entries.nextElement();
@@ -63,7 +183,7 @@ public class PublicFile {
                         if (inputStream != null) {
                             try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
                                 reader.lines().forEach(p -> paths.addAll(p.contains(".") ?
-                                        List.of(localPath + p) : captureFilePaths(callingClass, localPath + p + "/", 0)));
+                                        List.of(localPath + p) : captureFilePaths(callingClass, null, localPath + p + "/", 0)));
                             }
                         }
                     }
@@ -72,10 +192,7 @@ public class PublicFile {
                     Files.walk(Paths.get(localPath))
                             .filter(Files::isRegularFile)
                             .map(Path::toString)
-                            .forEach(path -> {
-                                String formattedP = path.replaceAll("^.*" + localPath, localPath + path);
-                                paths.add(formattedP);
-                            });
+                            .forEach(paths::add);
                     break;
             }
         } catch (Exception e) {
@@ -84,22 +201,173 @@ public class PublicFile {
         return paths;
     }
 
-    private void handleCapturedFiles(Class<?> callingClass, Collection<String> paths, String localPath, String publicPath, int pathType, int publicDepth) {
+    private void handleCapturedFiles(Class<?> callingClass, JarFile jar, Collection<String> paths, String localPath, String publicPath, int pathType, int publicDepth,
+                                     Map<String, Entry> pathAndData) {
+        Map<String, String> files = new HashMap<>();
+        Map<String, String> siblings = new HashMap<>();
         for (String path : paths) {
-            String formattedP = path.replaceAll("^.*" + localPath, publicPath);
-            formattedP = formattedP.startsWith("/") ? formattedP.replaceFirst("^/", "") : formattedP;
-            if (publicDepth == 0 && (formattedP.contains("/") || formattedP.contains("\\"))) continue;
-            if (formattedP.endsWith("/") || formattedP.endsWith("\\")) continue;
-
-            if (pathType == 0) pathAndData.putIfAbsent(publicPath + formattedP, getFileBytes(callingClass, path));
-            else {
-                try {
-                    pathAndData.putIfAbsent(publicPath + formattedP, Files.readAllBytes(new File(path).toPath()));
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
+            String key = publicKey(path, localPath, publicPath, publicDepth);
+            if (key == null) continue;
+
+            // Precompressed siblings are served as variants of the file they sit next to.
+            String coding = siblingCoding(path);
+            if (coding != null && paths.contains(path.substring(0, path.lastIndexOf('.')))) {
+                siblings.put(path, key.substring(0, key.lastIndexOf('.')));
+                continue;
+            }
+
+            files.put(path, key);
+        }
+
+        // Reading and hashing entries is independent per file, so larger sets load in parallel.
+        Map<String, Entry> loaded = new ConcurrentHashMap<>();
+        stream(files.entrySet()).forEach(file -> {
+            Entry entry = newEntry(callingClass, jar, file.getKey(), MimeTypes.of(file.getValue()), null, pathType);
+            if (entry != null) loaded.put(file.getKey(), entry);
+        });
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            Entry entry = loaded.get(file.getKey());
+            if (entry != null) pathAndData.putIfAbsent(file.getValue(), entry);
+        }
+
+        Map<String, Entry> variants = new ConcurrentHashMap<>();
+        stream(siblings.entrySet()).forEach(sibling -> {
+            Entry base = pathAndData.get(sibling.getValue());
+            if (base == null) return;
+            Entry variant = newEntry(callingClass, jar, sibling.getKey(), base.getContentType(), siblingCoding(sibling.getKey()), pathType);
+            if (variant != null) variants.put(sibling.getKey(), variant);
+        });
+        variants.forEach((path, variant) -> pathAndData.get(siblings.get(path)).addVariant(variant));
+    }
+
+    /**
+     * Get the public path a captured file is served at.
+     *
+     * @return The public path, or null if the file is excluded by {@code publicDepth}.
+     */
+    private static String publicKey(String path, String localPath, String publicPath, int publicDepth) {
+        String formattedP = path.replaceAll("^.*" + localPath, "");
+        formattedP = formattedP.startsWith("/") ? formattedP.replaceFirst("^/", "") : formattedP;
+        if (publicDepth == 0 && (formattedP.contains("/") || formattedP.contains("\\"))) return null;
+        if (formattedP.endsWith("/") || formattedP.endsWith("\\")) return null;
+        return publicPath + formattedP;
+    }
+
+    private static <T> Stream<T> stream(Collection<T> items) {
+        return items.size() >= PARALLEL_LOAD_THRESHOLD ? items.parallelStream() : items.stream();
+    }
+
+    private Entry newEntry(Class<?> callingClass, JarFile jar, String path, String contentType, String coding, int pathType) {
+        if (pathType == 1) return new Entry(contentType, coding, null, Paths.get(path), null, cache, cacheControl);
+        if (cache == null) {
+            byte[] bytes = jar != null ? readEntry(jar, path) : getFileBytes(callingClass, path);
+            return bytes != null ? new Entry(contentType, coding, bytes, null, null, null, cacheControl) : null;
+        }
+
+        URL url = callingClass.getProtectionDomain().getClassLoader().getResource(path);
+        if (url == null) return null;
+        try {
+            if (url.getProtocol().equals("file")) return new Entry(contentType, coding, null, Paths.get(url.toURI()), null, cache, cacheControl);
+        } catch (URISyntaxException e) {
+            throw new RuntimeException(e);
+        }
+        return new Entry(contentType, coding, null, null, url, cache, cacheControl);
+    }
+
+    private static String siblingCoding(String path) {
+        if (path.endsWith(".gz")) return ContentEncoding.GZIP;
+        if (path.endsWith(".br")) return ContentEncoding.BROTLI;
+        return null;
+    }
+
+    /**
+     * Watch an external directory and keep this PublicFile in step with it. Created, modified and
+     * deleted files are reloaded individually; the path index is then replaced in one step, so
+     * requests in flight keep the entry they started with. Change listeners run after each swap.
+     *
+     * @return The PublicFile instance.
+     * @throws IllegalStateException If the files are internal.
+     */
+    public synchronized PublicFile watch() {
+        if (pathType != 1) throw new IllegalStateException("Only external directories can be watched: " + localPath);
+        if (watcher != null) return this;
+        try {
+            watcher = new DirectoryWatcher(Paths.get(localPath), publicDepth == 1, this::refresh);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+    /**
+     * Stop watching the directory, if {@link #watch()} was called.
+     */
+    public synchronized void stopWatching() {
+        if (watcher != null) watcher.stop();
+        watcher = null;
+    }
+
+    /**
+     * Register a callback run after the set of served paths may have changed, e.g. to recompile a route table.
+     *
+     * @param listener The callback, run on the watcher thread.
+     * @return The PublicFile instance.
+     */
+    public PublicFile addChangeListener(Runnable listener) {
+        changeListeners.add(listener);
+        return this;
+    }
+
+    private void refresh(Set<Path> changed) {
+        synchronized (this) {
+            Map<String, Entry> previous = pathAndData;
+            Map<String, Entry> updated;
+            if (changed.contains(Paths.get(localPath))) {
+                updated = new HashMap<>();
+                handleCapturedFiles(callingClass, null, captureFilePaths(callingClass, null, localPath, pathType), localPath, publicPath, pathType, publicDepth, updated);
+            } else {
+                updated = new HashMap<>(previous);
+                Set<String> bases = new HashSet<>();
+                for (Path path : changed) {
+                    String name = path.toString();
+                    bases.add(siblingCoding(name) != null ? name.substring(0, name.lastIndexOf('.')) : name);
                 }
+                for (String base : bases) refresh(base, updated);
+            }
+
+            for (Map.Entry<String, Entry> entry : updated.entrySet()) {
+                if (compress && previous.get(entry.getKey()) != entry.getValue()) entry.getValue().compress();
+            }
+            pathAndData = updated;
+            for (Map.Entry<String, Entry> entry : previous.entrySet()) {
+                if (updated.get(entry.getKey()) != entry.getValue()) entry.getValue().invalidate();
             }
         }
+        for (Runnable listener : changeListeners) listener.run();
+    }
+
+    /**
+     * Reload one file, together with its precompressed siblings, into a copy of the index.
+     */
+    private void refresh(String base, Map<String, Entry> updated) {
+        String key = publicKey(base, localPath, publicPath, publicDepth);
+        if (key == null) return;
+        Path basePath = Paths.get(base);
+        if (!Files.exists(basePath)) updated.keySet().removeIf(path -> path.startsWith(key + "/")); // A deleted directory
+        updated.remove(key);
+        try {
+            Entry entry = Files.isRegularFile(basePath) ? newEntry(callingClass, null, base, MimeTypes.of(key), null, pathType) : null;
+            if (entry != null) updated.put(key, entry);
+            for (String extension : new String[]{".gz", ".br"}) {
+                updated.remove(key + extension);
+                if (!Files.isRegularFile(Paths.get(base + extension))) continue;
+                if (entry != null) entry.addVariant(newEntry(callingClass, null, base + extension, entry.getContentType(), siblingCoding(extension), pathType));
+                else updated.put(key + extension, newEntry(callingClass, null, base + extension, MimeTypes.of(key + extension), null, pathType));
+            }
+        } catch (UncheckedIOException e) {
+            // Most likely removed or replaced while being read; a later event brings it back.
+            System.err.println("Error reloading " + base + ": " + e.getMessage());
+        }
     }
 
     public byte[] getFileBytes(Class<?> callingClass, String filePath) {
@@ -107,21 +375,7 @@ public class PublicFile {
         byte[] bytes = null;
         if (jarFile.isFile()) {
             try (JarFile jar = new JarFile(jarFile)) {
-                Enumeration<JarEntry> entries = jar.entries();
-                while (entries.hasMoreElements()) {
-                    JarEntry entry = entries.nextElement();
-                    String path = entry.getName();
-                    if (path.equals(filePath)) {
-                        File file = File.createTempFile("tempFile", "." + path.replaceAll("^.*\\.", ""));
-
-                        try (InputStream inputStream = jar.getInputStream(entry)) {
-                            Files.copy(inputStream, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
-                        }
-
-                        bytes = Files.readAllBytes(file.toPath());
-                        file.delete();
-                    }
-                }
+                bytes = readEntry(jar, filePath);
             } catch (IOException e) {
                 System.err.println("Error reading JAR file: " + e.getMessage());
             }
@@ -138,4 +392,346 @@ public class PublicFile {
         return bytes;
     }
 
+    /**
+     * Read one entry of an open jar straight from its stream.
+     *
+     * @return The entry's bytes, or null if it is missing or cannot be read.
+     */
+    private static byte[] readEntry(JarFile jar, String name) {
+        JarEntry entry = jar.getJarEntry(name);
+        if (entry == null) return null;
+        try (InputStream inputStream = jar.getInputStream(entry)) {
+            return inputStream.readAllBytes();
+        } catch (IOException e) {
+            System.err.println("Error reading JAR file: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * One served file: its content type, resolved at registration, and either its bytes in
+     * memory (internal files) or its location on disk (external files). The validators and
+     * the 200 and 304 response heads are computed once, when the entry is created.
+     *
+     * <p>Entries of a lazy PublicFile hold only the location of their contents, on disk or as a
+     * classpath resource, and load them through its {@link ContentCache}. Their entity tag is
+     * derived from the modification time and length instead of a hash of the contents.</p>
+     *
+     * <p>Variants and Cache-Control can change while requests are served from the entry, so the
+     * variant map and response heads are replaced as a whole rather than modified in place.</p>
+     */
+    public static final class Entry {
+        private final String contentType;
+        private final String contentEncoding;
+        private final byte[] data;
+        private final Path file;
+        private final URL resource;
+        private final ContentCache cache;
+        private final long length;
+        private final String etag;
+        private final long lastModified;
+        private volatile Map<String, Entry> variants = Map.of();
+        private volatile String cacheControl;
+        private volatile byte[] head;
+        private volatile byte[] notModifiedHead;
+
+        Entry(String contentType, String contentEncoding, byte[] data, Path file, URL resource, ContentCache cache, String cacheControl) {
+            this.contentType = contentType;
+            this.contentEncoding = contentEncoding;
+            this.data = data;
+            this.file = file;
+            this.resource = resource;
+            this.cache = cache;
+            try {
+                if (cache == null) {
+                    this.length = data != null ? data.length : Files.size(file);
+                    this.lastModified = (data != null ? System.currentTimeMillis() : Files.getLastModifiedTime(file).toMillis()) / 1000;
+                    this.etag = data != null ? etag(new ByteArrayInputStream(data)) : etag(Files.newInputStream(file));
+                } else {
+                    if (file != null) {
+                        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                        this.length = attributes.size();
+                        this.lastModified = attributes.lastModifiedTime().toMillis() / 1000;
+                    } else {
+                        URLConnection connection = resource.openConnection();
+                        long size = connection.getContentLengthLong();
+                        long time = connection instanceof JarURLConnection ? ((JarURLConnection) connection).getJarEntry().getTime() : connection.getLastModified();
+                        this.length = size >= 0 ? size : load().length;
+                        this.lastModified = (time > 0 ? time : System.currentTimeMillis()) / 1000;
+                    }
+                    this.etag = "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(length) + "\"";
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            cacheControl(cacheControl);
+        }
+
+        synchronized void cacheControl(String cacheControl) {
+            publish(variants, cacheControl);
+            for (Entry variant : variants.values()) variant.cacheControl(cacheControl);
+        }
+
+        /**
+         * Register an encoded copy of this entry, e.g. a {@code .gz} sibling or a copy compressed at load.
+         */
+        synchronized void addVariant(Entry variant) {
+            Map<String, Entry> updated = new HashMap<>(variants);
+            updated.put(variant.contentEncoding, variant);
+            publish(Map.copyOf(updated), cacheControl);
+        }
+
+        /**
+         * Build the response heads for a set of variants, then publish them, then the variants.
+         * A reader racing with this may see a head that varies when nothing does yet, never the reverse.
+         */
+        private void publish(Map<String, Entry> variants, String cacheControl) {
+            boolean vary = contentEncoding != null || !variants.isEmpty();
+            String lastModifiedHeader = HttpDates.format(lastModified);
+            FormattedResponse ok = new FormattedResponse().contentType(contentType).contentLength(length)
+                    .addHeader("ETag", etag).addHeader("Last-Modified", lastModifiedHeader).addHeader("Accept-Ranges", "bytes");
+            FormattedResponse notModified = new FormattedResponse().statusCode(304).statusMessage("Not Modified")
+                    .addHeader("ETag", etag).addHeader("Last-Modified", lastModifiedHeader);
+            if (contentEncoding != null) ok.addHeader("Content-Encoding", contentEncoding);
+            if (vary) {
+                ok.addHeader("Vary", "Accept-Encoding");
+                notModified.addHeader("Vary", "Accept-Encoding");
+            }
+            if (cacheControl != null) {
+                ok.addHeader("Cache-Control", cacheControl);
+                notModified.addHeader("Cache-Control", cacheControl);
+            }
+            this.head = ok.buildHead();
+            this.notModifiedHead = notModified.buildHead();
+            this.cacheControl = cacheControl;
+            this.variants = variants;
+        }
+
+        /**
+         * Start a 206 response for part of this entry, carrying the same validators, encoding and
+         * caching headers as the full response. The caller adds the content type, Content-Range and length.
+         *
+         * @return A new response.
+         */
+        public FormattedResponse partialResponse() {
+            FormattedResponse partial = new FormattedResponse().statusCode(206).statusMessage("Partial Content")
+                    .addHeader("ETag", etag).addHeader("Last-Modified", HttpDates.format(lastModified));
+            if (contentEncoding != null) partial.addHeader("Content-Encoding", contentEncoding);
+            if (contentEncoding != null || !variants.isEmpty()) partial.addHeader("Vary", "Accept-Encoding");
+            if (cacheControl != null) partial.addHeader("Cache-Control", cacheControl);
+            return partial;
+        }
+
+        /**
+         * Check an If-Range header: a range may only be served from the representation the client already has part of.
+         *
+         * @param ifRange The If-Range header, or null.
+         * @return Whether the Range header applies. Weak entity tags never match.
+         */
+        public boolean matchesIfRange(String ifRange) {
+            if (ifRange == null) return true;
+            ifRange = ifRange.trim();
+            if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) return ifRange.equals(etag);
+            return HttpDates.parse(ifRange) == lastModified;
+        }
+
+        /**
+         * Drop this entry's cached contents, and those of its variants.
+         */
+        void invalidate() {
+            if (cache != null) cache.invalidate(this);
+            for (Entry variant : variants.values()) variant.invalidate();
+        }
+
+        /**
+         * Compress this entry with gzip if its type is compressible and doing so saves at least a tenth of its size.
+         */
+        void compress() {
+            if (cache != null || contentEncoding != null || variants.containsKey(ContentEncoding.GZIP)) return;
+            if (length < MIN_COMPRESS_SIZE || length > Integer.MAX_VALUE || !ContentEncoding.isCompressible(contentType)) return;
+            byte[] bytes = getBytes();
+            byte[] gzipped = ContentEncoding.gzip(bytes, 0, bytes.length);
+            if (gzipped.length < bytes.length - bytes.length / 10) addVariant(new Entry(contentType, ContentEncoding.GZIP, gzipped, null, null, null, cacheControl));
+        }
+
+        /**
+         * Pick the representation to send for a request's Accept-Encoding header.
+         *
+         * @param acceptEncoding The Accept-Encoding header, or null.
+         * @return An encoded variant the client accepts, or this entry.
+         */
+        public Entry select(String acceptEncoding) {
+            Map<String, Entry> variants = this.variants;
+            if (variants.isEmpty()) return this;
+            String coding = ContentEncoding.negotiate(acceptEncoding, variants.keySet());
+            return coding != null ? variants.get(coding) : this;
+        }
+
+        /**
+         * @return The content coding of this representation, or null if it is not encoded.
+         */
+        public String getContentEncoding() {
+            return contentEncoding;
+        }
+
+        private static String etag(InputStream content) throws IOException {
+            try (InputStream in = content) {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) digest.update(buffer, 0, read);
+                StringBuilder tag = new StringBuilder("\"");
+                byte[] hash = digest.digest();
+                for (int i = 0; i < 16; i++) tag.append(Character.forDigit((hash[i] >> 4) & 0xF, 16)).append(Character.forDigit(hash[i] & 0xF, 16));
+                return tag.append('"').toString();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * @return Whether the entry is served from disk rather than from memory.
+         */
+        public boolean isFile() {
+            return file != null;
+        }
+
+        /**
+         * @return The file on disk, or null for in-memory entries.
+         */
+        public Path getFile() {
+            return file;
+        }
+
+        /**
+         * @return The content length recorded when the entry was created.
+         */
+        public long length() {
+            return length;
+        }
+
+        /**
+         * @return The strong entity tag, including its quotes.
+         */
+        public String getETag() {
+            return etag;
+        }
+
+        /**
+         * @return The last modification time, in seconds since the epoch.
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Get the prebuilt head of a 200 response, with Content-Type, Content-Length, validators and Cache-Control.
+         *
+         * @return The response head. Must not be modified.
+         */
+        public byte[] getHead() {
+            return head;
+        }
+
+        /**
+         * Get the prebuilt head of a 304 response for this entry.
+         *
+         * @return The response head. Must not be modified.
+         */
+        public byte[] getNotModifiedHead() {
+            return notModifiedHead;
+        }
+
+        /**
+         * Check the conditional request headers against this entry. If-None-Match takes
+         * precedence; If-Modified-Since is only considered when it is absent.
+         *
+         * @param ifNoneMatch     The If-None-Match header, or null.
+         * @param ifModifiedSince The If-Modified-Since header, or null.
+         * @return Whether the client's copy is current and a 304 can be sent.
+         */
+        public boolean isNotModified(String ifNoneMatch, String ifModifiedSince) {
+            if (ifNoneMatch != null) return matches(ifNoneMatch);
+            if (ifModifiedSince == null) return false;
+            long since = HttpDates.parse(ifModifiedSince);
+            return since != -1 && lastModified <= since;
+        }
+
+        private boolean matches(String ifNoneMatch) {
+            int start = 0;
+            while (start < ifNoneMatch.length()) {
+                int end = ifNoneMatch.indexOf(',', start);
+                if (end == -1) end = ifNoneMatch.length();
+                String candidate = ifNoneMatch.substring(start, end).trim();
+                if (candidate.startsWith("W/")) candidate = candidate.substring(2);
+                if (candidate.equals("*") || candidate.equals(etag)) return true;
+                start = end + 1;
+            }
+            return false;
+        }
+
+        /**
+         * Get the in-memory contents as a read-only view, without copying. Lazy entries are
+         * loaded through the cache.
+         *
+         * @return The contents, or null for entries to be streamed with {@link #getFile()} or {@link #openStream()}.
+         */
+        public ByteBuffer getBuffer() {
+            byte[] bytes = data;
+            if (bytes == null && cache != null && cache.accepts(length)) bytes = cache.get(this);
+            return bytes != null ? ByteBuffer.wrap(bytes).asReadOnlyBuffer() : null;
+        }
+
+        /**
+         * Get the contents, reading external files from disk.
+         *
+         * @return The file contents.
+         */
+        public byte[] getBytes() {
+            if (data != null) return data;
+            if (resource != null) return cache.accepts(length) ? cache.get(this) : load();
+            try {
+                return Files.readAllBytes(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Open the contents for reading, from their source rather than the cache, e.g. for a
+         * lazy classpath resource too large to cache.
+         *
+         * @return A new stream, to be closed by the caller.
+         * @throws IOException If the source cannot be opened.
+         */
+        public InputStream openStream() throws IOException {
+            if (data != null) return new ByteArrayInputStream(data);
+            return file != null ? Files.newInputStream(file) : resource.openStream();
+        }
+
+        /**
+         * Read a lazy entry's contents from its source.
+         *
+         * @return The contents, or null if a file on disk is gone or no longer has the length its head announces.
+         */
+        byte[] load() {
+            try {
+                if (file != null) {
+                    byte[] bytes = Files.readAllBytes(file);
+                    return bytes.length == length ? bytes : null;
+                }
+                try (InputStream in = resource.openStream()) {
+                    return in.readAllBytes();
+                }
+            } catch (NoSuchFileException e) {
+                return null;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
 }
@@ -0,0 +1,291 @@
+package cat.ella.aweb.api;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The request line and headers of one request, kept as the raw bytes received plus the
+ * offsets found by {@link RequestParser}. Strings are only created when a part is read.
+ */
+public final class RequestHead {
+    private static final String[] KNOWN_METHODS = {"GET", "POST", "PUT", "DELETE", "HEAD", "OPTIONS", "PATCH", "TRACE", "CONNECT"};
+    private static final String[] KNOWN_VERSIONS = {"HTTP/1.1", "HTTP/1.0"};
+    private static final String[] KNOWN_HEADERS = {"Host", "User-Agent", "Accept", "Accept-Encoding", "Accept-Language",
+            "Connection", "Content-Length", "Content-Type", "Transfer-Encoding", "Cookie", "Authorization", "Cache-Control",
+            "If-None-Match", "If-Modified-Since", "Range", "If-Range", "Origin", "Referer", "Expect", "Upgrade"};
+
+    private final byte[] bytes;
+    private final int methodEnd;
+    private final int targetStart;
+    private final int targetEnd;
+    private final int versionStart;
+    private final int versionEnd;
+    private final int[] headers;
+    private final int headerCount;
+
+    private String method;
+    private String target;
+    private String version;
+
+    RequestHead(byte[] bytes, int methodEnd, int targetStart, int targetEnd, int versionStart, int versionEnd, int[] headers, int headerCount) {
+        this.bytes = bytes;
+        this.methodEnd = methodEnd;
+        this.targetStart = targetStart;
+        this.targetEnd = targetEnd;
+        this.versionStart = versionStart;
+        this.versionEnd = versionEnd;
+        this.headers = headers;
+        this.headerCount = headerCount;
+    }
+
+    /**
+     * Get the request method. Common methods return shared constants.
+     *
+     * @return The request method.
+     */
+    public String getMethod() {
+        if (method == null) method = known(KNOWN_METHODS, 0, methodEnd);
+        return method;
+    }
+
+    /**
+     * Get the request target as sent, including any query string.
+     *
+     * @return The request target.
+     */
+    public String getTarget() {
+        if (target == null) target = new String(bytes, targetStart, targetEnd - targetStart, StandardCharsets.UTF_8);
+        return target;
+    }
+
+    /**
+     * Copy the request target as received, without creating a string.
+     *
+     * @param destination Where to copy it; a longer target is cut at the array's length.
+     * @return The number of bytes copied.
+     */
+    public int copyTarget(byte[] destination) {
+        int count = Math.min(targetEnd - targetStart, destination.length);
+        System.arraycopy(bytes, targetStart, destination, 0, count);
+        return count;
+    }
+
+    /**
+     * Get the HTTP version from the request line.
+     *
+     * @return The HTTP version.
+     */
+    public String getHttpVersion() {
+        if (version == null) version = known(KNOWN_VERSIONS, versionStart, versionEnd);
+        return version;
+    }
+
+    /**
+     * Get the number of header lines.
+     *
+     * @return The number of headers.
+     */
+    public int getHeaderCount() {
+        return headerCount;
+    }
+
+    /**
+     * Get the name of a header. Common headers return shared constants in their canonical case,
+     * others the name as sent.
+     *
+     * @param index The header index, from 0 to {@link #getHeaderCount()} - 1.
+     * @return The header name.
+     */
+    public String getHeaderName(int index) {
+        for (String known : KNOWN_HEADERS) {
+            if (nameEquals(index, known)) return known;
+        }
+        int offset = index * 4;
+        return new String(bytes, headers[offset], headers[offset + 1] - headers[offset], StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Get the value of a header, without surrounding whitespace.
+     *
+     * @param index The header index, from 0 to {@link #getHeaderCount()} - 1.
+     * @return The header value.
+     */
+    public String getHeaderValue(int index) {
+        int offset = index * 4;
+        return new String(bytes, headers[offset + 2], headers[offset + 3] - headers[offset + 2], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Copy the value of a header as received, without creating a string.
+     *
+     * @param index       The header index, from 0 to {@link #getHeaderCount()} - 1.
+     * @param destination Where to copy it; a longer value is cut at the array's length.
+     * @return The number of bytes copied.
+     */
+    public int copyHeaderValue(int index, byte[] destination) {
+        int offset = index * 4;
+        int count = Math.min(headers[offset + 3] - headers[offset + 2], destination.length);
+        System.arraycopy(bytes, headers[offset + 2], destination, 0, count);
+        return count;
+    }
+
+    /**
+     * Find a header by name, ignoring case, without creating strings for the other headers.
+     *
+     * @param name The header name.
+     * @return The index of the first matching header, or -1.
+     */
+    public int indexOf(String name) {
+        return indexOf(name, 0);
+    }
+
+    /**
+     * Find the next header with a name, ignoring case.
+     *
+     * @param name The header name.
+     * @param from The index to start searching at.
+     * @return The index of the first matching header at or after {@code from}, or -1.
+     */
+    public int indexOf(String name, int from) {
+        for (int i = from; i < headerCount; i++) {
+            if (nameEquals(i, name)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Get the value of the first header with the given name, ignoring case.
+     *
+     * @param name The header name.
+     * @return The header value, or null if the header is absent.
+     */
+    public String getHeader(String name) {
+        int index = indexOf(name);
+        return index == -1 ? null : getHeaderValue(index);
+    }
+
+    /**
+     * Get the Content-Length header parsed straight from the bytes. Repeated headers, or a
+     * comma-separated list, are accepted only when every value is the same.
+     *
+     * @return The declared body length, or -1 if absent.
+     * @throws IllegalArgumentException If a value is not a valid length or the values differ.
+     */
+    public long getContentLength() {
+        long length = -1;
+        for (int i = 0; i < headerCount; i++) {
+            if (!nameEquals(i, "Content-Length")) continue;
+            int offset = i * 4;
+            int start = headers[offset + 2], end = headers[offset + 3];
+            while (start <= end) {
+                int comma = start;
+                while (comma < end && bytes[comma] != ',') comma++;
+                long value = parseLength(start, comma);
+                if (length != -1 && value != length) throw new IllegalArgumentException("Conflicting Content-Length values");
+                length = value;
+                start = comma + 1;
+            }
+        }
+        return length;
+    }
+
+    private long parseLength(int start, int end) {
+        while (start < end && (bytes[start] == ' ' || bytes[start] == '\t')) start++;
+        while (end > start && (bytes[end - 1] == ' ' || bytes[end - 1] == '\t')) end--;
+        if (start == end || end - start > 18) throw new IllegalArgumentException("Invalid Content-Length");
+        long length = 0;
+        for (int i = start; i < end; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) throw new IllegalArgumentException("Invalid Content-Length");
+            length = length * 10 + digit;
+        }
+        return length;
+    }
+
+    /**
+     * Whether the body is sent with the chunked transfer coding, which must then be the final
+     * coding listed in Transfer-Encoding.
+     *
+     * @return Whether the body is chunked; false if there is no Transfer-Encoding.
+     * @throws IllegalArgumentException If the body's length is ambiguous: Transfer-Encoding is sent
+     *                                  along with Content-Length, or does not end with chunked.
+     */
+    public boolean isChunked() {
+        int last = -1;
+        for (int i = 0; i < headerCount; i++) {
+            if (nameEquals(i, "Transfer-Encoding")) last = i;
+        }
+        if (last == -1) return false;
+        if (indexOf("Content-Length") != -1) throw new IllegalArgumentException("Both Transfer-Encoding and Content-Length");
+        int offset = last * 4;
+        int start = headers[offset + 2], end = headers[offset + 3];
+        int tokenStart = end;
+        while (tokenStart > start && bytes[tokenStart - 1] != ',') tokenStart--;
+        while (tokenStart < end && (bytes[tokenStart] == ' ' || bytes[tokenStart] == '\t')) tokenStart++;
+        if (end - tokenStart != 7 || !regionEquals(tokenStart, "chunked")) {
+            throw new IllegalArgumentException("Transfer-Encoding does not end with chunked");
+        }
+        return true;
+    }
+
+    /**
+     * Whether a header lists the given token, ignoring case, e.g. {@code close} in Connection.
+     * Values are split on commas and each element is compared whole.
+     *
+     * @param name  The header name.
+     * @param token The token to look for.
+     * @return Whether any header with the name lists the token.
+     */
+    public boolean headerContains(String name, String token) {
+        for (int i = 0; i < headerCount; i++) {
+            if (!nameEquals(i, name)) continue;
+            int offset = i * 4;
+            int start = headers[offset + 2], end = headers[offset + 3];
+            while (start <= end) {
+                int comma = start;
+                while (comma < end && bytes[comma] != ',') comma++;
+                int from = start, to = comma;
+                while (from < to && (bytes[from] == ' ' || bytes[from] == '\t')) from++;
+                while (to > from && (bytes[to - 1] == ' ' || bytes[to - 1] == '\t')) to--;
+                if (to - from == token.length() && regionEquals(from, token)) return true;
+                start = comma + 1;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the size of the head in bytes, including the blank line ending it.
+     *
+     * @return The head length.
+     */
+    public int length() {
+        return bytes.length;
+    }
+
+    private boolean nameEquals(int index, String name) {
+        int offset = index * 4;
+        return headers[offset + 1] - headers[offset] == name.length() && regionEquals(headers[offset], name);
+    }
+
+    private boolean regionEquals(int start, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            int a = bytes[start + i], b = value.charAt(i);
+            if (a == b) continue;
+            int lower = a | 0x20;
+            if (lower < 'a' || lower > 'z' || lower != (b | 0x20)) return false;
+        }
+        return true;
+    }
+
+    private String known(String[] candidates, int start, int end) {
+        outer:
+        for (String candidate : candidates) {
+            if (candidate.length() != end - start) continue;
+            for (int i = 0; i < candidate.length(); i++) {
+                if (bytes[start + i] != candidate.charAt(i)) continue outer;
+            }
+            return candidate;
+        }
+        return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,12 @@
+package cat.ella.aweb.api;
+
+/**
+ * Thrown by {@link RequestParser} when a request head has more bytes or more header lines
+ * than allowed. The server answers such requests with 431 Request Header Fields Too Large.
+ */
+public class RequestHeadTooLargeException extends IllegalArgumentException {
+
+    public RequestHeadTooLargeException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,147 @@
+package cat.ella.aweb.api;
+
+import java.util.Arrays;
+
+/**
+ * Incremental, byte-level parser for request heads. The caller keeps feeding the same
+ * buffer as bytes arrive; the parser remembers how far it has scanned, records the offsets
+ * of the request line and every header, and copies the finished head into a
+ * {@link RequestHead} once the blank line is seen. One parser is reused per connection.
+ */
+public final class RequestParser {
+    private final int maxHeadSize;
+    private final int maxHeaderCount;
+    private int[] headers = new int[16 * 4];
+    private int headerCount;
+    private int lineStart;
+    private int skipped;
+    private int scanned;
+    private int consumed;
+    private int requestLineEnd = -1;
+
+    /**
+     * Constructor for RequestParser.
+     *
+     * @param maxHeadSize The largest request head accepted, in bytes.
+     */
+    public RequestParser(int maxHeadSize) {
+        this(maxHeadSize, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Constructor for RequestParser.
+     *
+     * @param maxHeadSize    The largest request head accepted, in bytes.
+     * @param maxHeaderCount The most header lines accepted.
+     */
+    public RequestParser(int maxHeadSize, int maxHeaderCount) {
+        this.maxHeadSize = maxHeadSize;
+        this.maxHeaderCount = maxHeaderCount;
+    }
+
+    /**
+     * Continue parsing the head that starts at {@code start}. Progress is kept relative to
+     * {@code start}, so the caller may move the unparsed bytes within the buffer between calls.
+     *
+     * @param data  The buffer holding the received bytes.
+     * @param start The index where the request begins.
+     * @param limit The index just past the last received byte.
+     * @return The parsed head, or null if the blank line has not arrived yet.
+     * @throws RequestHeadTooLargeException If the head has more bytes or header lines than allowed.
+     * @throws IllegalArgumentException     If the head is malformed.
+     */
+    public RequestHead parse(byte[] data, int start, int limit) {
+        int i = start + Math.max(scanned, lineStart);
+        for (; i < limit; i++) {
+            if (data[i] != '\n') continue;
+            int lineEnd = i > start && data[i - 1] == '\r' ? i - 1 : i;
+            int from = start + lineStart;
+            if (i + 1 - start > maxHeadSize) {
+                reset();
+                throw new RequestHeadTooLargeException("Request head larger than " + maxHeadSize + " bytes");
+            }
+            if (lineEnd == from) {
+                if (requestLineEnd == -1) { // Tolerate blank lines before the request line.
+                    lineStart = skipped = i + 1 - start;
+                    continue;
+                }
+                try {
+                    return finish(data, start, i + 1);
+                } finally {
+                    reset();
+                }
+            }
+            if (requestLineEnd == -1) requestLineEnd = lineEnd - start;
+            else addHeader(data, start, from, lineEnd);
+            lineStart = i + 1 - start;
+        }
+        scanned = i - start;
+        if (scanned > maxHeadSize) {
+            reset();
+            throw new RequestHeadTooLargeException("Request head larger than " + maxHeadSize + " bytes");
+        }
+        return null;
+    }
+
+    /**
+     * Get the number of bytes, from {@code start}, taken by the last head returned by
+     * {@link #parse}, including any blank lines skipped before it.
+     *
+     * @return The length of the last parsed head.
+     */
+    public int consumed() {
+        return consumed;
+    }
+
+    /**
+     * Forget a partially parsed head, e.g. after the connection's buffer was compacted.
+     */
+    public void reset() {
+        headerCount = 0;
+        lineStart = 0;
+        skipped = 0;
+        scanned = 0;
+        requestLineEnd = -1;
+    }
+
+    private void addHeader(byte[] data, int start, int from, int to) {
+        int colon = from;
+        while (colon < to && data[colon] != ':') colon++;
+        if (colon == to || colon == from) throw new IllegalArgumentException("Malformed header line");
+        // Whitespace before the colon would let a header hide from this parser but not from a proxy.
+        if (data[colon - 1] == ' ' || data[colon - 1] == '\t') throw new IllegalArgumentException("Whitespace before header colon");
+        int valueStart = colon + 1, valueEnd = to;
+        while (valueStart < valueEnd && (data[valueStart] == ' ' || data[valueStart] == '\t')) valueStart++;
+        while (valueEnd > valueStart && (data[valueEnd - 1] == ' ' || data[valueEnd - 1] == '\t')) valueEnd--;
+
+        if (headerCount == maxHeaderCount) throw new RequestHeadTooLargeException("More than " + maxHeaderCount + " header lines");
+        if ((headerCount + 1) * 4 > headers.length) headers = Arrays.copyOf(headers, headers.length * 2);
+        int offset = headerCount++ * 4;
+        headers[offset] = from - start;
+        headers[offset + 1] = colon - start;
+        headers[offset + 2] = valueStart - start;
+        headers[offset + 3] = valueEnd - start;
+    }
+
+    private RequestHead finish(byte[] data, int start, int end) {
+        consumed = end - start;
+        byte[] bytes = Arrays.copyOfRange(data, start + skipped, end);
+        int lineEnd = requestLineEnd - skipped;
+        int methodEnd = indexOf(bytes, (byte) ' ', 0, lineEnd);
+        int targetEnd = methodEnd == -1 ? -1 : indexOf(bytes, (byte) ' ', methodEnd + 1, lineEnd);
+        if (methodEnd < 1 || targetEnd == -1) throw new IllegalArgumentException("Malformed request line");
+
+        int[] offsets = Arrays.copyOf(headers, headerCount * 4);
+        if (skipped > 0) {
+            for (int i = 0; i < offsets.length; i++) offsets[i] -= skipped;
+        }
+        return new RequestHead(bytes, methodEnd, methodEnd + 1, targetEnd, targetEnd + 1, lineEnd, offsets, headerCount);
+    }
+
+    private static int indexOf(byte[] data, byte value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (data[i] == value) return i;
+        }
+        return -1;
+    }
+}
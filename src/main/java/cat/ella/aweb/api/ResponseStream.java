@@ -0,0 +1,108 @@
+package cat.ella.aweb.api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A response written as it is produced. Status and headers may be set until the first bytes are
+ * sent, which happens when the internal buffer fills, on {@link #flush()}, or on {@link #close()}.
+ *
+ * <p>Without a {@link #contentLength(long) content length}, a body that fits in the buffer is sent
+ * with a Content-Length when the stream is closed; a larger one is sent with
+ * {@code Transfer-Encoding: chunked}, or delimited by closing the connection for HTTP/1.0 clients.</p>
+ *
+ * <p>Route methods taking a {@link FormattedRequest} and a ResponseStream and returning void receive one:</p>
+ * <pre>
+ * {@code
+ * @WebService(port = 2020)
+ * @Route(path = "/export")
+ * public static void export(FormattedRequest request, ResponseStream response) throws IOException {
+ *     response.contentType("text/csv");
+ *     for (Row row : rows()) response.write(row.toCsv());
+ * }
+ * }
+ * </pre>
+ */
+public abstract class ResponseStream extends OutputStream {
+
+    /**
+     * Set the status code, 200 by default.
+     *
+     * @param statusCode The status code.
+     * @return The ResponseStream instance.
+     * @throws IllegalStateException If the head was already sent.
+     */
+    public abstract ResponseStream statusCode(int statusCode);
+
+    /**
+     * Set the status message, "OK" by default.
+     *
+     * @param statusMessage The status message.
+     * @return The ResponseStream instance.
+     * @throws IllegalStateException If the head was already sent.
+     */
+    public abstract ResponseStream statusMessage(String statusMessage);
+
+    /**
+     * Set the content type.
+     *
+     * @param contentType The content type.
+     * @return The ResponseStream instance.
+     * @throws IllegalStateException If the head was already sent.
+     */
+    public abstract ResponseStream contentType(String contentType);
+
+    /**
+     * Declare the exact body length, so the body is sent unchunked. Writing more than this, or
+     * closing the stream after writing less, fails and closes the connection.
+     *
+     * @param contentLength The body length in bytes.
+     * @return The ResponseStream instance.
+     * @throws IllegalStateException If the head was already sent.
+     */
+    public abstract ResponseStream contentLength(long contentLength);
+
+    /**
+     * Add a custom header.
+     *
+     * @param name  The header name.
+     * @param value The header value.
+     * @return The ResponseStream instance.
+     * @throws IllegalStateException If the head was already sent.
+     */
+    public abstract ResponseStream addHeader(String name, String value);
+
+    /**
+     * @return Whether the status line and headers were sent.
+     */
+    public abstract boolean isCommitted();
+
+    /**
+     * Write a string as UTF-8.
+     *
+     * @param text The text to write.
+     * @return The ResponseStream instance.
+     * @throws IOException If writing fails.
+     */
+    public ResponseStream write(String text) throws IOException {
+        write(text.getBytes(StandardCharsets.UTF_8));
+        return this;
+    }
+
+    /**
+     * Send everything written so far, as a chunk if the body is chunked.
+     *
+     * @throws IOException If writing fails.
+     */
+    @Override
+    public abstract void flush() throws IOException;
+
+    /**
+     * Finish the response. Called by the server after the handler returns if the handler did not.
+     *
+     * @throws IOException If writing fails or fewer bytes than the declared length were written.
+     */
+    @Override
+    public abstract void close() throws IOException;
+}
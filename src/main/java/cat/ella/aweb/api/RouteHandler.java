@@ -0,0 +1,9 @@
+package cat.ella.aweb.api;
+
+/**
+ * A bound {@code @Route} method: receives the request and returns the full serialized response.
+ */
+@FunctionalInterface
+public interface RouteHandler {
+    byte[] handle(FormattedRequest request) throws Exception;
+}
@@ -0,0 +1,40 @@
+package cat.ella.aweb.api;
+
+/**
+ * The static {@code @WebService} methods of a package, registered without reflection.
+ * Implementations are generated at compile time by {@code cat.ella.aweb.processor.RouteProcessor}
+ * and listed in {@code META-INF/services/cat.ella.aweb.api.RouteRegistry}. When the server finds
+ * at least one, it registers their routes instead of scanning the classpath.
+ */
+public interface RouteRegistry {
+
+    /**
+     * Register every route and capture of the package.
+     *
+     * @param routes The server's registration callbacks.
+     */
+    void register(Routes routes);
+
+    /**
+     * Registration callbacks, mirroring the annotations: {@code port} is the {@code @WebService}
+     * port and {@code name} identifies the method in logs and errors.
+     */
+    interface Routes {
+        void route(int port, String name, String path, boolean errorRoute, boolean compress, RouteHandler handler);
+
+        void streaming(int port, String name, String path, boolean errorRoute, StreamingHandler handler);
+
+        void capture(int port, String name, String path, String method, CaptureHandler handler);
+
+        /**
+         * Register a {@code @Capture(async = true)} method, delivered one request at a time.
+         */
+        void asyncCapture(int port, String name, String path, String method, int status, CaptureHandler handler);
+
+        /**
+         * Register a capture method taking a {@code List<FormattedRequest>}.
+         */
+        void batchCapture(int port, String name, String path, String method, int status, int batchSize, long batchDelayMillis,
+                          BatchCaptureHandler handler);
+    }
+}
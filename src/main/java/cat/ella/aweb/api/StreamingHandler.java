@@ -0,0 +1,9 @@
+package cat.ella.aweb.api;
+
+/**
+ * A bound {@code @Route} method that writes its response to a {@link ResponseStream} instead of returning it.
+ */
+@FunctionalInterface
+public interface StreamingHandler {
+    void handle(FormattedRequest request, ResponseStream response) throws Exception;
+}
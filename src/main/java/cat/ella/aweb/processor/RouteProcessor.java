@@ -0,0 +1,285 @@
+package cat.ella.aweb.processor;
+
+import javax.annotation.processing.*;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * Checks {@code @WebService}, {@code @Route} and {@code @Capture} methods at compile time and
+ * generates, for each package with static web service methods, a {@code GeneratedRouteRegistry}
+ * that registers them with direct calls. The registries are listed in
+ * {@code META-INF/services/cat.ella.aweb.api.RouteRegistry}, where the server finds them instead
+ * of scanning the classpath.
+ *
+ * <p>Instance methods are only checked; they are still registered through {@code WebServer.addService}.</p>
+ */
+@SupportedAnnotationTypes({RouteProcessor.WEB_SERVICE, RouteProcessor.ROUTE, RouteProcessor.CAPTURE})
+public final class RouteProcessor extends AbstractProcessor {
+    static final String WEB_SERVICE = "cat.ella.aweb.annotations.WebService";
+    static final String ROUTE = "cat.ella.aweb.annotations.Route";
+    static final String CAPTURE = "cat.ella.aweb.annotations.Capture";
+    static final String REGISTRY_NAME = "GeneratedRouteRegistry";
+    private static final String REGISTRY_SERVICE = "META-INF/services/cat.ella.aweb.api.RouteRegistry";
+    /**
+     * The statuses an asynchronous capture may acknowledge a request with, as checked again when it is bound.
+     */
+    private static final Set<Integer> ACKNOWLEDGEMENT_STATUSES = Set.of(200, 201, 202, 204);
+
+    private final Map<String, Integer> roundsPerPackage = new HashMap<>();
+    private final Set<String> registries = new TreeSet<>();
+    private final List<Element> originating = new ArrayList<>();
+    private Types types;
+    private Elements elements;
+    private Messager messager;
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        this.types = processingEnv.getTypeUtils();
+        this.elements = processingEnv.getElementUtils();
+        this.messager = processingEnv.getMessager();
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            writeServiceFile();
+            return false;
+        }
+        TypeElement webService = elements.getTypeElement(WEB_SERVICE);
+        if (webService == null) return false;
+
+        Set<ExecutableElement> methods = new LinkedHashSet<>();
+        for (String annotation : new String[]{WEB_SERVICE, ROUTE, CAPTURE}) {
+            TypeElement type = elements.getTypeElement(annotation);
+            if (type == null) continue;
+            for (Element element : roundEnv.getElementsAnnotatedWith(type)) {
+                if (element.getKind() == ElementKind.METHOD) methods.add((ExecutableElement) element);
+            }
+        }
+
+        Map<String, List<String>> registrations = new TreeMap<>();
+        Map<String, List<Element>> sources = new HashMap<>();
+        for (ExecutableElement method : methods) {
+            String registration = check(method);
+            if (registration == null) continue;
+            String packageName = elements.getPackageOf(method).getQualifiedName().toString();
+            registrations.computeIfAbsent(packageName, p -> new ArrayList<>()).add(registration);
+            sources.computeIfAbsent(packageName, p -> new ArrayList<>()).add(method);
+            originating.add(method);
+        }
+        for (Map.Entry<String, List<String>> entry : registrations.entrySet()) {
+            // Methods generated by other processors arrive in later rounds and get a registry of their own.
+            int round = roundsPerPackage.merge(entry.getKey(), 1, Integer::sum);
+            String simpleName = round == 1 ? REGISTRY_NAME : REGISTRY_NAME + round;
+            writeRegistry(entry.getKey(), simpleName, entry.getValue(), sources.get(entry.getKey()));
+        }
+        return false;
+    }
+
+    /**
+     * Validate one annotated method.
+     *
+     * @return The statement registering it, or null if it is invalid or not registered at compile time.
+     */
+    private String check(ExecutableElement method) {
+        AnnotationMirror webService = annotation(method, WEB_SERVICE);
+        AnnotationMirror route = annotation(method, ROUTE);
+        AnnotationMirror capture = annotation(method, CAPTURE);
+
+        if (capture != null && route == null) {
+            error(method, "@Capture requires @Route to give the path");
+            return null;
+        }
+        if (webService == null) {
+            warning(method, "@Route method is not annotated with @WebService and will not be served");
+            return null;
+        }
+        if (route == null) {
+            warning(method, "@WebService method has no @Route and will not be served");
+            return null;
+        }
+
+        List<? extends VariableElement> parameters = method.getParameters();
+        TypeMirror returnType = method.getReturnType();
+        String kind;
+        if (capture != null) {
+            if (isBatch(method)) kind = "batch";
+            else if (parameters.size() <= 1 && (parameters.isEmpty() || isType(parameters.get(0).asType(), "cat.ella.aweb.api.FormattedRequest"))) kind = "capture";
+            else {
+                error(method, "@Capture method must take a FormattedRequest, a List<FormattedRequest> or nothing");
+                return null;
+            }
+            if ((kind.equals("batch") || booleanValue(capture, "async")) && !ACKNOWLEDGEMENT_STATUSES.contains(intValue(capture, "status"))) {
+                error(method, "@Capture status must be 200, 201, 202 or 204 to acknowledge a queued request");
+                return null;
+            }
+        } else if (returnType.getKind() == TypeKind.VOID && parameters.size() == 2
+                && isType(parameters.get(0).asType(), "cat.ella.aweb.api.FormattedRequest")
+                && isType(parameters.get(1).asType(), "cat.ella.aweb.api.ResponseStream")) {
+            kind = "streaming";
+        } else if (isByteArray(returnType) && (parameters.isEmpty()
+                || parameters.size() == 1 && isType(parameters.get(0).asType(), "cat.ella.aweb.api.FormattedRequest"))) {
+            kind = "route";
+        } else {
+            error(method, "@Route method must return byte[] and take a FormattedRequest or nothing, "
+                    + "or return void and take a FormattedRequest and a ResponseStream");
+            return null;
+        }
+
+        if (!method.getModifiers().contains(Modifier.STATIC)) return null;
+        if (method.getModifiers().contains(Modifier.PRIVATE) || !accessible(method.getEnclosingElement())) {
+            error(method, "Static @WebService method must not be private, nor in a private class, to be called from the generated registry");
+            return null;
+        }
+        return registration(method, kind, intValue(webService, "port"), route, capture);
+    }
+
+    private String registration(ExecutableElement method, String kind, int port, AnnotationMirror route, AnnotationMirror capture) {
+        TypeElement owner = (TypeElement) method.getEnclosingElement();
+        String target = owner.getQualifiedName() + "." + method.getSimpleName();
+        String name = literal(elements.getBinaryName(owner) + "#" + method.getSimpleName());
+        String path = literal(stringValue(route, "path"));
+        String call = method.getParameters().isEmpty() ? target + "()" : target + "(request)";
+        String prefix = "routes." + kind + "(" + port + ", " + name + ", " + path + ", ";
+        switch (kind) {
+            case "route":
+                return prefix + booleanValue(route, "errorRoute") + ", " + booleanValue(route, "compress") + ", request -> " + call + ");";
+            case "streaming":
+                return prefix + booleanValue(route, "errorRoute") + ", (request, response) -> " + target + "(request, response));";
+            case "batch":
+                return "routes.batchCapture(" + port + ", " + name + ", " + path + ", " + literal(stringValue(capture, "method")) + ", "
+                        + intValue(capture, "status") + ", " + intValue(capture, "batchSize") + ", " + longValue(capture, "batchDelayMillis") + "L, "
+                        + "requests -> " + target + "(requests));";
+            default:
+                String verb = literal(stringValue(capture, "method"));
+                if (booleanValue(capture, "async")) {
+                    return "routes.asyncCapture(" + port + ", " + name + ", " + path + ", " + verb + ", " + intValue(capture, "status")
+                            + ", request -> " + call + ");";
+                }
+                return prefix + verb + ", request -> " + call + ");";
+        }
+    }
+
+    private void writeRegistry(String packageName, String simpleName, List<String> statements, List<Element> sources) {
+        String className = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+        StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty()) source.append("package ").append(packageName).append(";\n\n");
+        source.append("/**\n * Registers the static web service methods of this package. Generated by ")
+                .append(RouteProcessor.class.getName()).append(".\n */\n")
+                .append("@javax.annotation.processing.Generated(\"").append(RouteProcessor.class.getName()).append("\")\n")
+                .append("public final class ").append(simpleName).append(" implements cat.ella.aweb.api.RouteRegistry {\n")
+                .append("    @Override\n")
+                .append("    public void register(cat.ella.aweb.api.RouteRegistry.Routes routes) {\n");
+        for (String statement : statements) source.append("        ").append(statement).append('\n');
+        source.append("    }\n}\n");
+
+        try (Writer writer = processingEnv.getFiler().createSourceFile(className, sources.toArray(new Element[0])).openWriter()) {
+            writer.write(source.toString());
+            registries.add(className);
+        } catch (IOException e) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "Could not write " + className + ": " + e.getMessage());
+        }
+    }
+
+    private void writeServiceFile() {
+        if (registries.isEmpty()) return;
+        try {
+            FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", REGISTRY_SERVICE, originating.toArray(new Element[0]));
+            try (Writer writer = file.openWriter()) {
+                for (String registry : registries) writer.write(registry + "\n");
+            }
+        } catch (IOException e) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "Could not write " + REGISTRY_SERVICE + ": " + e.getMessage());
+        }
+    }
+
+    private boolean isBatch(ExecutableElement method) {
+        if (method.getReturnType().getKind() != TypeKind.VOID || method.getParameters().size() != 1) return false;
+        TypeMirror parameter = method.getParameters().get(0).asType();
+        if (parameter.getKind() != TypeKind.DECLARED) return false;
+        DeclaredType declared = (DeclaredType) parameter;
+        return isType(types.erasure(declared), "java.util.List") && declared.getTypeArguments().size() == 1
+                && isType(declared.getTypeArguments().get(0), "cat.ella.aweb.api.FormattedRequest");
+    }
+
+    private boolean isType(TypeMirror type, String name) {
+        TypeElement element = elements.getTypeElement(name);
+        return element != null && types.isSameType(types.erasure(type), types.erasure(element.asType()));
+    }
+
+    private boolean isByteArray(TypeMirror type) {
+        return types.isSameType(type, types.getArrayType(types.getPrimitiveType(TypeKind.BYTE)));
+    }
+
+    private static boolean accessible(Element type) {
+        for (Element element = type; element instanceof TypeElement; element = element.getEnclosingElement()) {
+            if (element.getModifiers().contains(Modifier.PRIVATE)) return false;
+        }
+        return true;
+    }
+
+    private static AnnotationMirror annotation(Element element, String name) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(name)) return mirror;
+        }
+        return null;
+    }
+
+    private Object value(AnnotationMirror mirror, String name) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : elements.getElementValuesWithDefaults(mirror).entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals(name)) return entry.getValue().getValue();
+        }
+        throw new IllegalArgumentException("No annotation value " + name);
+    }
+
+    private String stringValue(AnnotationMirror mirror, String name) {
+        return (String) value(mirror, name);
+    }
+
+    private int intValue(AnnotationMirror mirror, String name) {
+        return (Integer) value(mirror, name);
+    }
+
+    private long longValue(AnnotationMirror mirror, String name) {
+        return (Long) value(mirror, name);
+    }
+
+    private boolean booleanValue(AnnotationMirror mirror, String name) {
+        return (Boolean) value(mirror, name);
+    }
+
+    private static String literal(String value) {
+        StringBuilder literal = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') literal.append('\\').append(c);
+            else if (c < 0x20 || c > 0x7e) literal.append(String.format("\\u%04x", (int) c));
+            else literal.append(c);
+        }
+        return literal.append('"').toString();
+    }
+
+    private void error(Element element, String message) {
+        messager.printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    private void warning(Element element, String message) {
+        messager.printMessage(Diagnostic.Kind.WARNING, message, element);
+    }
+}
@@ -0,0 +1,113 @@
+package cat.ella.aweb;
+
+import cat.ella.aweb.api.FormattedRequest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The access log's ring buffer: lines are written in the order requests were logged, and a full
+ * buffer drops requests instead of holding up the threads logging them.
+ */
+public class AccessLogTest {
+    @TempDir
+    Path directory;
+
+    private static final class TestConnection extends Connection {
+        @Override
+        void write(ByteBuffer buffer) {
+        }
+
+        @Override
+        void transfer(FileChannel file, long position, long count) {
+        }
+
+        @Override
+        boolean isClosed() {
+            return false;
+        }
+
+        @Override
+        String remoteAddress() {
+            return "10.0.0.1";
+        }
+
+        @Override
+        void close() {
+        }
+    }
+
+    private static FormattedRequest request(String path) {
+        return new FormattedRequest(new ArrayList<>(List.of("GET " + path + " HTTP/1.1", "Host: x")));
+    }
+
+    @Test
+    void linesAreWrittenInOrder() throws Exception {
+        Path file = directory.resolve("access.log");
+        AccessLog log = AccessLog.toFile(file).zone(ZoneOffset.UTC);
+        Connection connection = new TestConnection();
+        log.start();
+        for (int i = 0; i < 1000; i++) log.log(connection, request("/" + i), 200, i, 1_000);
+        log.stop();
+
+        List<String> lines = Files.readAllLines(file);
+        assertEquals(1000, lines.size());
+        assertEquals(1000, log.logged());
+        assertEquals(0, log.dropped());
+        assertTrue(lines.get(0).matches("10\\.0\\.0\\.1 - - \\[\\d\\d/\\w{3}/\\d{4}:\\d\\d:\\d\\d:\\d\\d \\+0000] \"GET /0 HTTP/1\\.1\" 200 -"), lines.get(0));
+        for (int i = 1; i < 1000; i++) assertTrue(lines.get(i).endsWith("\"GET /" + i + " HTTP/1.1\" 200 " + i), lines.get(i));
+    }
+
+    @Test
+    void concurrentLoggersKeepTheirOwnOrder() throws Exception {
+        Path file = directory.resolve("access.log");
+        AccessLog log = AccessLog.toFile(file).format(AccessLog.Format.JSON);
+        log.start();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int thread = t;
+            threads.add(new Thread(() -> {
+                Connection connection = new TestConnection();
+                for (int i = 0; i < 500; i++) log.log(connection, request("/" + thread + "/" + i), 200, 10, 1_000);
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) thread.join();
+        log.stop();
+
+        List<String> lines = Files.readAllLines(file);
+        assertEquals(2000, lines.size());
+        assertEquals(0, log.dropped());
+        int[] next = new int[4];
+        for (String line : lines) {
+            int start = line.indexOf("\"target\":\"/") + 11;
+            String[] target = line.substring(start, line.indexOf('"', start)).split("/");
+            int thread = Integer.parseInt(target[0]);
+            assertEquals(next[thread]++, Integer.parseInt(target[1]), line);
+        }
+    }
+
+    @Test
+    void fullBufferDropsWithoutWaiting() throws Exception {
+        // A directory cannot be opened for writing, so the writer stops before taking anything out of the buffer.
+        AccessLog log = AccessLog.toFile(directory).capacity(4);
+        Connection connection = new TestConnection();
+        log.start();
+        long started = System.nanoTime();
+        for (int i = 0; i < 100; i++) log.log(connection, request("/" + i), 200, 0, 0);
+        assertTrue(System.nanoTime() - started < 1_000_000_000L, "Logging waited for the writer");
+        log.stop();
+
+        assertEquals(96, log.dropped());
+        assertEquals(0, log.logged());
+    }
+}
@@ -0,0 +1,63 @@
+package cat.ella.aweb;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ByteRangesTest {
+
+    private static String ranges(String header, long length) {
+        List<long[]> ranges = ByteRanges.parse(header, length);
+        if (ranges == null) return null;
+        StringBuilder text = new StringBuilder();
+        for (long[] range : ranges) text.append(text.length() == 0 ? "" : ",").append(range[0]).append('-').append(range[1]);
+        return text.toString();
+    }
+
+    @Test
+    void singleRanges() {
+        assertEquals("0-99", ranges("bytes=0-99", 1000));
+        assertEquals("500-999", ranges("bytes=500-", 1000));
+        assertEquals("900-999", ranges("bytes=-100", 1000));
+        assertEquals("0-0", ranges("BYTES=0-0", 1000));
+    }
+
+    @Test
+    void rangesAreClampedToTheLength() {
+        assertEquals("990-999", ranges("bytes=990-2000", 1000));
+        assertEquals("0-999", ranges("bytes=-5000", 1000));
+    }
+
+    @Test
+    void unsatisfiableRangesGiveAnEmptyList() {
+        assertEquals("", ranges("bytes=1000-", 1000));
+        assertEquals("", ranges("bytes=-0", 1000));
+        assertEquals("", ranges("bytes=0-10", 0));
+    }
+
+    @Test
+    void multipleRangesAreSortedAndMerged() {
+        assertEquals("0-9,20-29", ranges("bytes=20-29, 0-9", 1000));
+        assertEquals("0-29", ranges("bytes=0-9,10-19,15-29", 1000));
+        assertEquals("0-9,900-999", ranges("bytes=0-9,-100,950-", 1000));
+    }
+
+    @Test
+    void malformedOrIgnoredHeadersGiveNull() {
+        assertNull(ranges(null, 1000));
+        assertNull(ranges("items=0-9", 1000));
+        assertNull(ranges("bytes=", 1000));
+        assertNull(ranges("bytes=abc", 1000));
+        assertNull(ranges("bytes=10-5", 1000));
+        assertNull(ranges("bytes=5", 1000));
+    }
+
+    @Test
+    void tooManyRangesAreIgnored() {
+        StringBuilder header = new StringBuilder("bytes=");
+        for (int i = 0; i <= ByteRanges.MAX_RANGES; i++) header.append(i == 0 ? "" : ",").append(i * 10).append('-').append(i * 10 + 1);
+        assertNull(ranges(header.toString(), 1000));
+    }
+}
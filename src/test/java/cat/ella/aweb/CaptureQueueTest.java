@@ -0,0 +1,120 @@
+package cat.ella.aweb;
+
+import cat.ella.aweb.annotations.Capture;
+import cat.ella.aweb.annotations.Route;
+import cat.ella.aweb.annotations.WebService;
+import cat.ella.aweb.api.FormattedRequest;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Asynchronous captures over both transports: the acknowledgement, and delivery on the capture's thread.
+ */
+public class CaptureQueueTest {
+    private static final int PORT = 18360;
+    /**
+     * Each server gets its own port, since a stopped server may release its port asynchronously.
+     */
+    private static int nextPort = PORT;
+
+    private final BlockingQueue<String> delivered = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Integer> batches = new LinkedBlockingQueue<>();
+
+    @WebService(port = PORT)
+    @Route(path = "/events")
+    @Capture(method = "POST", async = true, status = 204)
+    public void event(FormattedRequest request) {
+        delivered.add(request.getBody());
+    }
+
+    @WebService(port = PORT)
+    @Route(path = "/accepted")
+    @Capture(method = "POST", async = true)
+    public void accepted(FormattedRequest request) {
+        delivered.add(request.getBody());
+    }
+
+    @WebService(port = PORT)
+    @Route(path = "/batch")
+    @Capture(method = "POST", batchSize = 3, batchDelayMillis = 2000)
+    public void batch(List<FormattedRequest> requests) {
+        for (FormattedRequest request : requests) delivered.add(request.getBody());
+        batches.add(requests.size());
+    }
+
+    private static String post(int port, String path, String body) throws Exception {
+        return TestClient.send(port, "POST " + path + " HTTP/1.1\r\nHost: x\r\nConnection: close\r\nContent-Length: "
+                + body.length() + "\r\n\r\n" + body);
+    }
+
+    private static String head(String response) {
+        return response.substring(0, response.indexOf("\r\n\r\n"));
+    }
+
+    @Test
+    void noContentAcknowledgementHasNoLength() throws Exception {
+        for (WebServer.Transport transport : WebServer.Transport.values()) {
+            int port = nextPort++;
+            WebServer server = new WebServer(port).transport(transport).addService(this);
+            TestClient.start(server, port);
+            try {
+                String response = post(port, "/events", "one");
+                assertEquals(204, TestClient.status(response), transport.name());
+                assertTrue(head(response).startsWith("HTTP/1.1 204 No Content"));
+                assertFalse(head(response).toLowerCase().contains("content-length"));
+                assertEquals("", TestClient.body(response));
+                assertEquals("one", delivered.poll(5, TimeUnit.SECONDS));
+            } finally {
+                server.stop();
+            }
+        }
+    }
+
+    @Test
+    void acceptedAcknowledgementIsFramed() throws Exception {
+        for (WebServer.Transport transport : WebServer.Transport.values()) {
+            int port = nextPort++;
+            WebServer server = new WebServer(port).transport(transport).addService(this);
+            TestClient.start(server, port);
+            try {
+                String response = post(port, "/accepted", "two");
+                assertTrue(head(response).startsWith("HTTP/1.1 202 Accepted"), transport.name());
+                assertTrue(head(response).contains("Content-Length: 0"));
+                assertEquals("two", delivered.poll(5, TimeUnit.SECONDS));
+            } finally {
+                server.stop();
+            }
+        }
+    }
+
+    @Test
+    void batchesAreDeliveredTogether() throws Exception {
+        int port = nextPort++;
+        WebServer server = new WebServer(port).addService(this);
+        TestClient.start(server, port);
+        try {
+            for (String body : new String[]{"a", "b", "c"}) assertEquals(202, TestClient.status(post(port, "/batch", body)));
+            assertEquals(Integer.valueOf(3), batches.poll(5, TimeUnit.SECONDS));
+            assertEquals("a", delivered.poll());
+            assertEquals("b", delivered.poll());
+            assertEquals("c", delivered.poll());
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    void acknowledgementMustBeASuccess() {
+        // The processor rejects such annotations at compile time; methods bound reflectively are checked here.
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> new RouteBinding.AsyncCapture(500, 1, 0, null));
+        assertTrue(e.getMessage().contains("500"), e.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> new RouteBinding.AsyncCapture(206, 1, 0, null));
+        assertEquals(201, new RouteBinding.AsyncCapture(201, 1, 0, null).status());
+    }
+}
@@ -0,0 +1,73 @@
+package cat.ella.aweb;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChunkedDecoderTest {
+
+    /**
+     * Decode the input fed in pieces of at most {@code step} bytes.
+     */
+    private static String decode(String input, int step) {
+        byte[] src = input.getBytes(StandardCharsets.ISO_8859_1);
+        byte[] dst = new byte[src.length];
+        ChunkedDecoder decoder = new ChunkedDecoder();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        int from = 0;
+        while (from < src.length && !decoder.isDone()) {
+            int to = Math.min(src.length, from + step);
+            int produced = decoder.decode(src, from, to, dst, 0, dst.length);
+            body.write(dst, 0, produced);
+            from += decoder.consumed();
+        }
+        assertTrue(decoder.isDone());
+        return body.toString(StandardCharsets.ISO_8859_1);
+    }
+
+    @Test
+    void decodesChunks() {
+        assertEquals("hello world", decode("5\r\nhello\r\n6\r\n world\r\n0\r\n\r\n", Integer.MAX_VALUE));
+    }
+
+    @Test
+    void decodesInputSplitAnywhere() {
+        String input = "5\r\nhello\r\nA\r\n0123456789\r\n0\r\n\r\n";
+        for (int step = 1; step < input.length(); step++) assertEquals("hello0123456789", decode(input, step));
+    }
+
+    @Test
+    void skipsExtensionsAndTrailers() {
+        assertEquals("abc", decode("3;name=value\r\nabc\r\n0\r\nX-Checksum: 1\r\nX-Other: 2\r\n\r\n", Integer.MAX_VALUE));
+    }
+
+    @Test
+    void decodesInPlace() {
+        byte[] data = "3\r\nabc\r\n2\r\nde\r\n0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+        ChunkedDecoder decoder = new ChunkedDecoder();
+        int produced = decoder.decode(data, 0, data.length, data, 0, data.length);
+        assertEquals("abcde", new String(data, 0, produced, StandardCharsets.ISO_8859_1));
+        assertEquals(data.length, decoder.consumed());
+        assertTrue(decoder.isDone());
+    }
+
+    @Test
+    void stopsAtTheEndOfTheBody() {
+        byte[] data = "1\r\na\r\n0\r\n\r\nGET / HTTP/1.1\r\n".getBytes(StandardCharsets.ISO_8859_1);
+        ChunkedDecoder decoder = new ChunkedDecoder();
+        decoder.decode(data, 0, data.length, new byte[data.length], 0, data.length);
+        assertTrue(decoder.isDone());
+        assertEquals(11, decoder.consumed());
+    }
+
+    @Test
+    void rejectsMalformedFraming() {
+        assertThrows(IllegalArgumentException.class, () -> decode("xyz\r\n", Integer.MAX_VALUE));
+        assertThrows(IllegalArgumentException.class, () -> decode("\r\nabc\r\n", Integer.MAX_VALUE));
+        assertThrows(IllegalArgumentException.class, () -> decode("3\r\nabcX\r\n0\r\n\r\n", Integer.MAX_VALUE));
+        assertThrows(IllegalArgumentException.class, () -> decode("fffffffffffffffff\r\n", Integer.MAX_VALUE));
+    }
+}
@@ -0,0 +1,80 @@
+package cat.ella.aweb;
+
+import cat.ella.aweb.annotations.Route;
+import cat.ella.aweb.annotations.WebService;
+import cat.ella.aweb.api.FormattedResponse;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Several requests on one connection, sent one after another without waiting, over both transports.
+ */
+public class KeepAliveTest {
+    private static final int PORT = 18400;
+    /**
+     * Each server gets its own port, since a stopped server may release its port asynchronously.
+     */
+    private static int nextPort = PORT;
+
+    @WebService(port = PORT)
+    @Route(path = "/text")
+    public byte[] text() {
+        return new FormattedResponse().contentType("text/plain").content("hello").build();
+    }
+
+    /**
+     * Split the bytes read from a connection into responses, using Content-Length to find where
+     * each body ends; responses to HEAD requests have no body.
+     *
+     * @param methods The method of each request, in order.
+     */
+    private static List<String[]> split(String raw, String... methods) {
+        List<String[]> responses = new ArrayList<>();
+        int position = 0;
+        for (String method : methods) {
+            int headEnd = raw.indexOf("\r\n\r\n", position);
+            assertTrue(headEnd != -1, "Missing response to " + method + " in " + raw);
+            String head = raw.substring(position, headEnd);
+            int length = 0;
+            for (String line : head.split("\r\n")) {
+                if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) length = Integer.parseInt(line.substring(15).trim());
+            }
+            int bodyStart = headEnd + 4;
+            int bodyEnd = "HEAD".equals(method) ? bodyStart : bodyStart + length;
+            responses.add(new String[]{head, raw.substring(bodyStart, bodyEnd)});
+            position = bodyEnd;
+        }
+        assertEquals("", raw.substring(position), "Bytes after the last response");
+        return responses;
+    }
+
+    @Test
+    void pipelinedGetHeadGet() throws Exception {
+        for (WebServer.Transport transport : WebServer.Transport.values()) {
+            int port = nextPort++;
+            WebServer server = new WebServer(port).transport(transport).addService(this);
+            TestClient.start(server, port);
+            try {
+                String raw = TestClient.send(port, "GET /text HTTP/1.1\r\nHost: x\r\n\r\n"
+                        + "HEAD /text HTTP/1.1\r\nHost: x\r\n\r\n"
+                        + "GET /text HTTP/1.1\r\nHost: x\r\nConnection: close\r\n\r\n");
+                List<String[]> responses = split(raw, "GET", "HEAD", "GET");
+                for (String[] response : responses) {
+                    assertTrue(response[0].startsWith("HTTP/1.1 200"), transport.name() + ": " + response[0]);
+                    assertTrue(response[0].contains("Content-Length: 5"), response[0]);
+                }
+                assertEquals("hello", responses.get(0)[1]);
+                assertEquals("", responses.get(1)[1]);
+                assertEquals("hello", responses.get(2)[1]);
+                assertFalse(responses.get(1)[0].contains("Connection: close"), transport.name());
+                assertTrue(responses.get(2)[0].contains("Connection: close"), transport.name());
+            } finally {
+                server.stop();
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package cat.ella.aweb;
+
+import cat.ella.aweb.annotations.Route;
+import cat.ella.aweb.annotations.WebService;
+import cat.ella.aweb.api.FormattedResponse;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricsTest {
+    private static final int PORT = 18380;
+
+    @WebService(port = PORT)
+    @Route(path = "/hello")
+    public byte[] hello() {
+        return new FormattedResponse().contentType("text/plain").content("hello").build();
+    }
+
+    private static List<String> lines(String text) {
+        return List.of(text.split("\n"));
+    }
+
+    @Test
+    void routeCountersByStatus() {
+        Metrics metrics = new Metrics(new ConnectionStats(), List.of());
+        metrics.route("app.Api#get").record(200, 1_000, 2_000, 3_000, 100, 500);
+        metrics.route("app.Api#get").record(200, 1_000, 2_000, 3_000, 100, 500);
+        metrics.route("app.Api#get").record(404, 1_000, 2_000, 3_000, 50, 20);
+        metrics.route(Metrics.UNMATCHED).record(0, 1_000, 0, 0, 10, 0);
+
+        Map<String, Metrics.Route> snapshot = metrics.snapshot();
+        assertEquals(List.of(Metrics.UNMATCHED, "app.Api#get"), List.copyOf(snapshot.keySet()));
+        Metrics.Route route = snapshot.get("app.Api#get");
+        assertEquals(3, route.requests());
+        assertEquals(Map.of(200, 2L, 404, 1L), route.statuses());
+        assertEquals(250, route.bytesIn());
+        assertEquals(1020, route.bytesOut());
+        // Unanswered requests are counted, but under no status.
+        assertEquals(1, snapshot.get(Metrics.UNMATCHED).requests());
+        assertTrue(snapshot.get(Metrics.UNMATCHED).statuses().isEmpty());
+
+        List<String> lines = lines(metrics.toPrometheus());
+        assertTrue(lines.contains("# TYPE aweb_requests_total counter"));
+        assertTrue(lines.contains("aweb_requests_total{route=\"app.Api#get\",status=\"200\"} 2"));
+        assertTrue(lines.contains("aweb_requests_total{route=\"app.Api#get\",status=\"404\"} 1"));
+        assertTrue(lines.contains("aweb_request_bytes_total{route=\"app.Api#get\"} 250"));
+        assertTrue(lines.contains("aweb_response_bytes_total{route=\"app.Api#get\"} 1020"));
+    }
+
+    @Test
+    void histogramBucketsAreCumulative() {
+        Metrics metrics = new Metrics(new ConnectionStats(), List.of());
+        RouteMetrics route = metrics.route("r");
+        route.record(200, 0, 5_000, 0, 0, 0);
+        route.record(200, 0, 20_000, 0, 0, 0);
+        route.record(200, 0, 20_000_000_000L, 0, 0, 0);
+
+        List<String> lines = lines(metrics.toPrometheus());
+        String labels = "route=\"r\",phase=\"handler\"";
+        assertTrue(lines.contains("# TYPE aweb_request_duration_seconds histogram"));
+        assertTrue(lines.contains("aweb_request_duration_seconds_bucket{" + labels + ",le=\"0.00001\"} 1"));
+        assertTrue(lines.contains("aweb_request_duration_seconds_bucket{" + labels + ",le=\"0.000025\"} 2"));
+        assertTrue(lines.contains("aweb_request_duration_seconds_bucket{" + labels + ",le=\"10\"} 2"));
+        assertTrue(lines.contains("aweb_request_duration_seconds_bucket{" + labels + ",le=\"+Inf\"} 3"));
+        assertTrue(lines.contains("aweb_request_duration_seconds_sum{" + labels + "} 20.000025"));
+        assertTrue(lines.contains("aweb_request_duration_seconds_count{" + labels + "} 3"));
+        assertTrue(lines.contains("aweb_request_duration_seconds_count{route=\"r\",phase=\"parse\"} 3"));
+
+        Metrics.Histogram handler = metrics.snapshot().get("r").handlerTime();
+        assertEquals(10_000, handler.quantileNanos(0.3));
+        assertEquals(25_000, handler.quantileNanos(0.6));
+        assertEquals(Long.MAX_VALUE, handler.quantileNanos(1));
+    }
+
+    @Test
+    void labelsAreEscaped() {
+        Metrics metrics = new Metrics(new ConnectionStats(), List.of());
+        metrics.route("a\"b\\c\nd").record(200, 0, 0, 0, 0, 0);
+        assertTrue(lines(metrics.toPrometheus()).contains("aweb_requests_total{route=\"a\\\"b\\\\c\\nd\",status=\"200\"} 1"));
+    }
+
+    @Test
+    void connectionCounters() {
+        ConnectionStats stats = new ConnectionStats();
+        assertTrue(stats.tryOpen(1));
+        assertFalse(stats.tryOpen(1));
+        stats.headTooLarge();
+        List<String> lines = lines(new Metrics(stats, List.of()).toPrometheus());
+        assertTrue(lines.contains("aweb_connections_open 1"));
+        assertTrue(lines.contains("aweb_connections_accepted_total 1"));
+        assertTrue(lines.contains("aweb_connections_rejected_total 1"));
+        assertTrue(lines.contains("aweb_connections_closed_total{reason=\"head_too_large\"} 1"));
+        assertTrue(lines.contains("aweb_connections_closed_total{reason=\"idle_timeout\"} 0"));
+        assertFalse(lines.stream().anyMatch(line -> line.startsWith("aweb_static_cache")));
+    }
+
+    @Test
+    void serverCountsRequestsUnderTheRouteName() throws Exception {
+        int port = PORT;
+        for (WebServer.Transport transport : WebServer.Transport.values()) {
+            WebServer server = new WebServer(port).transport(transport).addService(this);
+            TestClient.start(server, port);
+            try {
+                assertEquals(200, TestClient.status(TestClient.send(port, "GET /hello HTTP/1.1\r\nHost: x\r\nConnection: close\r\n\r\n")));
+                String name = MetricsTest.class.getName() + "#hello";
+                Metrics.Route route = server.metrics().snapshot().get(name);
+                assertNotNull(route, transport.name());
+                assertEquals(Map.of(200, 1L), route.statuses());
+                assertTrue(lines(server.metrics().toPrometheus()).contains("aweb_requests_total{route=\"" + name + "\",status=\"200\"} 1"));
+            } finally {
+                server.stop();
+            }
+            port++;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package cat.ella.aweb;
+
+import cat.ella.aweb.annotations.Route;
+import cat.ella.aweb.annotations.WebService;
+import cat.ella.aweb.api.FormattedResponse;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Routes placed on the port named by their {@link WebService}, over both transports.
+ */
+public class MultiPortTest {
+    /**
+     * Annotated on a route that is served on the server's own port, as nothing listens here.
+     */
+    private static final int UNBOUND = 18480;
+    /**
+     * The additional port. Fixed, since it is named in an annotation, so each server waits for the last to release it.
+     */
+    private static final int SECOND = 18481;
+    /**
+     * Each server gets its own main port, since a stopped server may release its port asynchronously.
+     */
+    private static int nextPort = 18482;
+
+    @WebService(port = SECOND)
+    @Route(path = "/second")
+    public byte[] second() {
+        return new FormattedResponse().contentType("text/plain").content("second").build();
+    }
+
+    @WebService(port = UNBOUND)
+    @Route(path = "/unbound")
+    public byte[] unbound() {
+        return new FormattedResponse().contentType("text/plain").content("unbound").build();
+    }
+
+    private static String get(int port, String path) throws IOException {
+        return TestClient.send(port, "GET " + path + " HTTP/1.1\r\nHost: x\r\nConnection: close\r\n\r\n");
+    }
+
+    /**
+     * Wait until something accepts connections on the port, or stops accepting them.
+     */
+    private static void awaitListening(int port, boolean listening) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (true) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress("127.0.0.1", port), 500);
+                if (listening) return;
+            } catch (IOException e) {
+                if (!listening) return;
+            }
+            assertTrue(System.currentTimeMillis() < deadline, "Port " + port + (listening ? " never opened" : " was not released"));
+            Thread.sleep(20);
+        }
+    }
+
+    @Test
+    void routesAreServedOnTheirAnnotatedPort() throws Exception {
+        for (WebServer.Transport transport : WebServer.Transport.values()) {
+            int port = nextPort++;
+            awaitListening(SECOND, false);
+            WebServer server = new WebServer(port).transport(transport).listen(SECOND).addService(this);
+            TestClient.start(server, port);
+            awaitListening(SECOND, true);
+            try {
+                String second = get(SECOND, "/second");
+                assertEquals(200, TestClient.status(second), transport.name());
+                assertEquals("second", TestClient.body(second));
+                assertNotEquals(200, TestClient.status(get(port, "/second")), transport.name());
+
+                // Nothing listens on the port /unbound names, so it is served on the server's own port only.
+                String unbound = get(port, "/unbound");
+                assertEquals(200, TestClient.status(unbound), transport.name());
+                assertEquals("unbound", TestClient.body(unbound));
+                assertNotEquals(200, TestClient.status(get(SECOND, "/unbound")), transport.name());
+            } finally {
+                server.stop();
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package cat.ella.aweb;
+
+import cat.ella.aweb.api.ContentCache;
+import cat.ella.aweb.api.PublicFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * How public files are loaded: from a jar, and lazily through a bounded cache, served over both transports.
+ */
+public class PublicFileLoadingTest {
+    private static final int PORT = 18440;
+    /**
+     * Each server gets its own port, since a stopped server may release its port asynchronously.
+     */
+    private static int nextPort = PORT;
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Packaged into the test jars, so a PublicFile given this class reads the jar it was loaded from.
+     */
+    public static final class Anchor {
+    }
+
+    /**
+     * Write a jar holding {@link Anchor} and the given resources, and load {@link Anchor} from it.
+     */
+    private Class<?> jar(Map<String, String> resources) throws Exception {
+        Path jar = directory.resolve("files.jar");
+        String anchor = Anchor.class.getName().replace('.', '/') + ".class";
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+            out.putNextEntry(new JarEntry(anchor));
+            try (InputStream in = Anchor.class.getClassLoader().getResourceAsStream(anchor)) {
+                in.transferTo(out);
+            }
+            for (Map.Entry<String, String> resource : resources.entrySet()) {
+                out.putNextEntry(new JarEntry(resource.getKey()));
+                out.write(resource.getValue().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return new URLClassLoader(new URL[]{jar.toUri().toURL()}, null).loadClass(Anchor.class.getName());
+    }
+
+    /**
+     * Send the request to a fresh server on each transport.
+     *
+     * @return The responses: blocking first, then selector.
+     */
+    private static String[] send(PublicFile files, String request) throws Exception {
+        String[] responses = new String[WebServer.Transport.values().length];
+        for (WebServer.Transport transport : WebServer.Transport.values()) {
+            int port = nextPort++;
+            WebServer server = new WebServer(port).transport(transport);
+            server.add(files);
+            TestClient.start(server, port);
+            try {
+                responses[transport.ordinal()] = TestClient.send(port, request);
+            } finally {
+                server.stop();
+            }
+        }
+        return responses;
+    }
+
+    private static String get(String path) {
+        return "GET " + path + " HTTP/1.1\r\nHost: x\r\nConnection: close\r\n\r\n";
+    }
+
+    @Test
+    void cacheEvictsLeastRecentlyUsedFilesPastItsBound() throws Exception {
+        for (int i = 0; i < 10; i++) Files.writeString(directory.resolve(i + ".txt"), String.valueOf(i).repeat(100));
+        PublicFile files = new PublicFile(null, directory.toString(), "/files/", 1, 0, 800);
+        ContentCache cache = files.getCache();
+
+        for (int i = 0; i < 10; i++) assertNotNull(files.getEntry("/files/" + i + ".txt").getBuffer());
+        assertEquals(800, cache.size());
+        assertEquals(10, cache.misses());
+        assertEquals(2, cache.evictions());
+
+        assertEquals("9".repeat(100), StandardCharsets.UTF_8.decode(files.getEntry("/files/9.txt").getBuffer()).toString());
+        assertEquals(1, cache.hits());
+        // 0 was evicted first, so it has to be loaded again, evicting the least recently used file.
+        files.getEntry("/files/0.txt").getBuffer();
+        assertEquals(11, cache.misses());
+        assertEquals(3, cache.evictions());
+        assertEquals(800, cache.size());
+    }
+
+    @Test
+    void oversizedFilesAreStreamedFromDiskWithoutCaching() throws Exception {
+        String content = "x".repeat(101);
+        Files.writeString(directory.resolve("large.txt"), content);
+        PublicFile files = new PublicFile(null, directory.toString(), "/files/", 1, 0, 800);
+
+        PublicFile.Entry entry = files.getEntry("/files/large.txt");
+        assertNull(entry.getBuffer());
+        assertTrue(entry.isFile());
+        for (String response : send(files, get("/files/large.txt"))) {
+            assertEquals(200, TestClient.status(response));
+            assertEquals(content, TestClient.body(response));
+        }
+        assertEquals(0, files.getCache().size());
+        assertEquals(0, files.getCache().misses());
+    }
+
+    @Test
+    void oversizedJarResourcesAreStreamedWithoutCaching() throws Exception {
+        // Spans several pooled buffers, so the copy loop runs more than once.
+        String large = "0123456789abcdef".repeat(5_000);
+        Class<?> anchor = jar(Map.of("static/small.txt", "small", "static/large.txt", large));
+        PublicFile files = new PublicFile(anchor, "static/", "/assets/", 0, 0, 800);
+        ContentCache cache = files.getCache();
+
+        PublicFile.Entry entry = files.getEntry("/assets/large.txt");
+        assertEquals(large.length(), entry.length());
+        assertNull(entry.getBuffer());
+        assertFalse(entry.isFile());
+        for (String response : send(files, get("/assets/large.txt"))) {
+            assertEquals(200, TestClient.status(response));
+            assertEquals(large, TestClient.body(response));
+        }
+        for (String response : send(files, "HEAD /assets/large.txt HTTP/1.1\r\nHost: x\r\nConnection: close\r\n\r\n")) {
+            assertEquals(200, TestClient.status(response));
+            assertTrue(response.contains("Content-Length: " + large.length()), response);
+            assertEquals("", TestClient.body(response));
+        }
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.misses());
+
+        for (String response : send(files, get("/assets/small.txt"))) assertEquals("small", TestClient.body(response));
+        assertEquals(5, cache.size());
+        assertEquals(1, cache.misses());
+        assertEquals(1, cache.hits());
+    }
+
+    @Test
+    void jarIsIndexedByDirectoryAndDepth() throws Exception {
+        String gzipped = "not really gzip";
+        Class<?> anchor = jar(Map.of("static/a.txt", "a", "static/a.txt.gz", gzipped, "static/sub/b.txt", "b", "other/c.txt", "c"));
+
+        PublicFile all = new PublicFile(anchor, "static/", "/assets/", 0, 1);
+        assertEquals(Set.of("/assets/a.txt", "/assets/sub/b.txt"), Set.copyOf(all.getPaths()));
+        assertEquals("a", new String(all.getData("/assets/a.txt"), StandardCharsets.UTF_8));
+        assertEquals("b", new String(all.getData("/assets/sub/b.txt"), StandardCharsets.UTF_8));
+        PublicFile.Entry variant = all.getEntry("/assets/a.txt").select("gzip");
+        assertEquals("gzip", variant.getContentEncoding());
+        assertEquals(gzipped.length(), variant.length());
+
+        PublicFile top = new PublicFile(anchor, "static/", "/assets/", 0, 0);
+        assertEquals(Set.of("/assets/a.txt"), Set.copyOf(top.getPaths()));
+        for (String response : send(top, get("/assets/a.txt"))) assertEquals("a", TestClient.body(response));
+    }
+}
@@ -0,0 +1,212 @@
+package cat.ella.aweb;
+
+import cat.ella.aweb.api.PublicFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Public files served over both transports: validators and 304 responses, encoded variants and ranges.
+ */
+public class PublicFileServingTest {
+    private static final int PORT = 18330;
+    private static final String CONTENT = "<html><body>" + "public file ".repeat(100) + "</body></html>";
+    private static final Instant MODIFIED = Instant.parse("2024-01-02T03:04:05Z");
+    /**
+     * Each server gets its own port, since a stopped server may release its port asynchronously.
+     */
+    private static int nextPort = PORT;
+
+    @TempDir
+    Path directory;
+
+    private PublicFile files() throws Exception {
+        Path file = Files.write(directory.resolve("index.html"), CONTENT.getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.from(MODIFIED));
+        return new PublicFile(null, directory.toString(), "/static/", 1, 0);
+    }
+
+    /**
+     * Send each request to a fresh server on each transport.
+     *
+     * @return The responses, two per request: blocking first, then selector.
+     */
+    private String[] get(PublicFile files, String... headers) throws Exception {
+        String[] responses = new String[WebServer.Transport.values().length];
+        for (WebServer.Transport transport : WebServer.Transport.values()) {
+            int port = nextPort++;
+            WebServer server = new WebServer(port).transport(transport);
+            server.add(files);
+            TestClient.start(server, port);
+            try {
+                StringBuilder request = new StringBuilder("GET /static/index.html HTTP/1.1\r\nHost: x\r\nConnection: close\r\n");
+                for (String header : headers) request.append(header).append("\r\n");
+                responses[transport.ordinal()] = TestClient.send(port, request.append("\r\n").toString());
+            } finally {
+                server.stop();
+            }
+        }
+        return responses;
+    }
+
+    private static String header(String response, String name) {
+        for (String line : response.substring(0, response.indexOf("\r\n\r\n")).split("\r\n")) {
+            if (line.regionMatches(true, 0, name + ":", 0, name.length() + 1)) return line.substring(name.length() + 1).trim();
+        }
+        return null;
+    }
+
+    @Test
+    void fullResponseCarriesValidators() throws Exception {
+        for (String response : get(files())) {
+            assertEquals(200, TestClient.status(response));
+            assertEquals(CONTENT, TestClient.body(response));
+            assertEquals(String.valueOf(CONTENT.length()), header(response, "Content-Length"));
+            assertEquals("text/html", header(response, "Content-Type"));
+            assertEquals("Tue, 02 Jan 2024 03:04:05 GMT", header(response, "Last-Modified"));
+            assertNotNull(header(response, "ETag"));
+        }
+    }
+
+    @Test
+    void matchingEntityTagGets304() throws Exception {
+        PublicFile files = files();
+        String etag = files.getEntry("/static/index.html").getETag();
+        for (String header : new String[]{"If-None-Match: " + etag, "If-None-Match: \"other\", " + etag, "If-None-Match: W/" + etag, "If-None-Match: *"}) {
+            for (String response : get(files, header)) {
+                assertEquals(304, TestClient.status(response), header);
+                assertEquals(etag, header(response, "ETag"));
+                assertNull(header(response, "Content-Length"));
+                assertEquals("", TestClient.body(response));
+            }
+        }
+    }
+
+    @Test
+    void differentEntityTagGetsTheFile() throws Exception {
+        for (String response : get(files(), "If-None-Match: \"other\"")) assertEquals(200, TestClient.status(response));
+    }
+
+    @Test
+    void ifModifiedSinceIsComparedToTheFileTime() throws Exception {
+        PublicFile files = files();
+        String modified = "Tue, 02 Jan 2024 03:04:05 GMT";
+        String earlier = "Tue, 02 Jan 2024 03:03:05 GMT";
+        for (String response : get(files, "If-Modified-Since: " + modified)) assertEquals(304, TestClient.status(response));
+        for (String response : get(files, "If-Modified-Since: " + earlier)) assertEquals(200, TestClient.status(response));
+        // If-None-Match takes precedence when both are sent.
+        for (String response : get(files, "If-None-Match: \"other\"", "If-Modified-Since: " + modified)) {
+            assertEquals(200, TestClient.status(response));
+        }
+    }
+
+    @Test
+    void entityTagFollowsTheContent() throws Exception {
+        String before = files().getEntry("/static/index.html").getETag();
+        Files.write(directory.resolve("index.html"), CONTENT.replace('p', 'q').getBytes(StandardCharsets.UTF_8));
+        PublicFile changed = new PublicFile(null, directory.toString(), "/static/", 1, 0);
+        assertFalse(before.equals(changed.getEntry("/static/index.html").getETag()));
+    }
+
+    @Test
+    void compressedCopyIsServedToClientsAcceptingGzip() throws Exception {
+        PublicFile files = files().compress(true);
+        for (String response : get(files, "Accept-Encoding: gzip")) {
+            assertEquals("gzip", header(response, "Content-Encoding"));
+            assertEquals("Accept-Encoding", header(response, "Vary"));
+            byte[] body = TestClient.body(response).getBytes(StandardCharsets.ISO_8859_1);
+            assertEquals(String.valueOf(body.length), header(response, "Content-Length"));
+            try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+                assertEquals(CONTENT, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        for (String response : get(files)) {
+            assertNull(header(response, "Content-Encoding"));
+            assertEquals("Accept-Encoding", header(response, "Vary"));
+            assertEquals(CONTENT, TestClient.body(response));
+        }
+    }
+
+    @Test
+    void precompressedSiblingIsServedAsAVariant() throws Exception {
+        Files.write(directory.resolve("index.html.br"), new byte[]{1, 2, 3});
+        PublicFile files = files();
+        assertNull(files.getEntry("/static/index.html.br"));
+        for (String response : get(files, "Accept-Encoding: gzip, br")) {
+            assertEquals("br", header(response, "Content-Encoding"));
+            assertEquals("text/html", header(response, "Content-Type"));
+            assertEquals("\u0001\u0002\u0003", TestClient.body(response));
+        }
+        for (String response : get(files, "Accept-Encoding: gzip")) {
+            assertNull(header(response, "Content-Encoding"));
+            assertEquals(CONTENT, TestClient.body(response));
+        }
+    }
+
+    @Test
+    void notModifiedVariesByEncoding() throws Exception {
+        PublicFile files = files().compress(true);
+        String etag = files.getEntry("/static/index.html").select("gzip").getETag();
+        assertFalse(etag.equals(files.getEntry("/static/index.html").getETag()));
+        for (String response : get(files, "Accept-Encoding: gzip", "If-None-Match: " + etag)) {
+            assertEquals(304, TestClient.status(response));
+            assertEquals("Accept-Encoding", header(response, "Vary"));
+        }
+    }
+
+    @Test
+    void singleRangeGets206() throws Exception {
+        for (String response : get(files(), "Range: bytes=12-23")) {
+            assertEquals(206, TestClient.status(response));
+            assertEquals("bytes 12-23/" + CONTENT.length(), header(response, "Content-Range"));
+            assertEquals("12", header(response, "Content-Length"));
+            assertEquals(CONTENT.substring(12, 24), TestClient.body(response));
+        }
+    }
+
+    @Test
+    void multipleRangesGetAMultipartResponse() throws Exception {
+        for (String response : get(files(), "Range: bytes=0-5, -14")) {
+            assertEquals(206, TestClient.status(response));
+            String type = header(response, "Content-Type");
+            assertTrue(type.startsWith("multipart/byteranges; boundary="));
+            String boundary = type.substring(type.indexOf('=') + 1);
+            String body = TestClient.body(response);
+            assertEquals(String.valueOf(body.length()), header(response, "Content-Length"));
+            int tail = CONTENT.length() - 14;
+            assertEquals("\r\n--" + boundary + "\r\nContent-Type: text/html\r\nContent-Range: bytes 0-5/" + CONTENT.length() + "\r\n\r\n"
+                    + CONTENT.substring(0, 6)
+                    + "\r\n--" + boundary + "\r\nContent-Type: text/html\r\nContent-Range: bytes " + tail + "-" + (CONTENT.length() - 1)
+                    + "/" + CONTENT.length() + "\r\n\r\n" + CONTENT.substring(tail)
+                    + "\r\n--" + boundary + "--\r\n", body);
+        }
+    }
+
+    @Test
+    void unsatisfiableRangeGets416() throws Exception {
+        for (String response : get(files(), "Range: bytes=5000-")) {
+            assertEquals(416, TestClient.status(response));
+            assertEquals("bytes */" + CONTENT.length(), header(response, "Content-Range"));
+        }
+    }
+
+    @Test
+    void staleIfRangeGetsTheWholeFile() throws Exception {
+        PublicFile files = files();
+        String etag = files.getEntry("/static/index.html").getETag();
+        for (String response : get(files, "Range: bytes=0-9", "If-Range: " + etag)) assertEquals(206, TestClient.status(response));
+        for (String response : get(files, "Range: bytes=0-9", "If-Range: \"stale\"")) {
+            assertEquals(200, TestClient.status(response));
+            assertEquals(CONTENT, TestClient.body(response));
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package cat.ella.aweb;
+
+import cat.ella.aweb.api.PublicFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A watched directory: files created, changed and deleted after start are picked up, and served, over both transports.
+ */
+public class PublicFileWatchTest {
+    private static final int PORT = 18460;
+    /**
+     * Each server gets its own port, since a stopped server may release its port asynchronously.
+     */
+    private static int nextPort = PORT;
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Poll every server until its response to a GET satisfies the expectation. The index is swapped
+     * before the route tables are recompiled, so only the response shows that both have caught up.
+     *
+     * @return The last responses.
+     */
+    private static List<String> awaitServed(List<Integer> ports, String path, Predicate<String> expected, String description) throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (true) {
+            List<String> responses = new ArrayList<>();
+            for (int port : ports) responses.add(TestClient.send(port, "GET " + path + " HTTP/1.1\r\nHost: x\r\nConnection: close\r\n\r\n"));
+            if (responses.stream().allMatch(expected)) return responses;
+            if (System.currentTimeMillis() > deadline) fail("Timed out waiting until " + description + ": " + responses);
+            Thread.sleep(20);
+        }
+    }
+
+    private void refreshesCreatedChangedAndDeletedFiles(long cacheBytes) throws Exception {
+        PublicFile files = new PublicFile(null, directory.toString(), "/w/", 1, 1, cacheBytes).watch();
+        List<WebServer> servers = new ArrayList<>();
+        List<Integer> ports = new ArrayList<>();
+        try {
+            for (WebServer.Transport transport : WebServer.Transport.values()) {
+                int port = nextPort++;
+                WebServer server = new WebServer(port).transport(transport);
+                server.add(files);
+                servers.add(TestClient.start(server, port));
+                ports.add(port);
+            }
+            awaitServed(ports, "/w/a.txt", response -> TestClient.status(response) == 404, "a.txt is missing");
+
+            Files.writeString(directory.resolve("a.txt"), "one");
+            awaitServed(ports, "/w/a.txt", response -> TestClient.body(response).equals("one"), "a.txt is created");
+
+            Files.writeString(directory.resolve("a.txt"), "second");
+            // Until the entry is reloaded, the new contents are sent under a rebuilt head without validators.
+            String etag = files.getEntry("/w/a.txt").getETag();
+            for (String response : awaitServed(ports, "/w/a.txt", response -> TestClient.body(response).equals("second")
+                    && response.contains("ETag: "), "a.txt is changed")) {
+                assertTrue(response.contains("Content-Length: 6"), response);
+                assertFalse(response.contains(etag), response);
+            }
+
+            Files.createDirectories(directory.resolve("sub"));
+            Files.writeString(directory.resolve("sub/b.txt"), "nested");
+            awaitServed(ports, "/w/sub/b.txt", response -> TestClient.body(response).equals("nested"), "sub/b.txt is created");
+
+            Files.delete(directory.resolve("a.txt"));
+            // Requests arriving before the entry is dropped find the file gone, and get a 404 all the same.
+            awaitServed(ports, "/w/a.txt", response -> TestClient.status(response) == 404 && files.getEntry("/w/a.txt") == null, "a.txt is deleted");
+            assertNotNull(files.getEntry("/w/sub/b.txt"));
+        } finally {
+            files.stopWatching();
+            for (WebServer server : servers) server.stop();
+        }
+    }
+
+    @Test
+    void refreshesCreatedChangedAndDeletedFiles() throws Exception {
+        refreshesCreatedChangedAndDeletedFiles(0);
+    }
+
+    @Test
+    void refreshesLazyFilesPastTheirCachedContents() throws Exception {
+        refreshesCreatedChangedAndDeletedFiles(1024);
+    }
+}
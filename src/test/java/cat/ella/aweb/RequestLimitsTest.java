@@ -0,0 +1,242 @@
+package cat.ella.aweb;
+
+import cat.ella.aweb.annotations.Route;
+import cat.ella.aweb.annotations.WebService;
+import cat.ella.aweb.api.FormattedRequest;
+import cat.ella.aweb.api.FormattedResponse;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Malformed and oversized requests, answered the same way by both transports.
+ */
+public class RequestLimitsTest {
+    private static final int PORT = 18310;
+    /**
+     * Each server gets its own port, since a stopped server may release its port asynchronously.
+     */
+    private static int nextPort = PORT;
+
+    @WebService(port = PORT)
+    @Route(path = "/count")
+    public byte[] count(FormattedRequest request) throws IOException {
+        long count = 0;
+        InputStream body = request.getBodyStream();
+        if (body != null) {
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = body.read(buffer)) != -1) count += read;
+        }
+        return new FormattedResponse().contentType("text/plain").content("count=" + count).build();
+    }
+
+    private static Socket connect(int port) throws IOException {
+        Socket socket = new Socket();
+        socket.connect(new InetSocketAddress("127.0.0.1", port), 1_000);
+        socket.setSoTimeout(5_000);
+        return socket;
+    }
+
+    private static void write(Socket socket, String data) throws IOException {
+        socket.getOutputStream().write(data.getBytes(StandardCharsets.ISO_8859_1));
+        socket.getOutputStream().flush();
+    }
+
+    private static String readAll(Socket socket) throws IOException {
+        return new String(socket.getInputStream().readAllBytes(), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Wait until the server has accepted and counted the given connections; both happen asynchronously.
+     */
+    private static void awaitConnections(WebServer server, long accepted, int open) throws InterruptedException {
+        ConnectionStats stats = server.connectionStats();
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (stats.accepted() != accepted || stats.open() != open) {
+            assertTrue(System.currentTimeMillis() < deadline, "Accepted " + stats.accepted() + " and open " + stats.open()
+                    + ", expected " + accepted + " and " + open);
+            Thread.sleep(10);
+        }
+    }
+
+    private String send(WebServer.Transport transport, Consumer<WebServer> configure, String request) throws Exception {
+        int port = nextPort++;
+        WebServer server = new WebServer(port).transport(transport).addService(this);
+        configure.accept(server);
+        TestClient.start(server, port);
+        try {
+            return TestClient.send(port, request);
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    void readsBodies() throws Exception {
+        for (WebServer.Transport transport : WebServer.Transport.values()) {
+            String fixed = send(transport, server -> {
+            }, "POST /count HTTP/1.1\r\nHost: x\r\nConnection: close\r\nContent-Length: 5\r\n\r\nhello");
+            assertEquals("count=5", TestClient.body(fixed));
+            String chunked = send(transport, server -> {
+            }, "POST /count HTTP/1.1\r\nHost: x\r\nConnection: close\r\nTransfer-Encoding: chunked\r\n\r\n3\r\nabc\r\n2\r\nde\r\n0\r\n\r\n");
+            assertEquals("count=5", TestClient.body(chunked));
+        }
+    }
+
+    @Test
+    void malformedRequestsGet400() throws Exception {
+        for (WebServer.Transport transport : WebServer.Transport.values()) {
+            assertEquals(400, TestClient.status(send(transport, server -> {
+            }, "GARBAGE\r\n\r\n")), transport.name());
+            assertEquals(400, TestClient.status(send(transport, server -> {
+            }, "POST /count HTTP/1.1\r\nHost: x\r\nContent-Length: nope\r\n\r\n")), transport.name());
+            assertEquals(400, TestClient.status(send(transport, server -> {
+            }, "POST /count HTTP/1.1\r\nHost: x\r\nContent-Length: 3\r\nTransfer-Encoding: chunked\r\n\r\n0\r\n\r\n")), transport.name());
+        }
+    }
+
+    @Test
+    void oversizedBodiesGet413() throws Exception {
+        for (WebServer.Transport transport : WebServer.Transport.values()) {
+            // Refused from the declared length, before any of the body is read.
+            assertEquals(413, TestClient.status(send(transport, server -> server.maxBodySize(4),
+                    "POST /count HTTP/1.1\r\nHost: x\r\nContent-Length: 100\r\n\r\n")), transport.name());
+            // A chunked body is refused once more than the limit has arrived.
+            assertEquals(413, TestClient.status(send(transport, server -> server.maxBodySize(4),
+                    "POST /count HTTP/1.1\r\nHost: x\r\nTransfer-Encoding: chunked\r\n\r\n3\r\nabc\r\n3\r\ndef\r\n0\r\n\r\n")), transport.name());
+        }
+    }
+
+    @Test
+    void oversizedHeadsGet431() throws Exception {
+        String padding = "X-Padding: " + "p".repeat(200) + "\r\n";
+        StringBuilder manyHeaders = new StringBuilder();
+        for (int i = 0; i < 5; i++) manyHeaders.append("X-Header-").append(i).append(": ").append(i).append("\r\n");
+        for (WebServer.Transport transport : WebServer.Transport.values()) {
+            assertEquals(431, TestClient.status(send(transport, server -> server.maxHeadSize(128),
+                    "GET /count HTTP/1.1\r\nHost: x\r\n" + padding + "\r\n")), transport.name());
+            assertEquals(431, TestClient.status(send(transport, server -> server.maxHeaderCount(4),
+                    "GET /count HTTP/1.1\r\nHost: x\r\n" + manyHeaders + "\r\n")), transport.name());
+            // Within both limits the request is served.
+            assertEquals(200, TestClient.status(send(transport, server -> server.maxHeadSize(512).maxHeaderCount(8),
+                    "GET /count HTTP/1.1\r\nHost: x\r\nConnection: close\r\n" + manyHeaders + "\r\n")), transport.name());
+        }
+    }
+
+    @Test
+    void expectContinueGets100BeforeTheBody() throws Exception {
+        for (WebServer.Transport transport : WebServer.Transport.values()) {
+            int port = nextPort++;
+            WebServer server = new WebServer(port).transport(transport).addService(this);
+            TestClient.start(server, port);
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress("127.0.0.1", port), 1_000);
+                // Far shorter than a client's own wait before sending the body anyway.
+                socket.setSoTimeout(2_000);
+                OutputStream out = socket.getOutputStream();
+                out.write("POST /count HTTP/1.1\r\nHost: x\r\nConnection: close\r\nExpect: 100-continue\r\nContent-Length: 5\r\n\r\n"
+                        .getBytes(StandardCharsets.ISO_8859_1));
+                out.flush();
+
+                InputStream in = socket.getInputStream();
+                ByteArrayOutputStream interim = new ByteArrayOutputStream();
+                while (!interim.toString(StandardCharsets.ISO_8859_1).endsWith("\r\n\r\n")) {
+                    int read = in.read();
+                    assertTrue(read != -1, transport.name());
+                    interim.write(read);
+                }
+                assertEquals("HTTP/1.1 100 Continue\r\n\r\n", interim.toString(StandardCharsets.ISO_8859_1), transport.name());
+
+                out.write("hello".getBytes(StandardCharsets.ISO_8859_1));
+                out.flush();
+                String response = new String(in.readAllBytes(), StandardCharsets.ISO_8859_1);
+                assertEquals(200, TestClient.status(response), transport.name());
+                assertEquals("count=5", TestClient.body(response), transport.name());
+            } finally {
+                server.stop();
+            }
+        }
+    }
+
+    @Test
+    void connectionsResetOnArrivalDoNotStopAccepting() throws Exception {
+        for (WebServer.Transport transport : WebServer.Transport.values()) {
+            int port = nextPort++;
+            WebServer server = new WebServer(port).transport(transport).addService(this);
+            TestClient.start(server, port);
+            try {
+                for (int i = 0; i < 50; i++) {
+                    Socket socket = new Socket();
+                    socket.connect(new InetSocketAddress("127.0.0.1", port), 5_000);
+                    // Close with a reset instead of a FIN.
+                    socket.setSoLinger(true, 0);
+                    socket.close();
+                }
+                String response = TestClient.send(port, "GET /count HTTP/1.1\r\nHost: x\r\nConnection: close\r\n\r\n");
+                assertEquals(200, TestClient.status(response), transport.name());
+            } finally {
+                server.stop();
+            }
+        }
+    }
+
+    @Test
+    void slowHeadsGet408() throws Exception {
+        for (WebServer.Transport transport : WebServer.Transport.values()) {
+            int port = nextPort++;
+            WebServer server = new WebServer(port).transport(transport).addService(this).headerTimeout(200, TimeUnit.MILLISECONDS);
+            TestClient.start(server, port);
+            try (Socket socket = connect(port)) {
+                long started = System.nanoTime();
+                write(socket, "GET /count HTTP/1.1\r\nHost: x\r\n");
+                String response = readAll(socket);
+                assertEquals(408, TestClient.status(response), transport.name() + ": " + response);
+                assertTrue(System.nanoTime() - started >= TimeUnit.MILLISECONDS.toNanos(200), transport.name());
+                assertEquals(1, server.connectionStats().headerTimeouts(), transport.name());
+            } finally {
+                server.stop();
+            }
+        }
+    }
+
+    @Test
+    void connectionsOverTheLimitGet503() throws Exception {
+        for (WebServer.Transport transport : WebServer.Transport.values()) {
+            int port = nextPort++;
+            WebServer server = new WebServer(port).transport(transport).addService(this).maxConnections(1);
+            TestClient.start(server, port);
+            try {
+                // The connection start() probes with must be gone before the one slot can be taken.
+                awaitConnections(server, 1, 0);
+                try (Socket held = connect(port)) {
+                    write(held, "GET /count HTTP/1.1\r\n");
+                    awaitConnections(server, 2, 1);
+                    try (Socket rejected = connect(port)) {
+                        String response = readAll(rejected);
+                        assertEquals(503, TestClient.status(response), transport.name() + ": " + response);
+                    }
+                    assertEquals(1, server.connectionStats().rejected(), transport.name());
+
+                    // The connection holding the slot is served as usual.
+                    write(held, "Host: x\r\nConnection: close\r\n\r\n");
+                    assertEquals("count=0", TestClient.body(readAll(held)), transport.name());
+                }
+                awaitConnections(server, 2, 0);
+                assertEquals(200, TestClient.status(TestClient.send(port, "GET /count HTTP/1.1\r\nHost: x\r\nConnection: close\r\n\r\n")), transport.name());
+            } finally {
+                server.stop();
+            }
+        }
+    }
+}
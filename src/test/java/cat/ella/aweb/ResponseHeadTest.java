@@ -0,0 +1,70 @@
+package cat.ella.aweb;
+
+import cat.ella.aweb.api.FormattedResponse;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResponseHeadTest {
+    private static final String TEXT = "compressible text ".repeat(100);
+
+    private static String head(byte[] response) {
+        String text = new String(response, StandardCharsets.ISO_8859_1);
+        return text.substring(0, text.indexOf("\r\n\r\n") + 4);
+    }
+
+    private static byte[] body(byte[] response) {
+        return Arrays.copyOfRange(response, head(response).length(), response.length);
+    }
+
+    @Test
+    void gzipsWhenAccepted() throws Exception {
+        byte[] response = new FormattedResponse().contentType("text/plain").content(TEXT).build();
+        byte[] gzipped = ResponseHead.gzip(response, "gzip, deflate", 256);
+
+        String head = head(gzipped);
+        assertTrue(head.contains("Content-Encoding: gzip\r\n"));
+        assertTrue(head.contains("Vary: Accept-Encoding\r\n"));
+        assertTrue(head.contains("Content-Length: " + body(gzipped).length + "\r\n"));
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(body(gzipped)))) {
+            assertEquals(TEXT, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void addsVaryEvenWhenNotAccepted() {
+        byte[] response = new FormattedResponse().contentType("text/plain").addHeader("Vary", "Origin").content(TEXT).build();
+        byte[] result = ResponseHead.gzip(response, null, 256);
+        assertTrue(head(result).contains("Vary: Origin, Accept-Encoding\r\n"));
+        assertFalse(head(result).contains("Content-Encoding"));
+        assertEquals(TEXT, new String(body(result), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void leavesIneligibleResponsesAlone() {
+        byte[] small = new FormattedResponse().contentType("text/plain").content("short").build();
+        assertSame(small, ResponseHead.gzip(small, "gzip", 256));
+
+        byte[] binary = new FormattedResponse().contentType("image/png").content(TEXT).build();
+        assertSame(binary, ResponseHead.gzip(binary, "gzip", 256));
+
+        byte[] encoded = new FormattedResponse().contentType("text/plain").addHeader("Content-Encoding", "br").content(TEXT).build();
+        assertSame(encoded, ResponseHead.gzip(encoded, "gzip", 256));
+
+        byte[] noContent = new FormattedResponse().statusCode(204).statusMessage("No Content").build();
+        assertSame(noContent, ResponseHead.gzip(noContent, "gzip", 0));
+    }
+
+    @Test
+    void framing() {
+        assertTrue(ResponseHead.isFramed(new FormattedResponse().content("x").build()));
+        assertTrue(ResponseHead.isFramed(new FormattedResponse().statusCode(204).statusMessage("No Content").build()));
+        assertFalse(ResponseHead.isFramed("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\n\r\nbody".getBytes(StandardCharsets.ISO_8859_1)));
+        assertTrue(ResponseHead.isFramed("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1)));
+    }
+}
@@ -0,0 +1,128 @@
+package cat.ella.aweb;
+
+import cat.ella.aweb.api.FormattedRequest;
+import cat.ella.aweb.api.RequestParser;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RouteTableTest {
+    private final List<RouteBinding> routes = new ArrayList<>();
+    private final List<RouteBinding> captures = new ArrayList<>();
+
+    private RouteTableTest route(String path) {
+        routes.add(RouteBinding.route(0, path, path, false, false, request -> new byte[0]));
+        return this;
+    }
+
+    private RouteTableTest capture(String verb, String path) {
+        captures.add(RouteBinding.capture(0, verb + " " + path, path, verb, request -> {
+        }));
+        return this;
+    }
+
+    private static FormattedRequest request(String verb, String target) {
+        byte[] head = (verb + " " + target + " HTTP/1.1\r\nHost: x\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        return new FormattedRequest(new RequestParser(8192).parse(head, 0, head.length), new byte[0]);
+    }
+
+    /**
+     * @return The name of the route, or failing that the capture, serving the request; null if none.
+     */
+    private String lookup(FormattedRequest request) {
+        RouteTable.Entry entry = RouteTable.compile(routes, captures, List.of()).lookup(request);
+        if (entry == null) return null;
+        if (entry.route() != null) return entry.route().name();
+        RouteBinding capture = entry.capture(request.getMethod());
+        return capture == null ? null : capture.name();
+    }
+
+    private String lookup(String verb, String target) {
+        return lookup(request(verb, target));
+    }
+
+    @Test
+    void exactBeatsTemplateBeatsWildcard() {
+        route("/users/me").route("/users/{id}").route("/users/*");
+        assertEquals("/users/me", lookup("GET", "/users/me"));
+        assertEquals("/users/{id}", lookup("GET", "/users/42"));
+        assertEquals("/users/*", lookup("GET", "/users/42/orders"));
+        assertNull(lookup("GET", "/other"));
+    }
+
+    @Test
+    void literalSegmentBeatsParameter() {
+        route("/users/{id}/orders").route("/users/me/{section}").route("/users/{id}/profile/{field}").route("/users/me/settings");
+        assertEquals("/users/me/{section}", lookup("GET", "/users/me/orders"));
+        // Backtracks to the parameter when the literal branch has no match.
+        assertEquals("/users/{id}/profile/{field}", lookup("GET", "/users/me/profile/name"));
+    }
+
+    @Test
+    void parametersAreBound() {
+        route("/users/{id}/orders/{orderId}");
+        FormattedRequest request = request("GET", "/users/7/orders/a%20b");
+        assertEquals("/users/{id}/orders/{orderId}", lookup(request));
+        assertEquals(7, request.getParameters().getInt("id"));
+        assertEquals("a b", request.getParameter("orderId"));
+    }
+
+    @Test
+    void wildcardBindsTheRestOfThePath() {
+        route("/files/*");
+        FormattedRequest nested = request("GET", "/files/a/b.txt");
+        assertEquals("/files/*", lookup(nested));
+        assertEquals("a/b.txt", nested.getParameter("*"));
+
+        FormattedRequest bare = request("GET", "/files");
+        assertEquals("/files/*", lookup(bare));
+        assertEquals("", bare.getParameter("*"));
+    }
+
+    @Test
+    void exactCaptureDoesNotShadowTemplateForOtherMethods() {
+        capture("POST", "/users/me").route("/users/{id}");
+        assertEquals("POST /users/me", lookup("POST", "/users/me"));
+        FormattedRequest request = request("GET", "/users/me");
+        assertEquals("/users/{id}", lookup(request));
+        assertEquals("me", request.getParameter("id"));
+    }
+
+    @Test
+    void exactCaptureFallsBackToWildcardWithItsParameter() {
+        capture("POST", "/static/upload").route("/static/*");
+        FormattedRequest request = request("GET", "/static/upload");
+        assertEquals("/static/*", lookup(request));
+        assertEquals("upload", request.getParameter("*"));
+    }
+
+    @Test
+    void templateCaptureDoesNotShadowWildcardForOtherMethods() {
+        capture("PUT", "/items/{id}").route("/items/*");
+        assertEquals("PUT /items/{id}", lookup("PUT", "/items/3"));
+        assertEquals("/items/*", lookup("GET", "/items/3"));
+    }
+
+    @Test
+    void unhandledMethodStillFindsTheExactEntry() {
+        capture("POST", "/events");
+        assertNull(lookup("GET", "/events"));
+        assertNotNull(RouteTable.compile(routes, captures, List.of()).lookup(request("GET", "/events")));
+    }
+
+    @Test
+    void conflictingParameterNamesAreRejected() {
+        route("/users/{id}").route("/users/{name}");
+        assertThrows(IllegalArgumentException.class, () -> RouteTable.compile(routes, captures, List.of()));
+    }
+
+    @Test
+    void parameterMustBeAWholeSegment() {
+        route("/users/id{id}");
+        assertThrows(IllegalArgumentException.class, () -> RouteTable.compile(routes, captures, List.of()));
+    }
+}
@@ -0,0 +1,174 @@
+package cat.ella.aweb;
+
+import cat.ella.aweb.annotations.Route;
+import cat.ella.aweb.annotations.WebService;
+import cat.ella.aweb.api.FormattedRequest;
+import cat.ella.aweb.api.ResponseStream;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Responses written through a {@link ResponseStream}, over both transports: chunk framing, buffered
+ * bodies sent with a length, HEAD, HTTP/1.0 and handlers failing after the head was sent.
+ */
+public class StreamingResponseTest {
+    private static final int PORT = 18420;
+    private static final String LARGE = "0123456789abcdef".repeat(BufferPool.BUFFER_SIZE / 16 * 2 + 1);
+    /**
+     * Each server gets its own port, since a stopped server may release its port asynchronously.
+     */
+    private static int nextPort = PORT;
+
+    @WebService(port = PORT)
+    @Route(path = "/chunks")
+    public void chunks(FormattedRequest request, ResponseStream response) throws IOException {
+        response.contentType("text/plain");
+        response.write("alpha").flush();
+        response.write("beta").flush();
+    }
+
+    @WebService(port = PORT)
+    @Route(path = "/small")
+    public void small(FormattedRequest request, ResponseStream response) throws IOException {
+        response.contentType("text/plain").write("small");
+    }
+
+    @WebService(port = PORT)
+    @Route(path = "/large")
+    public void large(FormattedRequest request, ResponseStream response) throws IOException {
+        response.write(LARGE);
+    }
+
+    @WebService(port = PORT)
+    @Route(path = "/fixed")
+    public void fixed(FormattedRequest request, ResponseStream response) throws IOException {
+        response.contentLength(4).write("abcd").flush();
+    }
+
+    @WebService(port = PORT)
+    @Route(path = "/fails")
+    public void fails(FormattedRequest request, ResponseStream response) throws IOException {
+        response.write("partial").flush();
+        throw new IllegalStateException("failed after the head was sent");
+    }
+
+    /**
+     * Send the requests to a fresh server on each transport.
+     *
+     * @return The raw responses: blocking first, then selector.
+     */
+    private String[] send(String request) throws Exception {
+        String[] responses = new String[WebServer.Transport.values().length];
+        for (WebServer.Transport transport : WebServer.Transport.values()) {
+            int port = nextPort++;
+            WebServer server = new WebServer(port).transport(transport).addService(this);
+            TestClient.start(server, port);
+            try {
+                responses[transport.ordinal()] = TestClient.send(port, request);
+            } finally {
+                server.stop();
+            }
+        }
+        return responses;
+    }
+
+    private static String get(String path) {
+        return "GET " + path + " HTTP/1.1\r\nHost: x\r\nConnection: close\r\n\r\n";
+    }
+
+    private static String head(String response) {
+        return response.substring(0, response.indexOf("\r\n\r\n") + 4);
+    }
+
+    /**
+     * Decode a chunked body, failing on any framing error.
+     *
+     * @return The decoded body, and whatever follows the last chunk after a "|".
+     */
+    private static String dechunk(String body) {
+        StringBuilder decoded = new StringBuilder();
+        int position = 0;
+        while (true) {
+            int lineEnd = body.indexOf("\r\n", position);
+            assertTrue(lineEnd != -1, "Unterminated chunk size in " + body);
+            int size = Integer.parseInt(body.substring(position, lineEnd), 16);
+            position = lineEnd + 2;
+            if (size == 0) {
+                assertEquals("\r\n", body.substring(position, Math.min(body.length(), position + 2)), "Missing final CRLF");
+                return decoded.append('|').append(body.substring(position + 2)).toString();
+            }
+            decoded.append(body, position, position + size);
+            position += size;
+            assertEquals("\r\n", body.substring(position, position + 2), "Chunk not followed by CRLF");
+            position += 2;
+        }
+    }
+
+    @Test
+    void flushedWritesAreSentAsChunks() throws Exception {
+        for (String response : send(get("/chunks"))) {
+            assertTrue(head(response).contains("Transfer-Encoding: chunked\r\n"), response);
+            assertFalse(head(response).contains("Content-Length"), response);
+            assertEquals("5\r\nalpha\r\n4\r\nbeta\r\n0\r\n\r\n", TestClient.body(response));
+            assertEquals("alphabeta|", dechunk(TestClient.body(response)));
+        }
+    }
+
+    @Test
+    void bodyLargerThanTheBufferIsChunked() throws Exception {
+        for (String response : send(get("/large"))) {
+            assertTrue(head(response).contains("Transfer-Encoding: chunked\r\n"), head(response));
+            assertEquals(LARGE + "|", dechunk(TestClient.body(response)));
+        }
+    }
+
+    @Test
+    void bufferedBodyIsSentWithALength() throws Exception {
+        for (String response : send(get("/small"))) {
+            assertTrue(head(response).contains("Content-Length: 5\r\n"), response);
+            assertFalse(head(response).contains("Transfer-Encoding"), response);
+            assertEquals("small", TestClient.body(response));
+        }
+        for (String response : send(get("/fixed"))) {
+            assertTrue(head(response).contains("Content-Length: 4\r\n"), response);
+            assertFalse(head(response).contains("Transfer-Encoding"), response);
+            assertEquals("abcd", TestClient.body(response));
+        }
+    }
+
+    @Test
+    void headGetsNoChunksOnAPersistentConnection() throws Exception {
+        for (String response : send("HEAD /chunks HTTP/1.1\r\nHost: x\r\n\r\n" + get("/small"))) {
+            String first = head(response);
+            assertTrue(first.startsWith("HTTP/1.1 200"), response);
+            // The next response starts right after the head: no chunks, and no last chunk either.
+            String rest = response.substring(first.length());
+            assertTrue(rest.startsWith("HTTP/1.1 200"), response);
+            assertEquals("small", TestClient.body(rest));
+        }
+    }
+
+    @Test
+    void http10BodyEndsWithTheConnection() throws Exception {
+        for (String response : send("GET /large HTTP/1.0\r\nHost: x\r\n\r\n")) {
+            assertTrue(head(response).contains("Connection: close\r\n"), head(response));
+            assertFalse(head(response).contains("Transfer-Encoding"), head(response));
+            assertEquals(LARGE, TestClient.body(response));
+        }
+    }
+
+    @Test
+    void failureAfterTheHeadClosesTheConnection() throws Exception {
+        // The second request must not be answered: the first response can only be ended by closing.
+        for (String response : send("GET /fails HTTP/1.1\r\nHost: x\r\n\r\n" + get("/small"))) {
+            assertTrue(head(response).contains("Transfer-Encoding: chunked\r\n"), response);
+            String body = TestClient.body(response);
+            assertTrue(body.startsWith("7\r\npartial\r\n"), body);
+            assertFalse(body.contains("0\r\n\r\n"), body);
+            assertFalse(body.contains("HTTP/1.1"), body);
+        }
+    }
+}
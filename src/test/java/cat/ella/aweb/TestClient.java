@@ -0,0 +1,73 @@
+package cat.ella.aweb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Raw-socket helpers for tests that talk to a running {@link WebServer}.
+ */
+final class TestClient {
+    private TestClient() {
+    }
+
+    /**
+     * Start a server and wait until it accepts connections on its port.
+     */
+    static WebServer start(WebServer server, int port) throws IOException, InterruptedException {
+        server.start();
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (true) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress("127.0.0.1", port), 500);
+                return server;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) throw e;
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    /**
+     * Send raw request bytes and read until the server closes the connection.
+     *
+     * @return The whole response, decoded as ISO-8859-1.
+     */
+    static String send(int port, String request) throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress("127.0.0.1", port), 1_000);
+            socket.setSoTimeout(5_000);
+            socket.getOutputStream().write(request.getBytes(StandardCharsets.ISO_8859_1));
+            socket.getOutputStream().flush();
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            try {
+                while ((read = in.read(buffer)) != -1) response.write(buffer, 0, read);
+            } catch (IOException e) {
+                // A reset after the response was sent still leaves the response to check.
+                if (response.size() == 0) throw e;
+            }
+            return response.toString(StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    /**
+     * @return The status code of a raw response, or -1 if there is none.
+     */
+    static int status(String response) {
+        return response.length() < 12 ? -1 : Integer.parseInt(response.substring(9, 12));
+    }
+
+    /**
+     * @return The body of a raw response that is not chunked.
+     */
+    static String body(String response) {
+        int end = response.indexOf("\r\n\r\n");
+        return end == -1 ? "" : response.substring(end + 4);
+    }
+}
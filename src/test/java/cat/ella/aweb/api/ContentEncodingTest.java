@@ -0,0 +1,66 @@
+package cat.ella.aweb.api;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ContentEncodingTest {
+    private static final List<String> BOTH = List.of(ContentEncoding.GZIP, ContentEncoding.BROTLI);
+
+    @Test
+    void prefersBrotliWhenWeighedEqually() {
+        assertEquals("br", ContentEncoding.negotiate("gzip, deflate, br", BOTH));
+        assertEquals("gzip", ContentEncoding.negotiate("gzip, deflate", BOTH));
+    }
+
+    @Test
+    void followsQualityValues() {
+        assertEquals("gzip", ContentEncoding.negotiate("br;q=0.5, gzip;q=0.8", BOTH));
+        assertEquals("gzip", ContentEncoding.negotiate("br;q=0, gzip", BOTH));
+        assertNull(ContentEncoding.negotiate("br;q=0, gzip;q=0", BOTH));
+    }
+
+    @Test
+    void wildcardCoversUnlistedCodings() {
+        assertEquals("br", ContentEncoding.negotiate("*", BOTH));
+        assertEquals("gzip", ContentEncoding.negotiate("br;q=0, *", BOTH));
+        assertNull(ContentEncoding.negotiate("*;q=0", BOTH));
+    }
+
+    @Test
+    void xGzipCountsAsGzip() {
+        assertEquals("gzip", ContentEncoding.negotiate("x-gzip", BOTH));
+    }
+
+    @Test
+    void nothingToNegotiate() {
+        assertNull(ContentEncoding.negotiate(null, BOTH));
+        assertNull(ContentEncoding.negotiate("identity", BOTH));
+        assertNull(ContentEncoding.negotiate("gzip", List.of()));
+    }
+
+    @Test
+    void compressibleTypes() {
+        assertTrue(ContentEncoding.isCompressible("text/html; charset=utf-8"));
+        assertTrue(ContentEncoding.isCompressible("application/json"));
+        assertTrue(ContentEncoding.isCompressible("application/ld+json"));
+        assertTrue(ContentEncoding.isCompressible("image/svg+xml"));
+        assertFalse(ContentEncoding.isCompressible("image/png"));
+        assertFalse(ContentEncoding.isCompressible("application/zip"));
+        assertFalse(ContentEncoding.isCompressible(null));
+    }
+
+    @Test
+    void gzipRoundTrips() throws Exception {
+        byte[] data = "xx compress me xx".repeat(50).getBytes(StandardCharsets.UTF_8);
+        byte[] gzipped = ContentEncoding.gzip(data, 10, 100);
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+            assertEquals(new String(data, 10, 100, StandardCharsets.UTF_8), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package cat.ella.aweb.api;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FormattedRequestTest {
+
+    private static FormattedRequest request(String text) {
+        byte[] data = text.getBytes(StandardCharsets.ISO_8859_1);
+        return new FormattedRequest(new RequestParser(8192).parse(data, 0, data.length), new byte[0]);
+    }
+
+    @Test
+    void headerMapIgnoresCase() {
+        FormattedRequest request = request("GET / HTTP/1.1\r\nContent-Type: text/plain\r\nAccept: a\r\nAccept: b\r\n\r\n");
+        Headers headers = request.getHeaderMap();
+        assertEquals("text/plain", headers.get("content-type"));
+        assertEquals("a", headers.get("ACCEPT"));
+        assertEquals(List.of("a", "b"), headers.getAll("accept"));
+        assertEquals("text/plain", request.getHeader("CONTENT-TYPE"));
+        assertSame(headers, request.getHeaderMap());
+    }
+
+    @Test
+    void headersKeepTheirHashMapForm() {
+        FormattedRequest request = request("GET / HTTP/1.1\r\nContent-Type: text/plain\r\nAccept: a\r\nAccept: b\r\n\r\n");
+        HashMap<String, String> headers = request.getHeaders();
+        assertEquals("text/plain", headers.get("Content-Type"));
+        assertNull(headers.get("content-type"));
+        assertEquals("b", headers.get("Accept"));
+        assertEquals(2, headers.size());
+        assertSame(headers, request.getHeaders());
+    }
+
+    @Test
+    void headersFromLines() {
+        FormattedRequest request = new FormattedRequest(new ArrayList<>(List.of("GET /x HTTP/1.1", "Host: localhost")));
+        assertEquals("localhost", request.getHeaders().get("Host"));
+        assertEquals("localhost", request.getHeaderMap().get("host"));
+    }
+}
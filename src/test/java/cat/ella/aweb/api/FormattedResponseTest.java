@@ -0,0 +1,55 @@
+package cat.ella.aweb.api;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FormattedResponseTest {
+
+    private static String build(FormattedResponse response) {
+        return new String(response.build(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void emptyResponseDeclaresZeroLength() {
+        assertEquals("HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n", build(new FormattedResponse()));
+    }
+
+    @Test
+    void contentIsFramedByLength() {
+        String response = build(new FormattedResponse().contentType("text/plain").content("hello"));
+        assertTrue(response.contains("Content-Length: 5\r\n"));
+        assertTrue(response.endsWith("\r\n\r\nhello"));
+    }
+
+    @Test
+    void noContentHasNoLength() {
+        assertEquals("HTTP/1.1 204 No Content\r\n\r\n",
+                build(new FormattedResponse().statusCode(204).statusMessage("No Content")));
+    }
+
+    @Test
+    void notModifiedHasNoLengthOrBody() {
+        String response = build(new FormattedResponse().statusCode(304).statusMessage("Not Modified")
+                .addHeader("ETag", "\"abc\"").content("ignored"));
+        assertFalse(response.contains("Content-Length"));
+        assertTrue(response.endsWith("ETag: \"abc\"\r\n\r\n"));
+    }
+
+    @Test
+    void declaredLengthIsUsedForHeads() {
+        String head = new String(new FormattedResponse().contentLength(1024).buildHead(), StandardCharsets.UTF_8);
+        assertTrue(head.endsWith("Content-Length: 1024\r\n\r\n"));
+    }
+
+    @Test
+    void bodilessStatuses() {
+        assertTrue(FormattedResponse.isBodiless(100));
+        assertTrue(FormattedResponse.isBodiless(204));
+        assertTrue(FormattedResponse.isBodiless(304));
+        assertFalse(FormattedResponse.isBodiless(200));
+        assertFalse(FormattedResponse.isBodiless(404));
+    }
+}
@@ -0,0 +1,30 @@
+package cat.ella.aweb.api;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HttpDatesTest {
+    private static final long SECONDS = Instant.parse("2024-01-02T03:04:05Z").getEpochSecond();
+
+    @Test
+    void formatsImfFixdate() {
+        assertEquals("Tue, 02 Jan 2024 03:04:05 GMT", HttpDates.format(SECONDS));
+        assertEquals("Sun, 06 Nov 1994 08:49:37 GMT", HttpDates.format(Instant.parse("1994-11-06T08:49:37Z").getEpochSecond()));
+    }
+
+    @Test
+    void parsesWithOrWithoutTheLeadingZero() {
+        assertEquals(SECONDS, HttpDates.parse("Tue, 02 Jan 2024 03:04:05 GMT"));
+        assertEquals(SECONDS, HttpDates.parse("Tue, 2 Jan 2024 03:04:05 GMT"));
+        assertEquals(SECONDS, HttpDates.parse(HttpDates.format(SECONDS)));
+    }
+
+    @Test
+    void unparseableDatesGiveMinusOne() {
+        assertEquals(-1, HttpDates.parse("yesterday"));
+        assertEquals(-1, HttpDates.parse(""));
+    }
+}
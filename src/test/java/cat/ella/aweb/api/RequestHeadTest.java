@@ -0,0 +1,71 @@
+package cat.ella.aweb.api;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RequestHeadTest {
+
+    private static RequestHead head(String... headers) {
+        StringBuilder head = new StringBuilder("POST /upload HTTP/1.1\r\nHost: localhost\r\n");
+        for (String header : headers) head.append(header).append("\r\n");
+        byte[] bytes = head.append("\r\n").toString().getBytes(StandardCharsets.ISO_8859_1);
+        return new RequestParser(8192).parse(bytes, 0, bytes.length);
+    }
+
+    @Test
+    void contentLength() {
+        assertEquals(-1, head().getContentLength());
+        assertEquals(42, head("Content-Length: 42").getContentLength());
+        assertEquals(0, head("content-length: 0").getContentLength());
+    }
+
+    @Test
+    void repeatedEqualContentLengthsAreAccepted() {
+        assertEquals(5, head("Content-Length: 5", "Content-Length: 5").getContentLength());
+        assertEquals(5, head("Content-Length: 5, 5").getContentLength());
+    }
+
+    @Test
+    void conflictingContentLengthsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> head("Content-Length: 5", "Content-Length: 6").getContentLength());
+        assertThrows(IllegalArgumentException.class, () -> head("Content-Length: 5, 6").getContentLength());
+    }
+
+    @Test
+    void invalidContentLengthsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> head("Content-Length: -1").getContentLength());
+        assertThrows(IllegalArgumentException.class, () -> head("Content-Length: 12abc").getContentLength());
+        assertThrows(IllegalArgumentException.class, () -> head("Content-Length: 9999999999999999999").getContentLength());
+    }
+
+    @Test
+    void chunkedMustBeTheFinalCoding() {
+        assertFalse(head().isChunked());
+        assertTrue(head("Transfer-Encoding: chunked").isChunked());
+        assertTrue(head("Transfer-Encoding: gzip, CHUNKED").isChunked());
+        assertThrows(IllegalArgumentException.class, () -> head("Transfer-Encoding: xchunked").isChunked());
+        assertThrows(IllegalArgumentException.class, () -> head("Transfer-Encoding: chunked, gzip").isChunked());
+    }
+
+    @Test
+    void chunkedWithContentLengthIsRejected() {
+        assertThrows(IllegalArgumentException.class,
+                () -> head("Content-Length: 10", "Transfer-Encoding: chunked").isChunked());
+    }
+
+    @Test
+    void whitespaceBeforeColonIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> head("Content-Length : 10"));
+    }
+
+    @Test
+    void headerContainsMatchesWholeTokens() {
+        RequestHead head = head("Connection: keep-alive, Upgrade");
+        assertTrue(head.headerContains("connection", "upgrade"));
+        assertTrue(head.headerContains("Connection", "keep-alive"));
+        assertFalse(head.headerContains("Connection", "alive"));
+    }
+}
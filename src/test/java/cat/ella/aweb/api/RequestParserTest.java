@@ -0,0 +1,104 @@
+package cat.ella.aweb.api;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RequestParserTest {
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    @Test
+    void parsesRequestLineAndHeaders() {
+        byte[] data = bytes("GET /search?q=x HTTP/1.1\r\nHost: localhost\r\nX-Custom:  padded value \r\n\r\nbody");
+        RequestParser parser = new RequestParser(8192);
+        RequestHead head = parser.parse(data, 0, data.length);
+
+        assertNotNull(head);
+        assertEquals("GET", head.getMethod());
+        assertEquals("/search?q=x", head.getTarget());
+        assertEquals("HTTP/1.1", head.getHttpVersion());
+        assertEquals(2, head.getHeaderCount());
+        assertEquals("localhost", head.getHeader("host"));
+        assertEquals("padded value", head.getHeader("X-Custom"));
+        assertEquals(data.length - 4, parser.consumed());
+    }
+
+    @Test
+    void acceptsBareLineFeeds() {
+        byte[] data = bytes("GET / HTTP/1.0\nHost: localhost\n\n");
+        RequestHead head = new RequestParser(8192).parse(data, 0, data.length);
+        assertEquals("HTTP/1.0", head.getHttpVersion());
+        assertEquals("localhost", head.getHeader("Host"));
+    }
+
+    @Test
+    void resumesAsBytesArrive() {
+        byte[] data = bytes("POST /upload HTTP/1.1\r\nContent-Length: 3\r\n\r\n");
+        RequestParser parser = new RequestParser(8192);
+        for (int limit = 1; limit < data.length; limit++) assertNull(parser.parse(data, 0, limit));
+        RequestHead head = parser.parse(data, 0, data.length);
+        assertEquals("POST", head.getMethod());
+        assertEquals(3, head.getContentLength());
+    }
+
+    @Test
+    void parsesFromAnOffset() {
+        byte[] data = bytes("xxxxGET /a HTTP/1.1\r\n\r\n");
+        RequestParser parser = new RequestParser(8192);
+        assertEquals("/a", parser.parse(data, 4, data.length).getTarget());
+        assertEquals(data.length - 4, parser.consumed());
+    }
+
+    @Test
+    void skipsBlankLinesBeforeTheRequestLine() {
+        byte[] data = bytes("\r\n\r\nGET /a HTTP/1.1\r\n\r\n");
+        RequestParser parser = new RequestParser(8192);
+        assertEquals("/a", parser.parse(data, 0, data.length).getTarget());
+        assertEquals(data.length, parser.consumed());
+    }
+
+    @Test
+    void parsesPipelinedHeadsInTurn() {
+        byte[] data = bytes("GET /a HTTP/1.1\r\n\r\nGET /b HTTP/1.1\r\n\r\n");
+        RequestParser parser = new RequestParser(8192);
+        assertEquals("/a", parser.parse(data, 0, data.length).getTarget());
+        int next = parser.consumed();
+        assertEquals("/b", parser.parse(data, next, data.length).getTarget());
+    }
+
+    @Test
+    void rejectsMalformedRequestLines() {
+        byte[] data = bytes("GARBAGE\r\n\r\n");
+        assertThrows(IllegalArgumentException.class, () -> new RequestParser(8192).parse(data, 0, data.length));
+    }
+
+    @Test
+    void rejectsHeaderLinesWithoutColon() {
+        byte[] data = bytes("GET / HTTP/1.1\r\nNoColon\r\n\r\n");
+        assertThrows(IllegalArgumentException.class, () -> new RequestParser(8192).parse(data, 0, data.length));
+    }
+
+    @Test
+    void rejectsHeadsOverTheSizeLimit() {
+        byte[] complete = bytes("GET / HTTP/1.1\r\nX-Long: " + "a".repeat(100) + "\r\n\r\n");
+        assertThrows(RequestHeadTooLargeException.class, () -> new RequestParser(64).parse(complete, 0, complete.length));
+
+        // A head that never ends is rejected once it outgrows the limit, not only at its blank line.
+        byte[] endless = bytes("GET / HTTP/1.1\r\nX-Long: " + "a".repeat(100));
+        assertThrows(RequestHeadTooLargeException.class, () -> new RequestParser(64).parse(endless, 0, endless.length));
+    }
+
+    @Test
+    void rejectsTooManyHeaderLines() {
+        StringBuilder head = new StringBuilder("GET / HTTP/1.1\r\n");
+        for (int i = 0; i < 5; i++) head.append("X-").append(i).append(": v\r\n");
+        byte[] data = bytes(head.append("\r\n").toString());
+        assertThrows(RequestHeadTooLargeException.class, () -> new RequestParser(8192, 4).parse(data, 0, data.length));
+        assertEquals(5, new RequestParser(8192, 5).parse(data, 0, data.length).getHeaderCount());
+    }
+}
@@ -0,0 +1,109 @@
+package cat.ella.aweb.processor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.tools.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RouteProcessorTest {
+    private static final String IMPORTS = "package app;\n"
+            + "import cat.ella.aweb.annotations.*;\n"
+            + "import cat.ella.aweb.api.*;\n"
+            + "import java.util.List;\n";
+
+    @TempDir
+    Path output;
+
+    private final List<Diagnostic<? extends JavaFileObject>> diagnostics = new ArrayList<>();
+
+    /**
+     * Compile one class in package {@code app} with the processor.
+     *
+     * @return Whether compilation succeeded.
+     */
+    private boolean compile(String body) throws Exception {
+        Path source = Files.createDirectories(output.resolve("src/app")).resolve("Service.java");
+        Files.writeString(source, IMPORTS + "public class Service {\n" + body + "\n}\n");
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> collector = new DiagnosticCollector<>();
+        try (StandardJavaFileManager files = compiler.getStandardFileManager(collector, null, StandardCharsets.UTF_8)) {
+            List<String> options = List.of("-d", Files.createDirectories(output.resolve("classes")).toString(),
+                    "-s", Files.createDirectories(output.resolve("generated")).toString(),
+                    "-classpath", System.getProperty("java.class.path"), "-implicit:none");
+            JavaCompiler.CompilationTask task = compiler.getTask(null, files, collector, options, null, files.getJavaFileObjects(source));
+            task.setProcessors(List.of(new RouteProcessor()));
+            boolean success = task.call();
+            diagnostics.addAll(collector.getDiagnostics());
+            return success;
+        }
+    }
+
+    private String errors() {
+        StringBuilder errors = new StringBuilder();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) errors.append(diagnostic.getMessage(null)).append('\n');
+        }
+        return errors.toString();
+    }
+
+    private String generated() throws Exception {
+        return Files.readString(output.resolve("generated/app/GeneratedRouteRegistry.java"));
+    }
+
+    @Test
+    void generatesARegistryForStaticMethods() throws Exception {
+        assertTrue(compile("@WebService(port = 8080) @Route(path = \"/a\", compress = true)\n"
+                + "public static byte[] a(FormattedRequest request) { return new byte[0]; }\n"
+                + "@WebService(port = 8080) @Route(path = \"/b\") @Capture(method = \"POST\", async = true, status = 204)\n"
+                + "public static void b(FormattedRequest request) { }\n"
+                + "@WebService(port = 8080) @Route(path = \"/c\") @Capture(method = \"POST\", batchSize = 10, batchDelayMillis = 5)\n"
+                + "public static void c(List<FormattedRequest> requests) { }\n"
+                + "@WebService(port = 8080) @Route(path = \"/d\")\n"
+                + "public byte[] instance() { return new byte[0]; }\n"), errors());
+
+        String registry = generated();
+        assertTrue(registry.contains("routes.route(8080, \"app.Service#a\", \"/a\", false, true, request -> app.Service.a(request));"), registry);
+        assertTrue(registry.contains("routes.asyncCapture(8080, \"app.Service#b\", \"/b\", \"POST\", 204, request -> app.Service.b(request));"), registry);
+        assertTrue(registry.contains("routes.batchCapture(8080, \"app.Service#c\", \"/c\", \"POST\", 202, 10, 5L, requests -> app.Service.c(requests));"), registry);
+        assertFalse(registry.contains("instance"), registry);
+        assertEquals("app.GeneratedRouteRegistry\n", Files.readString(output.resolve("classes/META-INF/services/cat.ella.aweb.api.RouteRegistry")));
+    }
+
+    @Test
+    void rejectsUnservableSignatures() throws Exception {
+        assertFalse(compile("@WebService(port = 8080) @Route(path = \"/a\")\n"
+                + "public static String a(FormattedRequest request) { return \"\"; }\n"));
+        assertTrue(errors().contains("@Route method must return byte[]"), errors());
+    }
+
+    @Test
+    void rejectsCaptureWithoutRoute() throws Exception {
+        assertFalse(compile("@WebService(port = 8080) @Capture(method = \"POST\")\n"
+                + "public static void a(FormattedRequest request) { }\n"));
+        assertTrue(errors().contains("@Capture requires @Route"), errors());
+    }
+
+    @Test
+    void rejectsPrivateStaticMethods() throws Exception {
+        assertFalse(compile("@WebService(port = 8080) @Route(path = \"/a\")\n"
+                + "private static byte[] a() { return new byte[0]; }\n"));
+        assertTrue(errors().contains("must not be private"), errors());
+    }
+
+    @Test
+    void rejectsCaptureStatusesThatCannotAcknowledge() throws Exception {
+        assertFalse(compile("@WebService(port = 8080) @Route(path = \"/a\") @Capture(method = \"POST\", async = true, status = 500)\n"
+                + "public static void a(FormattedRequest request) { }\n"
+                + "@WebService(port = 8080) @Route(path = \"/b\") @Capture(method = \"POST\", batchSize = 10, status = 206)\n"
+                + "public static void b(List<FormattedRequest> requests) { }\n"));
+        assertEquals(2, errors().split("\n").length, errors());
+        assertTrue(errors().contains("@Capture status must be 200, 201, 202 or 204"), errors());
+    }
+}